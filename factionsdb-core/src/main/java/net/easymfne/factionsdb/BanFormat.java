@@ -0,0 +1,411 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Line-based file format for exchanging bans with other servers and tools.
+ * Each ban is written and read as a single line, so that files of any size
+ * can be streamed without holding a document in memory. Every record has the
+ * fields key, name, uuid, faction, timestamp, duration, and policy; unknown
+ * UUIDs and factions are empty (CSV) or null (JSON Lines).
+ */
+public abstract class BanFormat {
+    
+    /**
+     * Comma-separated values with a header line. Fields containing commas or
+     * quotes are quoted, with quotes doubled.
+     */
+    private static class Csv extends BanFormat {
+        
+        private static final String HEADER =
+                "key,name,uuid,faction,timestamp,duration,policy";
+        
+        /**
+         * Quote a field if it contains special characters.
+         */
+        private static String quote(String field) {
+            if (field == null) {
+                return "";
+            }
+            if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+                return field;
+            }
+            return '"' + field.replace("\"", "\"\"") + '"';
+        }
+        
+        /**
+         * Split a line into fields, removing any quotes.
+         */
+        private static List<String> split(String line) throws IOException {
+            List<String> fields = new ArrayList<String>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c != '"') {
+                        field.append(c);
+                    } else if (i + 1 < line.length()
+                            && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else {
+                    field.append(c);
+                }
+            }
+            if (quoted) {
+                throw new IOException("Unterminated quote");
+            }
+            fields.add(field.toString());
+            return fields;
+        }
+        
+        @Override
+        protected Map<String, String> parse(String line) throws IOException {
+            if (line.equals(HEADER)) {
+                return null;
+            }
+            List<String> values = split(line);
+            if (values.size() != FIELDS.length) {
+                throw new IOException("Expected " + FIELDS.length
+                        + " fields but found " + values.size());
+            }
+            Map<String, String> fields = new HashMap<String, String>();
+            for (int i = 0; i < FIELDS.length; i++) {
+                String value = values.get(i);
+                fields.put(FIELDS[i], value.length() == 0 ? null : value);
+            }
+            return fields;
+        }
+        
+        @Override
+        public void write(Writer writer, String key, DeathBan ban)
+                throws IOException {
+            writer.write(quote(key));
+            writer.write(',');
+            writer.write(quote(ban.getName()));
+            writer.write(',');
+            if (ban.getUniqueId() != null) {
+                writer.write(ban.getUniqueId().toString());
+            }
+            writer.write(',');
+            writer.write(quote(ban.getFactionId()));
+            writer.write(',');
+            writer.write(Long.toString(ban.getTimestamp()));
+            writer.write(',');
+            writer.write(Long.toString(ban.getDuration()));
+            writer.write(',');
+            writer.write(quote(ban.getPolicy()));
+            writer.write('\n');
+        }
+        
+        @Override
+        public void writeHeader(Writer writer) throws IOException {
+            writer.write(HEADER);
+            writer.write('\n');
+        }
+        
+    }
+    
+    /**
+     * One flat JSON object per line, with string, number, and null values.
+     */
+    private static class JsonLines extends BanFormat {
+        
+        /**
+         * Append a String as a quoted JSON string, or null.
+         */
+        private static void quote(Writer writer, String value)
+                throws IOException {
+            if (value == null) {
+                writer.write("null");
+                return;
+            }
+            writer.write('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    writer.write('\\');
+                    writer.write(c);
+                } else if (c < 0x20) {
+                    writer.write(String.format("\\u%04x", (int) c));
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write('"');
+        }
+        
+        @Override
+        protected Map<String, String> parse(String line) throws IOException {
+            return new JsonObjectParser(line).parse();
+        }
+        
+        @Override
+        public void write(Writer writer, String key, DeathBan ban)
+                throws IOException {
+            writer.write("{\"key\":");
+            quote(writer, key);
+            writer.write(",\"name\":");
+            quote(writer, ban.getName());
+            writer.write(",\"uuid\":");
+            quote(writer, ban.getUniqueId() == null ? null : ban
+                    .getUniqueId().toString());
+            writer.write(",\"faction\":");
+            quote(writer, ban.getFactionId());
+            writer.write(",\"timestamp\":");
+            writer.write(Long.toString(ban.getTimestamp()));
+            writer.write(",\"duration\":");
+            writer.write(Long.toString(ban.getDuration()));
+            writer.write(",\"policy\":");
+            quote(writer, ban.getPolicy());
+            writer.write("}\n");
+        }
+        
+        @Override
+        public void writeHeader(Writer writer) {
+            /* JSON Lines has no header */
+        }
+        
+    }
+    
+    /**
+     * Parser for a single flat JSON object, keeping every value as a String.
+     */
+    private static class JsonObjectParser {
+        
+        private final String text;
+        private int pos = 0;
+        
+        private JsonObjectParser(String text) {
+            this.text = text;
+        }
+        
+        private void expect(char c) throws IOException {
+            skipWhitespace();
+            if (pos >= text.length() || text.charAt(pos) != c) {
+                throw new IOException("Expected '" + c + "' at position "
+                        + pos);
+            }
+            pos++;
+        }
+        
+        private Map<String, String> parse() throws IOException {
+            Map<String, String> fields = new HashMap<String, String>();
+            expect('{');
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '}') {
+                pos++;
+                return fields;
+            }
+            do {
+                skipWhitespace();
+                String name = parseString();
+                expect(':');
+                fields.put(name, parseValue());
+                skipWhitespace();
+            } while (pos < text.length() && text.charAt(pos++) == ',');
+            if (text.charAt(pos - 1) != '}') {
+                throw new IOException("Expected '}' at position " + (pos - 1));
+            }
+            return fields;
+        }
+        
+        private String parseString() throws IOException {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    break;
+                }
+                char escape = text.charAt(pos++);
+                switch (escape) {
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 > text.length()) {
+                        throw new IOException("Truncated escape");
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(
+                                text.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid escape at position "
+                                + pos);
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    value.append(escape);
+                }
+            }
+            throw new IOException("Unterminated string");
+        }
+        
+        private String parseValue() throws IOException {
+            skipWhitespace();
+            if (pos < text.length() && text.charAt(pos) == '"') {
+                return parseString();
+            }
+            int start = pos;
+            while (pos < text.length() && text.charAt(pos) != ','
+                    && text.charAt(pos) != '}') {
+                pos++;
+            }
+            String literal = text.substring(start, pos).trim();
+            if (literal.length() == 0) {
+                throw new IOException("Missing value at position " + start);
+            }
+            return literal.equals("null") ? null : literal;
+        }
+        
+        private void skipWhitespace() {
+            while (pos < text.length()
+                    && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+        
+    }
+    
+    /* Names of the fields of every record, in CSV column order */
+    private static final String[] FIELDS = { "key", "name", "uuid",
+            "faction", "timestamp", "duration", "policy" };
+    
+    /**
+     * Choose a format by file extension: ".csv" for CSV, or ".jsonl" or
+     * ".json" for JSON Lines.
+     * 
+     * @param file
+     *            File to be written or read
+     * @return The format, or null if the extension is not recognized
+     */
+    public static BanFormat forFile(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".csv")) {
+            return new Csv();
+        }
+        if (name.endsWith(".jsonl") || name.endsWith(".json")) {
+            return new JsonLines();
+        }
+        return null;
+    }
+    
+    /**
+     * Split a line into named field values.
+     * 
+     * @param line
+     *            Line to parse
+     * @return Values by field name, or null if the line is a header
+     * @throws IOException
+     *             If the line is malformed
+     */
+    protected abstract Map<String, String> parse(String line)
+            throws IOException;
+    
+    /**
+     * Read a ban from a single line.
+     * 
+     * @param line
+     *            Line to read, without its line terminator
+     * @return The ban, or null if the line is blank or a header
+     * @throws IOException
+     *             If the line is malformed
+     */
+    public DeathBan read(String line) throws IOException {
+        if (line.trim().length() == 0) {
+            return null;
+        }
+        Map<String, String> fields = parse(line);
+        if (fields == null) {
+            return null;
+        }
+        String name = fields.get("name");
+        if (name == null) {
+            throw new IOException("Missing name");
+        }
+        try {
+            return new DeathBan(name, Util.parseUuid(fields.get("uuid")),
+                    fields.get("faction"),
+                    Long.parseLong(fields.get("timestamp")),
+                    Long.parseLong(fields.get("duration")),
+                    fields.get("policy") == null ? BanPolicy.DEFAULT
+                            : fields.get("policy"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid timestamp or duration");
+        }
+    }
+    
+    /**
+     * Write a ban as a single line.
+     * 
+     * @param writer
+     *            Destination writer
+     * @param key
+     *            Key of the ban
+     * @param ban
+     *            The ban
+     * @throws IOException
+     */
+    public abstract void write(Writer writer, String key, DeathBan ban)
+            throws IOException;
+    
+    /**
+     * Write anything that must precede the first record.
+     * 
+     * @param writer
+     *            Destination writer
+     * @throws IOException
+     */
+    public abstract void writeHeader(Writer writer) throws IOException;
+    
+}
@@ -0,0 +1,235 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only log of ban changes made since the last full save of the bans
+ * file. Each line is either a put ("+", key, timestamp, duration, policy,
+ * uuid, faction, name) or a removal ("-", key), separated by tabs. Unknown
+ * UUIDs and factions are written as empty fields. Replaying a record is
+ * idempotent, so records may safely be written more than once.
+ * 
+ * An append cut off by a crash can leave a partial last line. Such a record
+ * was never synced, so the change it held was never reported as saved;
+ * replaying drops it and truncates the file before it, so that later appends
+ * start on a line of their own.
+ */
+public class BanJournal {
+    
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+    private static final char SEPARATOR = '\t';
+    
+    private final File file;
+    
+    /**
+     * Create a journal backed by a file, which need not exist yet.
+     * 
+     * @param file
+     *            The journal file
+     */
+    public BanJournal(File file) {
+        this.file = file;
+    }
+    
+    /**
+     * Append the current state of each key to the journal, stopping early if
+     * the deadline passes. The file is synced to disk before returning.
+     * 
+     * @param keys
+     *            Keys whose state should be recorded
+     * @param bans
+     *            Current bans, used to decide between put and removal
+     * @param deadline
+     *            Time in milliseconds since epoch at which to stop writing
+     * @return Number of keys written, starting from the first
+     * @throws IOException
+     */
+    public int append(List<String> keys, Map<String, DeathBan> bans,
+            long deadline) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out,
+                "UTF-8"));
+        int written = 0;
+        try {
+            while (written < keys.size()
+                    && System.currentTimeMillis() < deadline) {
+                String key = keys.get(written);
+                writeRecord(writer, key, bans.get(key));
+                written++;
+            }
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            writer.close();
+        }
+        return written;
+    }
+    
+    /**
+     * Delete the journal file, if it exists.
+     * 
+     * @return Whether a file was deleted
+     */
+    public boolean delete() {
+        return file.exists() && file.delete();
+    }
+    
+    /**
+     * @return Whether the journal file exists
+     */
+    public boolean exists() {
+        return file.exists();
+    }
+    
+    /**
+     * Apply every record in the journal, in order, to a map of bans. A last
+     * record that is unterminated or malformed is taken to be a cut-off
+     * append: it is dropped, and the file is truncated before it.
+     * 
+     * @param bans
+     *            Map of bans to modify
+     * @return Number of records applied, or 0 if there is no journal
+     * @throws IOException
+     *             If the file cannot be read or contains a malformed record
+     *             before the last
+     */
+    public int replay(Map<String, DeathBan> bans) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        RandomAccessFile data = new RandomAccessFile(file, "rw");
+        int applied = 0;
+        try {
+            byte[] bytes = new byte[(int) data.length()];
+            data.readFully(bytes);
+            int start = 0;
+            while (start < bytes.length) {
+                int end = start;
+                while (end < bytes.length && bytes[end] != '\n') {
+                    end++;
+                }
+                String line = new String(bytes, start, end - start, "UTF-8");
+                if (end == bytes.length) {
+                    /* Unterminated, so the append was cut off */
+                    data.setLength(start);
+                    break;
+                }
+                if (line.length() > 0) {
+                    try {
+                        applyRecord(line, bans);
+                        applied++;
+                    } catch (IOException e) {
+                        /* Only blank lines may follow a cut-off record */
+                        for (int i = end + 1; i < bytes.length; i++) {
+                            if (bytes[i] != '\n') {
+                                throw e;
+                            }
+                        }
+                        data.setLength(start);
+                        break;
+                    }
+                }
+                start = end + 1;
+            }
+        } finally {
+            data.close();
+        }
+        return applied;
+    }
+    
+    /**
+     * Parse a single journal line and apply it to a map of bans.
+     * 
+     * @param line
+     *            Journal line
+     * @param bans
+     *            Map of bans to modify
+     * @throws IOException
+     *             If the line is malformed
+     */
+    private void applyRecord(String line, Map<String, DeathBan> bans)
+            throws IOException {
+        String[] fields = line.split(String.valueOf(SEPARATOR), 8);
+        try {
+            if (fields[0].equals(PUT) && fields.length == 8) {
+                bans.put(fields[1], new DeathBan(fields[7], Util
+                        .parseUuid(fields[5]), fields[6].length() == 0 ? null
+                        : fields[6], Long.parseLong(fields[2]), Long
+                        .parseLong(fields[3]), fields[4]));
+                return;
+            }
+            if (fields[0].equals(REMOVE) && fields.length == 2) {
+                bans.remove(fields[1]);
+                return;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through to the malformed record exception */
+        }
+        throw new IOException("Malformed journal record: " + line);
+    }
+    
+    /**
+     * Write a single record describing the current state of a key.
+     * 
+     * @param writer
+     *            Destination writer
+     * @param key
+     *            Ban key
+     * @param ban
+     *            Current ban for the key, or null if it was removed
+     * @throws IOException
+     */
+    private void writeRecord(Writer writer, String key, DeathBan ban)
+            throws IOException {
+        if (ban == null) {
+            writer.write(REMOVE);
+            writer.write(SEPARATOR);
+            writer.write(key);
+        } else {
+            writer.write(PUT);
+            writer.write(SEPARATOR);
+            writer.write(key);
+            writer.write(SEPARATOR);
+            writer.write(Long.toString(ban.getTimestamp()));
+            writer.write(SEPARATOR);
+            writer.write(Long.toString(ban.getDuration()));
+            writer.write(SEPARATOR);
+            writer.write(ban.getPolicy());
+            writer.write(SEPARATOR);
+            if (ban.getUniqueId() != null) {
+                writer.write(ban.getUniqueId().toString());
+            }
+            writer.write(SEPARATOR);
+            if (ban.getFactionId() != null) {
+                writer.write(ban.getFactionId());
+            }
+            writer.write(SEPARATOR);
+            writer.write(ban.getName());
+        }
+        writer.write('\n');
+    }
+    
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+/**
+ * Immutable set of effective ban rules: the power threshold, the power boost
+ * upon return, and the ban duration.
+ */
+public class BanPolicy {
+    
+    /** Name of the policy built from the global configuration values */
+    public static final String DEFAULT = "default";
+    
+    private final String name;
+    private final double threshold;
+    private final double boost;
+    private final long duration;
+    
+    /**
+     * Initialize with fully specified values.
+     * 
+     * @param name
+     *            Name of the policy
+     * @param threshold
+     *            Power level that triggers a deathban
+     * @param boost
+     *            Power boost upon returning from a deathban
+     * @param duration
+     *            Length of deathbans, in milliseconds
+     */
+    public BanPolicy(String name, double threshold, double boost,
+            long duration) {
+        this.name = name;
+        this.threshold = threshold;
+        this.boost = boost;
+        this.duration = duration;
+    }
+    
+    /**
+     * Create a new policy by applying a rule's overrides on top of this one.
+     * The result is named after the rule, prefixed by this policy's name
+     * unless this is the default policy.
+     * 
+     * @param rule
+     *            Rule whose non-null values take precedence
+     * @return The derived policy
+     */
+    public BanPolicy derive(PolicyTable.Rule rule) {
+        return new BanPolicy(DEFAULT.equals(name) ? rule.getName() : name
+                + "+" + rule.getName(),
+                rule.getThreshold() != null ? rule.getThreshold() : threshold,
+                rule.getBoost() != null ? rule.getBoost() : boost,
+                rule.getDuration() != null ? rule.getDuration() : duration);
+    }
+    
+    /**
+     * @return Power level boost upon returning from a deathban
+     */
+    public double getBoost() {
+        return boost;
+    }
+    
+    /**
+     * @return Duration of deathbans, in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+    
+    /**
+     * @return Name of the policy, used to find it again for an existing ban
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return Power level that triggers a deathban
+     */
+    public double getThreshold() {
+        return threshold;
+    }
+    
+}
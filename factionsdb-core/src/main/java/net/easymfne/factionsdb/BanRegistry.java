@@ -0,0 +1,1010 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.easymfne.factionsdb.ColdStore.ColdBan;
+
+/**
+ * Registry of active bans by key, which also tracks the keys changed since the
+ * last save and serves the {@link DeathBanService}. Bans may be read from any
+ * thread, but must only be added and removed on the main server thread. The
+ * changed keys may be read and marked from any thread, so that saves can run
+ * elsewhere.
+ * 
+ * All bans are held in a persistent {@link BanTrie} published through an
+ * atomic reference. Each change builds a new version that shares everything
+ * but the changed path with the last, so {@link #freeze()} hands out an
+ * immutable copy of every ban without copying anything, and saves may
+ * serialize that copy while the registry keeps changing. The trie stores each
+ * ban packed into primitives, so every lookup creates a new DeathBan.
+ * 
+ * If a hot tier limit is set, only that many bans are kept in the trie's
+ * memory: those most recently added or looked up. The leaves of the rest are
+ * swapped for references to records in a {@link ColdStore}, which are read
+ * from disk when used, and swapped back when looked up by key, which is meant
+ * to happen on the asynchronous pre-login thread. Moving a ban between tiers
+ * does not count as a change. Reading a frozen copy reads its cold bans one
+ * at a time as they are reached, so it is best done off the main server
+ * thread, and throws {@link ColdStoreException} if a record cannot be read.
+ * 
+ * Standing bans are also indexed by the faction each banned player currently
+ * belongs to, in a {@link FactionIndex}.
+ */
+public class BanRegistry implements DeathBanService {
+    
+    /**
+     * Read-only Map view of both tiers. Lookups through the view do not page
+     * bans in.
+     */
+    private class MapView extends AbstractMap<String, DeathBan> {
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && contains((String) key);
+        }
+        
+        @Override
+        public Set<Entry<String, DeathBan>> entrySet() {
+            return new AbstractSet<Entry<String, DeathBan>>() {
+                @Override
+                public Iterator<Entry<String, DeathBan>> iterator() {
+                    return freeze().entrySet().iterator();
+                }
+                
+                @Override
+                public int size() {
+                    return getBanCount();
+                }
+            };
+        }
+        
+        @Override
+        public DeathBan get(Object key) {
+            return key instanceof String ? peek((String) key) : null;
+        }
+        
+        @Override
+        public int size() {
+            return getBanCount();
+        }
+        
+    }
+    
+    /**
+     * Immutable view of every ban at one version of the registry, shared by
+     * all queries until a newer one has been built.
+     */
+    private static class Snapshot {
+        
+        private final long version;
+        private final Map<UUID, DeathBan> byUuid;
+        private final Map<String, long[]> deadlinesByFaction;
+        private final List<DeathBan> byDeadline;
+        
+        private Snapshot(long version, Collection<DeathBan> bans) {
+            this.version = version;
+            DeathBan[] sorted = bans.toArray(new DeathBan[bans.size()]);
+            Arrays.sort(sorted, DEADLINE_ORDER);
+            byDeadline = Collections.unmodifiableList(Arrays.asList(sorted));
+            byUuid = new HashMap<UUID, DeathBan>();
+            Map<String, List<DeathBan>> byFaction;
+            byFaction = new HashMap<String, List<DeathBan>>();
+            for (DeathBan ban : sorted) {
+                if (ban.getUniqueId() != null) {
+                    byUuid.put(ban.getUniqueId(), ban);
+                }
+                if (ban.getFactionId() != null) {
+                    List<DeathBan> members = byFaction.get(ban.getFactionId());
+                    if (members == null) {
+                        members = new ArrayList<DeathBan>();
+                        byFaction.put(ban.getFactionId(), members);
+                    }
+                    members.add(ban);
+                }
+            }
+            deadlinesByFaction = new HashMap<String, long[]>();
+            for (Entry<String, List<DeathBan>> entry : byFaction.entrySet()) {
+                long[] deadlines = new long[entry.getValue().size()];
+                for (int i = 0; i < deadlines.length; i++) {
+                    deadlines[i] = entry.getValue().get(i).getDeadline();
+                }
+                deadlinesByFaction.put(entry.getKey(), deadlines);
+            }
+        }
+        
+    }
+    
+    /* Orders entries by the time their bans were issued */
+    private static final Comparator<Entry<String, DeathBan>> ISSUE_ORDER =
+            new Comparator<Entry<String, DeathBan>>() {
+                @Override
+                public int compare(Entry<String, DeathBan> a,
+                        Entry<String, DeathBan> b) {
+                    long x = a.getValue().getTimestamp();
+                    long y = b.getValue().getTimestamp();
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+            };
+    
+    /* Orders bans by the time at which they run out */
+    private static final Comparator<DeathBan> DEADLINE_ORDER =
+            new Comparator<DeathBan>() {
+                @Override
+                public int compare(DeathBan a, DeathBan b) {
+                    long x = a.getDeadline();
+                    long y = b.getDeadline();
+                    return x < y ? -1 : (x == y ? 0 : 1);
+                }
+            };
+    
+    private final Logger logger;
+    private final Map<String, Long> changedKeys;
+    private final AtomicLong changes;
+    private final List<DeathBanListener> listeners;
+    private final AtomicLong version;
+    private final FactionIndex factionIndex;
+    
+    /* Latest snapshot, and whether a newer one is being built */
+    private volatile Snapshot snapshot = null;
+    private final AtomicBoolean rebuilding;
+    private volatile IoExecutor io = null;
+    
+    /* Bans of both tiers, and the hot keys from least to most recently used */
+    private final AtomicReference<BanTrie> bans;
+    private final ColdStore cold;
+    private final Object tierLock;
+    private final Map<String, Boolean> recent;
+    private volatile int hotLimit = 0;
+    
+    /* Lookup statistics */
+    private final AtomicLong hotHits;
+    private final AtomicLong pageIns;
+    private final AtomicLong misses;
+    
+    /**
+     * Create an empty registry.
+     * 
+     * @param logger
+     *            Logger for reporting misbehaving listeners and storage
+     *            failures
+     * @param cold
+     *            Store for bans outside the hot tier
+     */
+    public BanRegistry(Logger logger, ColdStore cold) {
+        this.logger = logger;
+        changedKeys = Collections
+                .synchronizedMap(new LinkedHashMap<String, Long>());
+        changes = new AtomicLong();
+        listeners = new CopyOnWriteArrayList<DeathBanListener>();
+        version = new AtomicLong();
+        factionIndex = new FactionIndex();
+        rebuilding = new AtomicBoolean();
+        bans = new AtomicReference<BanTrie>(BanTrie.EMPTY);
+        this.cold = cold;
+        tierLock = new Object();
+        recent = new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+        hotHits = new AtomicLong();
+        pageIns = new AtomicLong();
+        misses = new AtomicLong();
+    }
+    
+    @Override
+    public void addListener(DeathBanListener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * @return Unmodifiable live view of all bans by key, in both tiers
+     */
+    public Map<String, DeathBan> asMap() {
+        return new MapView();
+    }
+    
+    /**
+     * Record that the ban for a key was added or removed. A key that already
+     * has an unsaved change keeps its place in the order of first change.
+     * 
+     * @param key
+     *            Key of the ban
+     */
+    private void changed(String key) {
+        changedKeys.put(key, changes.incrementAndGet());
+    }
+    
+    /**
+     * Close the cold tier, deleting its files. Bans in the cold tier are
+     * lost, so they should have been saved first.
+     */
+    public void close() {
+        synchronized (tierLock) {
+            cold.close();
+        }
+    }
+    
+    /**
+     * Copy the live cold records into a new segment if the current one is
+     * mostly garbage, swapping the copies into the trie. A record that cannot
+     * be copied stays where it is, and its segment is kept until nothing
+     * refers to it. Must be called while holding the tier lock.
+     */
+    private void compactCold() {
+        if (!cold.isWasteful()) {
+            return;
+        }
+        cold.startSegment();
+        BanTrie trie = bans.get();
+        Iterator<BanTrie.Leaf> leaves = trie.leaves();
+        try {
+            while (leaves.hasNext()) {
+                BanTrie.Leaf leaf = leaves.next();
+                if (leaf instanceof ColdBan) {
+                    trie = trie.replace(leaf, cold.copy((ColdBan) leaf));
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Failed to compact cold ban storage", e);
+        }
+        bans.set(trie);
+    }
+    
+    /**
+     * Check for an existing ban by key, in either tier.
+     * 
+     * @param key
+     *            Key to use for lookup
+     * @return Whether a ban exists for the key
+     */
+    public boolean contains(String key) {
+        return getLeaf(bans.get(), key) != null;
+    }
+    
+    @Override
+    public int countBannedIn(String factionId) {
+        long[] deadlines = getSnapshot().deadlinesByFaction.get(factionId);
+        if (deadlines == null) {
+            return 0;
+        }
+        /* Binary search for the first deadline that has not yet passed */
+        long now = System.currentTimeMillis();
+        int low = 0;
+        int high = deadlines.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (deadlines[middle] < now) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return deadlines.length - low;
+    }
+    
+    /**
+     * @return Estimated memory used to store the bans, in bytes
+     */
+    public long estimateBytes() {
+        synchronized (tierLock) {
+            /* Each recency entry holds a map node and a key String */
+            return bans.get().estimateBytes() + recent.size() * 120L;
+        }
+    }
+    
+    /**
+     * Move the least recently used bans to the cold tier until the hot tier
+     * is within its limit. Must be called while holding the tier lock.
+     */
+    private void evict() {
+        Iterator<String> eldest = recent.keySet().iterator();
+        while (hotLimit > 0 && recent.size() > hotLimit) {
+            String key = eldest.next();
+            BanTrie trie = bans.get();
+            BanTrie.Leaf leaf = trie.getLeaf(key);
+            if (leaf instanceof PackedBan) {
+                try {
+                    bans.set(trie.replace(leaf,
+                            cold.write(leaf.hash, key, leaf.getBan())));
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE,
+                            "Failed to write cold ban storage", e);
+                    return;
+                }
+            }
+            eldest.remove();
+        }
+    }
+    
+    /**
+     * Replace the contents of both tiers. The most recently issued bans fill
+     * the hot tier, and the rest go to the cold tier. Must be called while
+     * holding the tier lock.
+     * 
+     * @param entries
+     *            Entries to store, with no repeated keys
+     */
+    private void fill(List<Entry<String, DeathBan>> entries) {
+        Collections.sort(entries, ISSUE_ORDER);
+        BanTrie filled = BanTrie.EMPTY;
+        recent.clear();
+        cold.clear();
+        int first = hotLimit > 0 ? Math.max(0, entries.size() - hotLimit) : 0;
+        for (int i = 0; i < entries.size(); i++) {
+            String key = entries.get(i).getKey();
+            DeathBan ban = entries.get(i).getValue();
+            if (i < first) {
+                try {
+                    filled = filled.put(key,
+                            cold.write(BanTrie.hash(key), key, ban));
+                    continue;
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE,
+                            "Failed to write cold ban storage", e);
+                    first = 0;
+                }
+            }
+            filled = filled.put(key, ban);
+            if (hotLimit > 0) {
+                recent.put(key, Boolean.TRUE);
+            }
+        }
+        bans.set(filled);
+        evict();
+    }
+    
+    /**
+     * Get an immutable copy of every ban by key, which is the current version
+     * of the trie and costs nothing to take. Cold bans are read from disk as
+     * the copy reaches them.
+     * 
+     * @return Immutable map of all bans by key, unaffected by later changes.
+     *         Reading it throws {@link ColdStoreException} if a cold ban
+     *         cannot be read, as a partial copy would lose the unread bans
+     *         if it were saved.
+     */
+    public Map<String, DeathBan> freeze() {
+        return bans.get().asMap();
+    }
+    
+    /**
+     * Get an existing ban by key, paging it in if it is in the cold tier.
+     * 
+     * @param key
+     *            Key to use for lookup
+     * @return DeathBan, or null if none exists. Every lookup returns a new
+     *         object, so bans should be compared by value.
+     */
+    public DeathBan get(String key) {
+        BanTrie.Leaf leaf = getLeaf(bans.get(), key);
+        if (leaf instanceof PackedBan) {
+            hotHits.incrementAndGet();
+            if (hotLimit > 0) {
+                synchronized (tierLock) {
+                    touch(key);
+                }
+            }
+            return leaf.getBan();
+        }
+        if (leaf == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        synchronized (tierLock) {
+            BanTrie trie = bans.get();
+            leaf = getLeaf(trie, key);
+            if (leaf == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (leaf instanceof PackedBan) {
+                hotHits.incrementAndGet();
+                touch(key);
+                return leaf.getBan();
+            }
+            DeathBan ban;
+            try {
+                ban = leaf.getBan();
+            } catch (ColdStoreException e) {
+                logger.log(Level.SEVERE, "Failed to read cold ban storage", e);
+                misses.incrementAndGet();
+                return null;
+            }
+            pageIns.incrementAndGet();
+            bans.set(trie.replace(leaf, new PackedBan(leaf.hash, key, ban)));
+            cold.release((ColdBan) leaf);
+            touch(key);
+            evict();
+            compactCold();
+            return ban;
+        }
+    }
+    
+    @Override
+    public DeathBan getBan(UUID player) {
+        return getSnapshot().byUuid.get(player);
+    }
+    
+    @Override
+    public int getBanCount() {
+        return bans.get().size();
+    }
+    
+    @Override
+    public Map<UUID, DeathBan> getBans(Collection<UUID> players) {
+        Map<UUID, DeathBan> byUuid = getSnapshot().byUuid;
+        Map<UUID, DeathBan> result = new LinkedHashMap<UUID, DeathBan>();
+        for (UUID player : players) {
+            DeathBan ban = byUuid.get(player);
+            if (ban != null) {
+                result.put(player, ban);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<DeathBan> getBansByDeadline() {
+        return getSnapshot().byDeadline;
+    }
+    
+    /**
+     * @return Number of changes recorded so far, which identifies the changes
+     *         included in a save that starts now
+     */
+    public long getChangeCount() {
+        return changes.get();
+    }
+    
+    /**
+     * @return Keys whose bans were added or removed since the last save, in
+     *         order of first change
+     */
+    public List<String> getChangedKeys() {
+        synchronized (changedKeys) {
+            return new ArrayList<String>(changedKeys.keySet());
+        }
+    }
+    
+    /**
+     * @return Number of bans in the cold tier
+     */
+    public int getColdCount() {
+        return cold.size();
+    }
+    
+    /**
+     * @return Size of the cold tier's current file, in bytes
+     */
+    public long getColdFileLength() {
+        return cold.getFileLength();
+    }
+    
+    /**
+     * @return Index of standing bans by the current faction of each player
+     */
+    public FactionIndex getFactionIndex() {
+        return factionIndex;
+    }
+    
+    /**
+     * @return Number of bans in the hot tier
+     */
+    public int getHotCount() {
+        return Math.max(0, bans.get().size() - cold.size());
+    }
+    
+    /**
+     * @return Number of lookups by key found in the hot tier
+     */
+    public long getHotHits() {
+        return hotHits.get();
+    }
+    
+    /**
+     * @return Maximum number of bans kept in the hot tier, or 0 for no limit
+     */
+    public int getHotLimit() {
+        return hotLimit;
+    }
+    
+    /**
+     * Get the leaf for a key from a version of the trie, logging a failure to
+     * read a cold ban whose key hash matches.
+     * 
+     * @param trie
+     *            Version of the trie to search
+     * @param key
+     *            Key to look up
+     * @return The leaf, or null if none exists or it could not be read
+     */
+    private BanTrie.Leaf getLeaf(BanTrie trie, String key) {
+        try {
+            return trie.getLeaf(key);
+        } catch (ColdStoreException e) {
+            logger.log(Level.SEVERE, "Failed to read cold ban storage", e);
+            return null;
+        }
+    }
+    
+    /**
+     * @return Number of lookups by key that found no ban in either tier
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * @return Number of lookups by key that paged a ban in from the cold
+     *         tier
+     */
+    public long getPageIns() {
+        return pageIns.get();
+    }
+    
+    /**
+     * Get the latest snapshot. Once an I/O executor is set and a snapshot
+     * exists, a query after a change is answered from the last snapshot while
+     * a new one is built on the executor, so queries never read the cold tier
+     * on the caller's thread. Otherwise the caller builds the snapshot,
+     * rebuilding it if the registry changed meanwhile, so that callers always
+     * see a consistent view.
+     * 
+     * @return Latest snapshot
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        IoExecutor executor = io;
+        if (current != null && executor != null) {
+            if (current.version != version.get()) {
+                scheduleSnapshot(executor);
+            }
+            return current;
+        }
+        long expected = version.get();
+        while (current == null || current.version != expected) {
+            current = new Snapshot(expected, freeze().values());
+            long actual = version.get();
+            if (actual == expected) {
+                snapshot = current;
+            }
+            expected = actual;
+        }
+        return current;
+    }
+    
+    /**
+     * Replace the contents of the registry with bans loaded from disk. No
+     * listeners are called, and the bans are not considered changed.
+     * 
+     * @param loaded
+     *            Bans by key
+     */
+    public void load(Map<String, DeathBan> loaded) {
+        synchronized (tierLock) {
+            fill(new ArrayList<Entry<String, DeathBan>>(loaded.entrySet()));
+        }
+        factionIndex.load(loaded, Collections.<String, String> emptyMap());
+        changedKeys.clear();
+        version.incrementAndGet();
+        IoExecutor executor = io;
+        if (executor != null) {
+            scheduleSnapshot(executor);
+        }
+    }
+    
+    /**
+     * Forget that keys have changed, because a save holding their bans has
+     * been written. A key that changed again after the save started stays
+     * changed, so that its newer ban is saved next time.
+     * 
+     * @param keys
+     *            Keys that were saved
+     * @param through
+     *            Change count when the save started, from
+     *            {@link #getChangeCount()}
+     */
+    public void markSaved(Collection<String> keys, long through) {
+        synchronized (changedKeys) {
+            for (String key : keys) {
+                Long change = changedKeys.get(key);
+                if (change != null && change <= through) {
+                    changedKeys.remove(key);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Tell listeners about an added or removed ban, logging any failures so
+     * that one listener cannot break the others.
+     * 
+     * @param ban
+     *            The ban
+     * @param added
+     *            Whether the ban was added, as opposed to removed
+     */
+    private void notifyListeners(DeathBan ban, boolean added) {
+        for (DeathBanListener listener : listeners) {
+            try {
+                if (added) {
+                    listener.banAdded(ban);
+                } else {
+                    listener.banRemoved(ban);
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "DeathBanListener "
+                        + listener.getClass().getName() + " failed", e);
+            }
+        }
+    }
+    
+    /**
+     * Swap every cold ban back into memory, such as when the hot tier limit
+     * is removed. Bans whose records cannot be read stay cold. Must be called
+     * while holding the tier lock.
+     */
+    private void pageInAll() {
+        BanTrie trie = bans.get();
+        Iterator<BanTrie.Leaf> leaves = trie.leaves();
+        try {
+            while (leaves.hasNext()) {
+                BanTrie.Leaf leaf = leaves.next();
+                if (leaf instanceof ColdBan) {
+                    Entry<String, DeathBan> entry = leaf.getEntry();
+                    trie = trie.replace(leaf, new PackedBan(leaf.hash,
+                            entry.getKey(), entry.getValue()));
+                    cold.release((ColdBan) leaf);
+                }
+            }
+        } catch (ColdStoreException e) {
+            logger.log(Level.SEVERE, "Failed to read cold ban storage, "
+                    + cold.size() + " bans left on disk", e);
+        }
+        bans.set(trie);
+    }
+    
+    /**
+     * Get an existing ban by key from either tier, without paging it in or
+     * counting the lookup. A ban in the cold tier is read from disk, so this
+     * is best kept off the main server thread.
+     * 
+     * @param key
+     *            Key to use for lookup
+     * @return DeathBan, or null if none exists
+     */
+    public DeathBan peek(String key) {
+        try {
+            BanTrie.Leaf leaf = bans.get().getLeaf(key);
+            return leaf == null ? null : leaf.getBan();
+        } catch (ColdStoreException e) {
+            logger.log(Level.SEVERE, "Failed to read cold ban storage", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Get an existing ban by key if it is in the hot tier, without reading
+     * the cold tier or counting the lookup.
+     * 
+     * @param key
+     *            Key to use for lookup
+     * @return DeathBan, or null if none exists in the hot tier
+     */
+    public DeathBan peekHot(String key) {
+        BanTrie.Leaf leaf = getLeaf(bans.get(), key);
+        return leaf instanceof PackedBan ? leaf.getBan() : null;
+    }
+    
+    /**
+     * Add a ban to the hot tier, replacing any existing ban for the same key.
+     * 
+     * @param key
+     *            Key for the ban
+     * @param ban
+     *            The ban
+     */
+    public void put(String key, DeathBan ban) {
+        DeathBan previous = null;
+        synchronized (tierLock) {
+            BanTrie trie = bans.get();
+            BanTrie.Leaf old = getLeaf(trie, key);
+            if (old == null) {
+                bans.set(trie.put(key, ban));
+            } else {
+                try {
+                    previous = old.getBan();
+                } catch (ColdStoreException e) {
+                    logger.log(Level.SEVERE,
+                            "Failed to read replaced ban for " + key, e);
+                }
+                bans.set(trie.replace(old, new PackedBan(old.hash, key, ban)));
+                if (old instanceof ColdBan) {
+                    cold.release((ColdBan) old);
+                }
+            }
+            touch(key);
+            evict();
+            compactCold();
+        }
+        changed(key);
+        version.incrementAndGet();
+        factionIndex.add(key, ban);
+        if (previous != null) {
+            notifyListeners(previous, false);
+        }
+        notifyListeners(ban, true);
+    }
+    
+    /**
+     * Move bans to new keys in a single step. Every moving ban is read first,
+     * then a new version of the trie with all of the moves is published, so
+     * that readers on other threads see either the old keys or the new keys
+     * and never a mixture; bans that keep their keys are not read. If several
+     * bans end up under the same key, only the newest is kept, and listeners
+     * are told that the others were removed.
+     * 
+     * @param renames
+     *            New key for each old key that should change
+     * @return Number of bans dropped because they shared a key with a newer
+     *         ban
+     * @throws ColdStoreException
+     *             If a moving cold ban cannot be read, in which case nothing
+     *             is changed
+     */
+    public int rekey(Map<String, String> renames) {
+        List<DeathBan> dropped = new ArrayList<DeathBan>();
+        Map<String, DeathBan> arriving = new HashMap<String, DeathBan>();
+        Map<String, String> factionIds = new HashMap<String, String>();
+        List<String> departed = new ArrayList<String>();
+        synchronized (tierLock) {
+            BanTrie trie = bans.get();
+            /* Leaves leaving the trie, by key */
+            Map<String, BanTrie.Leaf> leaving;
+            leaving = new LinkedHashMap<String, BanTrie.Leaf>();
+            for (Entry<String, String> rename : renames.entrySet()) {
+                BanTrie.Leaf leaf = trie.getLeaf(rename.getKey());
+                if (leaf == null) {
+                    continue;
+                }
+                leaving.put(rename.getKey(), leaf);
+                String key = rename.getValue();
+                DeathBan ban = leaf.getBan();
+                DeathBan existing = arriving.get(key);
+                BanTrie.Leaf staying = null;
+                if (existing == null && !renames.containsKey(key)) {
+                    staying = trie.getLeaf(key);
+                    existing = staying == null ? null : staying.getBan();
+                }
+                if (existing != null
+                        && existing.getTimestamp() >= ban.getTimestamp()) {
+                    dropped.add(ban);
+                    continue;
+                }
+                if (existing != null) {
+                    dropped.add(existing);
+                }
+                if (staying != null) {
+                    leaving.put(key, staying);
+                }
+                arriving.put(key, ban);
+                String oldKey = rename.getKey();
+                factionIds.put(key, factionIndex.contains(oldKey)
+                        ? factionIndex.getFactionId(oldKey)
+                        : ban.getFactionId());
+            }
+            for (Entry<String, BanTrie.Leaf> entry : leaving.entrySet()) {
+                BanTrie.Leaf leaf = entry.getValue();
+                trie = trie.remove(leaf);
+                if (leaf instanceof ColdBan) {
+                    cold.release((ColdBan) leaf);
+                } else {
+                    recent.remove(entry.getKey());
+                }
+                departed.add(entry.getKey());
+            }
+            for (Entry<String, DeathBan> entry : arriving.entrySet()) {
+                trie = trie.put(entry.getKey(), entry.getValue());
+            }
+            bans.set(trie);
+            for (String key : arriving.keySet()) {
+                touch(key);
+            }
+            evict();
+            compactCold();
+        }
+        for (String key : departed) {
+            changed(key);
+            factionIndex.remove(key);
+        }
+        for (Entry<String, DeathBan> entry : arriving.entrySet()) {
+            changed(entry.getKey());
+            factionIndex.add(entry.getKey(), entry.getValue(),
+                    factionIds.get(entry.getKey()));
+        }
+        version.incrementAndGet();
+        for (DeathBan ban : dropped) {
+            notifyListeners(ban, false);
+        }
+        return dropped.size();
+    }
+    
+    /**
+     * Remove and return the ban for a key.
+     * 
+     * @param key
+     *            Key to look up
+     * @return The removed ban, or null if none existed or it could not be
+     *         read
+     */
+    public DeathBan remove(String key) {
+        DeathBan ban;
+        synchronized (tierLock) {
+            BanTrie trie = bans.get();
+            BanTrie.Leaf leaf = getLeaf(trie, key);
+            if (leaf == null) {
+                return null;
+            }
+            try {
+                ban = leaf.getBan();
+            } catch (ColdStoreException e) {
+                logger.log(Level.SEVERE, "Failed to update cold ban storage",
+                        e);
+                return null;
+            }
+            bans.set(trie.remove(leaf));
+            if (leaf instanceof ColdBan) {
+                cold.release((ColdBan) leaf);
+                compactCold();
+            } else {
+                recent.remove(key);
+            }
+        }
+        changed(key);
+        version.incrementAndGet();
+        factionIndex.remove(key);
+        notifyListeners(ban, false);
+        return ban;
+    }
+    
+    @Override
+    public void removeListener(DeathBanListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Build a new snapshot on an executor, unless one is already being built
+     * or the executor is full. Failures are logged by the executor, and the
+     * last snapshot stays in use.
+     * 
+     * @param executor
+     *            Executor to build on
+     */
+    private void scheduleSnapshot(IoExecutor executor) {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (executor.trySubmit("snapshot", new Callable<Void>() {
+                @Override
+                public Void call() {
+                    try {
+                        long expected = version.get();
+                        snapshot = new Snapshot(expected, freeze().values());
+                    } finally {
+                        rebuilding.set(false);
+                    }
+                    return null;
+                }
+            }) == null) {
+                rebuilding.set(false);
+            }
+        } catch (RuntimeException e) {
+            rebuilding.set(false);
+            throw e;
+        }
+    }
+    
+    /**
+     * Set the maximum number of bans kept in the hot tier. Lowering the limit
+     * pages bans out, and removing it pages every ban back in; bans that
+     * cannot be read stay in the cold tier, where lookups still find them.
+     * 
+     * @param limit
+     *            New limit, or 0 for no limit
+     */
+    public void setHotLimit(int limit) {
+        synchronized (tierLock) {
+            limit = Math.max(0, limit);
+            if (limit == hotLimit) {
+                return;
+            }
+            if (hotLimit == 0) {
+                /* Start tracking use of the hot bans, oldest first */
+                List<Entry<String, DeathBan>> hot;
+                hot = new ArrayList<Entry<String, DeathBan>>();
+                Iterator<BanTrie.Leaf> leaves = bans.get().leaves();
+                while (leaves.hasNext()) {
+                    BanTrie.Leaf leaf = leaves.next();
+                    if (leaf instanceof PackedBan) {
+                        hot.add(leaf.getEntry());
+                    }
+                }
+                Collections.sort(hot, ISSUE_ORDER);
+                for (Entry<String, DeathBan> entry : hot) {
+                    recent.put(entry.getKey(), Boolean.TRUE);
+                }
+            }
+            hotLimit = limit;
+            if (limit == 0) {
+                recent.clear();
+                pageInAll();
+            } else {
+                evict();
+            }
+            compactCold();
+        }
+    }
+    
+    /**
+     * Set the executor that query snapshots are built on, and start building
+     * one. Without an executor, the first query after a change builds the
+     * snapshot on its own thread.
+     * 
+     * @param io
+     *            Executor for disk work, or null for none
+     */
+    public void setIoExecutor(IoExecutor io) {
+        this.io = io;
+        if (io != null) {
+            scheduleSnapshot(io);
+        }
+    }
+    
+    /**
+     * Mark a hot ban as just used. Must be called while holding the tier
+     * lock.
+     * 
+     * @param key
+     *            Key of the ban
+     */
+    private void touch(String key) {
+        if (hotLimit > 0 && bans.get().getLeaf(key) instanceof PackedBan) {
+            recent.put(key, Boolean.TRUE);
+        }
+    }
+    
+}
@@ -0,0 +1,365 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Bans saved across a number of shard files in one directory, each holding
+ * the bans whose keys hash to it in the {@link BanJournal} record format. A
+ * save rewrites only the shards holding changed keys, each under a temporary
+ * name that is then renamed over the old file, and a load reads every shard
+ * in parallel.
+ * 
+ * The number of shards on disk is recorded in a layout file, which is only
+ * replaced once every shard of a new layout has been written. Shards of any
+ * other layout are left over from an interrupted reshard and are deleted when
+ * loading. Loads, saves and deletes of one store never overlap, so they may
+ * be started from different threads.
+ */
+public class BanShards {
+    
+    private static final String LAYOUT = "layout";
+    private static final String PREFIX = "shard-";
+    private static final String SUFFIX = ".bans";
+    private static final String TEMP = ".tmp";
+    
+    /**
+     * Find the shard a key belongs to. String hash codes are specified by the
+     * language, so keys stay in the same shard across restarts.
+     * 
+     * @param key
+     *            Ban key
+     * @param count
+     *            Number of shards
+     * @return Shard number, from 0 to count - 1
+     */
+    public static int shardOf(String key, int count) {
+        return (key.hashCode() & Integer.MAX_VALUE) % count;
+    }
+    
+    private final File directory;
+    private volatile int count;
+    
+    /**
+     * Create a store in a directory, which need not exist yet.
+     * 
+     * @param directory
+     *            Directory holding the shard files
+     * @param count
+     *            Number of shards to use if none exist on disk yet
+     */
+    public BanShards(File directory, int count) {
+        this.directory = directory;
+        this.count = Math.max(1, count);
+    }
+    
+    /**
+     * Delete every shard and the layout file.
+     */
+    public synchronized void delete() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().startsWith(PREFIX)
+                        || file.getName().startsWith(LAYOUT)) {
+                    file.delete();
+                }
+            }
+        }
+        directory.delete();
+    }
+    
+    /**
+     * @return Whether saved shards exist
+     */
+    public boolean exists() {
+        return new File(directory, LAYOUT).exists();
+    }
+    
+    /**
+     * @return Number of shards in use
+     */
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * Get the file of one shard of a layout.
+     * 
+     * @param shard
+     *            Shard number
+     * @param total
+     *            Number of shards in the layout
+     * @return The shard file
+     */
+    private File getFile(int shard, int total) {
+        return new File(directory, PREFIX + shard + "-of-" + total + SUFFIX);
+    }
+    
+    /**
+     * Read every shard on disk in parallel and merge them. Afterwards, saves
+     * use the number of shards found on disk.
+     * 
+     * @param threads
+     *            Maximum number of shards to read at once
+     * @return Bans by key
+     * @throws IOException
+     *             If the layout or any shard cannot be read
+     */
+    public synchronized Map<String, DeathBan> load(int threads)
+            throws IOException {
+        count = readLayout();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(threads,
+                count)));
+        try {
+            List<Future<Map<String, DeathBan>>> parts;
+            parts = new ArrayList<Future<Map<String, DeathBan>>>(count);
+            for (int shard = 0; shard < count; shard++) {
+                final File file = getFile(shard, count);
+                parts.add(pool.submit(new Callable<Map<String, DeathBan>>() {
+                    @Override
+                    public Map<String, DeathBan> call() throws IOException {
+                        Map<String, DeathBan> part;
+                        part = new HashMap<String, DeathBan>();
+                        new BanJournal(file).replay(part);
+                        return part;
+                    }
+                }));
+            }
+            Map<String, DeathBan> loaded = new HashMap<String, DeathBan>();
+            for (Future<Map<String, DeathBan>> part : parts) {
+                loaded.putAll(part.get());
+            }
+            removeStrays();
+            return loaded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading shards");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e
+                    .getCause() : new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    /**
+     * Read the number of shards from the layout file.
+     * 
+     * @return Number of shards on disk
+     * @throws IOException
+     *             If the layout file cannot be read or is malformed
+     */
+    private int readLayout() throws IOException {
+        File file = new File(directory, LAYOUT);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line = reader.readLine();
+            int total = line == null ? 0 : Integer.parseInt(line.trim());
+            if (total < 1) {
+                throw new IOException("Malformed shard layout: " + line);
+            }
+            return total;
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed shard layout: " + e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+    
+    /**
+     * Delete shard files that do not belong to the current layout.
+     */
+    private void removeStrays() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        String suffix = "-of-" + count + SUFFIX;
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(PREFIX) && !name.endsWith(suffix)) {
+                file.delete();
+            }
+        }
+    }
+    
+    /**
+     * Rename a fully written temporary file over its target. On platforms
+     * where a rename cannot replace a file, the target is deleted first.
+     * 
+     * @param temp
+     *            Temporary file
+     * @param file
+     *            Target file
+     * @throws IOException
+     *             If the file cannot be replaced
+     */
+    private void replace(File temp, File file) throws IOException {
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException("Could not replace " + file.getName());
+        }
+    }
+    
+    /**
+     * Write every ban to a new layout with a different number of shards, then
+     * remove the old shards.
+     * 
+     * @param bans
+     *            Every ban, by key
+     * @param total
+     *            New number of shards
+     * @throws IOException
+     *             If a shard or the layout cannot be written, in which case
+     *             the old layout is kept
+     */
+    public synchronized void reshard(Map<String, DeathBan> bans, int total)
+            throws IOException {
+        total = Math.max(1, total);
+        List<List<String>> keys = split(bans.keySet(), total, null);
+        for (int shard = 0; shard < total; shard++) {
+            writeShard(getFile(shard, total), keys.get(shard), bans);
+        }
+        writeLayout(total);
+        count = total;
+        removeStrays();
+    }
+    
+    /**
+     * Rewrite the shards holding any of the changed keys. If no shards exist
+     * yet, every shard is written.
+     * 
+     * @param bans
+     *            Every ban, by key
+     * @param changed
+     *            Keys added or removed since the last save
+     * @return Number of shards rewritten
+     * @throws IOException
+     *             If a shard cannot be written
+     */
+    public synchronized int save(Map<String, DeathBan> bans,
+            Collection<String> changed) throws IOException {
+        if (!exists()) {
+            reshard(bans, count);
+            return count;
+        }
+        boolean[] dirty = new boolean[count];
+        for (String key : changed) {
+            dirty[shardOf(key, count)] = true;
+        }
+        List<List<String>> keys = split(bans.keySet(), count, dirty);
+        int written = 0;
+        for (int shard = 0; shard < count; shard++) {
+            if (dirty[shard]) {
+                writeShard(getFile(shard, count), keys.get(shard), bans);
+                written++;
+            }
+        }
+        return written;
+    }
+    
+    /**
+     * Sort keys into their shards.
+     * 
+     * @param keys
+     *            Keys to sort
+     * @param total
+     *            Number of shards
+     * @param wanted
+     *            Shards to collect keys for, or null for all
+     * @return Keys of each shard, empty for unwanted shards
+     */
+    private List<List<String>> split(Collection<String> keys, int total,
+            boolean[] wanted) {
+        List<List<String>> shards = new ArrayList<List<String>>(total);
+        for (int shard = 0; shard < total; shard++) {
+            shards.add(new ArrayList<String>());
+        }
+        for (String key : keys) {
+            int shard = shardOf(key, total);
+            if (wanted == null || wanted[shard]) {
+                shards.get(shard).add(key);
+            }
+        }
+        return shards;
+    }
+    
+    /**
+     * Write the layout file, naming the number of shards in use.
+     * 
+     * @param total
+     *            Number of shards
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    private void writeLayout(int total) throws IOException {
+        File file = new File(directory, LAYOUT);
+        File temp = new File(directory, LAYOUT + TEMP);
+        FileOutputStream out = new FileOutputStream(temp);
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        try {
+            writer.write(Integer.toString(total));
+            writer.write('\n');
+            writer.flush();
+            out.getFD().sync();
+        } finally {
+            writer.close();
+        }
+        replace(temp, file);
+    }
+    
+    /**
+     * Write one shard under a temporary name and rename it into place.
+     * 
+     * @param file
+     *            Shard file
+     * @param keys
+     *            Keys of the bans in the shard
+     * @param bans
+     *            Every ban, by key
+     * @throws IOException
+     *             If the shard cannot be written
+     */
+    private void writeShard(File file, List<String> keys,
+            Map<String, DeathBan> bans) throws IOException {
+        directory.mkdirs();
+        File temp = new File(file.getPath() + TEMP);
+        if (temp.exists() && !temp.delete()) {
+            throw new IOException("Could not remove " + temp.getName());
+        }
+        new BanJournal(temp).append(keys, bans, Long.MAX_VALUE);
+        replace(temp, file);
+    }
+    
+}
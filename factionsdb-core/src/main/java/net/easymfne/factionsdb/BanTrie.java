@@ -0,0 +1,628 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Persistent map of bans by key, as a hash array mapped trie. A trie is never
+ * changed: {@link #put(String, DeathBan)} and {@link #remove(String)} return a
+ * new trie that shares every node except those on the path to the key, so
+ * both cost O(log n) copying and any trie can be read, or iterated, by any
+ * number of threads while newer versions are made.
+ * 
+ * Each node covers five bits of the key's hash and stores only its occupied
+ * slots, found through a bitmap. A slot holds a leaf (one entry), a child
+ * node, or, once the hash is used up, a collision node of entries whose
+ * hashes are equal. Leaves hold bans as {@link PackedBan}s, or as
+ * {@link ColdStore.ColdBan}s that refer to a record on disk, so keys and
+ * DeathBans are only created when they are read.
+ */
+public class BanTrie {
+    
+    /**
+     * A single entry, with its key's hash. Subclasses decide how the key and
+     * ban are stored.
+     */
+    abstract static class Leaf {
+        
+        final int hash;
+        
+        Leaf(int hash) {
+            this.hash = hash;
+        }
+        
+        /**
+         * @return Estimated memory used by the leaf, in bytes
+         */
+        abstract long estimateBytes();
+        
+        /**
+         * @return The ban, as a new DeathBan
+         */
+        abstract DeathBan getBan();
+        
+        /**
+         * @return The key and ban, as a new entry
+         */
+        Map.Entry<String, DeathBan> getEntry() {
+            return new SimpleImmutableEntry<String, DeathBan>(getKey(),
+                    getBan());
+        }
+        
+        /**
+         * @return The key, as a new String
+         */
+        abstract String getKey();
+        
+        /**
+         * Compare a key against the leaf's key, without creating it.
+         * 
+         * @param key
+         *            Key to compare
+         * @return Whether the key is the leaf's key
+         */
+        abstract boolean hasKey(String key);
+        
+    }
+    
+    /**
+     * Entries whose keys have the same hash.
+     */
+    private static class Collision {
+        
+        private final int hash;
+        private final Leaf[] leaves;
+        
+        private Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+        
+    }
+    
+    /**
+     * The occupied slots of one level, in the order of their bits.
+     */
+    private static class Node {
+        
+        private final int bitmap;
+        private final Object[] slots;
+        
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+        
+    }
+    
+    /**
+     * Read-only Map view of the trie.
+     */
+    private class MapView extends AbstractMap<String, DeathBan> {
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String
+                    && BanTrie.this.containsKey((String) key);
+        }
+        
+        @Override
+        public Set<Entry<String, DeathBan>> entrySet() {
+            return new AbstractSet<Entry<String, DeathBan>>() {
+                @Override
+                public Iterator<Entry<String, DeathBan>> iterator() {
+                    final Iterator<Leaf> leaves = new LeafIterator(root);
+                    return new Iterator<Entry<String, DeathBan>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return leaves.hasNext();
+                        }
+                        
+                        @Override
+                        public Entry<String, DeathBan> next() {
+                            return leaves.next().getEntry();
+                        }
+                        
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+                
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        
+        @Override
+        public DeathBan get(Object key) {
+            return key instanceof String ? BanTrie.this.get((String) key)
+                    : null;
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+        
+    }
+    
+    /**
+     * Depth-first iterator over the leaves below a node.
+     */
+    private static class LeafIterator implements Iterator<Leaf> {
+        
+        /* Slots and next position of each level being visited */
+        private final Object[][] slots = new Object[MAX_DEPTH + 1][];
+        private final int[] positions = new int[MAX_DEPTH + 1];
+        private int depth = 0;
+        private Leaf next;
+        
+        private LeafIterator(Node root) {
+            slots[0] = root.slots;
+            advance();
+        }
+        
+        /**
+         * Find the next leaf, descending into child nodes and collisions.
+         */
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                if (positions[depth] >= slots[depth].length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = slots[depth][positions[depth]++];
+                if (slot instanceof Leaf) {
+                    next = (Leaf) slot;
+                    return;
+                }
+                depth++;
+                slots[depth] = slot instanceof Node ? ((Node) slot).slots
+                        : ((Collision) slot).leaves;
+                positions[depth] = 0;
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+        
+        @Override
+        public Leaf next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Leaf leaf = next;
+            advance();
+            return leaf;
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+    }
+    
+    /* Bits of the hash used by each level */
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    
+    /* Deepest level of nodes, after which only collisions remain */
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS;
+    
+    /** The empty trie */
+    public static final BanTrie EMPTY = new BanTrie(new Node(0,
+            new Object[0]), 0);
+    
+    /**
+     * Estimate the memory used by the nodes and leaves below a slot.
+     */
+    private static long estimateBytes(Object slot) {
+        if (slot instanceof Leaf) {
+            return ((Leaf) slot).estimateBytes();
+        }
+        Object[] slots = slot instanceof Node ? ((Node) slot).slots
+                : ((Collision) slot).leaves;
+        /* Node or collision, and its array of references */
+        long bytes = 24 + (16 + slots.length * 4 + 7) / 8 * 8;
+        for (Object child : slots) {
+            bytes += estimateBytes(child);
+        }
+        return bytes;
+    }
+    
+    /**
+     * Spread the bits of a key's hash code, as the first levels use the low
+     * bits.
+     */
+    static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    
+    /**
+     * Copy an array with one slot inserted.
+     */
+    private static Object[] inserted(Object[] slots, int index, Object slot) {
+        Object[] copy = new Object[slots.length + 1];
+        System.arraycopy(slots, 0, copy, 0, index);
+        copy[index] = slot;
+        System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+        return copy;
+    }
+    
+    /**
+     * Build the smallest subtree holding two leaves with different keys.
+     * 
+     * @param a
+     *            First leaf
+     * @param b
+     *            Second leaf, whose key differs from the first
+     * @param shift
+     *            Hash bits used by the levels above
+     * @return Node or collision holding both leaves
+     */
+    private static Object merge(Leaf a, Leaf b, int shift) {
+        if (a.hash == b.hash) {
+            return new Collision(a.hash, new Leaf[] { a, b });
+        }
+        int x = (a.hash >>> shift) & MASK;
+        int y = (b.hash >>> shift) & MASK;
+        if (x == y) {
+            return new Node(1 << x, new Object[] { merge(a, b, shift + BITS) });
+        }
+        return new Node((1 << x) | (1 << y), x < y ? new Object[] { a, b }
+                : new Object[] { b, a });
+    }
+    
+    /**
+     * Add or replace an entry below a slot.
+     * 
+     * @param slot
+     *            Node, leaf or collision to add the entry to
+     * @param leaf
+     *            The entry
+     * @param key
+     *            Key of the entry
+     * @param shift
+     *            Hash bits used by the levels above
+     * @return New slot holding the entry
+     */
+    private static Object put(Object slot, Leaf leaf, String key, int shift) {
+        if (slot instanceof Leaf) {
+            Leaf existing = (Leaf) slot;
+            return existing.hash == leaf.hash && existing.hasKey(key) ? leaf
+                    : merge(existing, leaf, shift);
+        }
+        if (slot instanceof Collision) {
+            Collision collision = (Collision) slot;
+            if (collision.hash != leaf.hash) {
+                /* Another hash shares the slot, so give it a node */
+                return put(new Node(1 << ((collision.hash >>> shift) & MASK),
+                        new Object[] { collision }), leaf, key, shift);
+            }
+            Leaf[] leaves = collision.leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].hasKey(key)) {
+                    Leaf[] copy = leaves.clone();
+                    copy[i] = leaf;
+                    return new Collision(leaf.hash, copy);
+                }
+            }
+            Leaf[] copy = new Leaf[leaves.length + 1];
+            System.arraycopy(leaves, 0, copy, 0, leaves.length);
+            copy[leaves.length] = leaf;
+            return new Collision(leaf.hash, copy);
+        }
+        Node node = (Node) slot;
+        int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        if ((node.bitmap & bit) == 0) {
+            return new Node(node.bitmap | bit, inserted(node.slots, index,
+                    leaf));
+        }
+        Object[] copy = node.slots.clone();
+        copy[index] = put(node.slots[index], leaf, key, shift + BITS);
+        return new Node(node.bitmap, copy);
+    }
+    
+    /**
+     * Remove a leaf below a slot. A node left with a single leaf or collision
+     * is replaced by it, so that the levels above can hold it directly.
+     * 
+     * @param slot
+     *            Node, leaf or collision holding the leaf
+     * @param leaf
+     *            The leaf, which must be present
+     * @param shift
+     *            Hash bits used by the levels above
+     * @return New slot, or null if nothing remains
+     */
+    private static Object remove(Object slot, Leaf leaf, int shift) {
+        if (slot instanceof Leaf) {
+            return null;
+        }
+        if (slot instanceof Collision) {
+            Leaf[] leaves = ((Collision) slot).leaves;
+            if (leaves.length == 2) {
+                return leaves[leaves[0] == leaf ? 1 : 0];
+            }
+            Leaf[] copy = new Leaf[leaves.length - 1];
+            for (int i = 0, j = 0; i < leaves.length; i++) {
+                if (leaves[i] != leaf) {
+                    copy[j++] = leaves[i];
+                }
+            }
+            return new Collision(leaf.hash, copy);
+        }
+        Node node = (Node) slot;
+        int bit = 1 << ((leaf.hash >>> shift) & MASK);
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object child = remove(node.slots[index], leaf, shift + BITS);
+        if (child == null) {
+            if (node.slots.length == 1) {
+                return null;
+            }
+            if (node.slots.length == 2
+                    && !(node.slots[1 - index] instanceof Node)) {
+                return node.slots[1 - index];
+            }
+            Object[] copy = new Object[node.slots.length - 1];
+            System.arraycopy(node.slots, 0, copy, 0, index);
+            System.arraycopy(node.slots, index + 1, copy, index, copy.length
+                    - index);
+            return new Node(node.bitmap & ~bit, copy);
+        }
+        if (node.slots.length == 1 && !(child instanceof Node)) {
+            return child;
+        }
+        Object[] copy = node.slots.clone();
+        copy[index] = child;
+        return new Node(node.bitmap, copy);
+    }
+    
+    /**
+     * Replace a leaf below a slot with another of the same hash.
+     * 
+     * @param slot
+     *            Node, leaf or collision that may hold the leaf
+     * @param old
+     *            Leaf to replace, compared by identity
+     * @param leaf
+     *            The replacement
+     * @param shift
+     *            Hash bits used by the levels above
+     * @return New slot, or the same slot if the leaf was not found
+     */
+    private static Object replace(Object slot, Leaf old, Leaf leaf, int shift) {
+        if (slot instanceof Leaf) {
+            return slot == old ? leaf : slot;
+        }
+        if (slot instanceof Collision) {
+            Leaf[] leaves = ((Collision) slot).leaves;
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i] == old) {
+                    Leaf[] copy = leaves.clone();
+                    copy[i] = leaf;
+                    return new Collision(leaf.hash, copy);
+                }
+            }
+            return slot;
+        }
+        Node node = (Node) slot;
+        int bit = 1 << ((old.hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0) {
+            return slot;
+        }
+        int index = Integer.bitCount(node.bitmap & (bit - 1));
+        Object child = replace(node.slots[index], old, leaf, shift + BITS);
+        if (child == node.slots[index]) {
+            return slot;
+        }
+        Object[] copy = node.slots.clone();
+        copy[index] = child;
+        return new Node(node.bitmap, copy);
+    }
+    
+    private final Node root;
+    private final int size;
+    
+    private BanTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+    
+    /**
+     * @return Read-only Map view of the trie
+     */
+    public Map<String, DeathBan> asMap() {
+        return new MapView();
+    }
+    
+    /**
+     * Check for a ban by key.
+     * 
+     * @param key
+     *            Key to look up
+     * @return Whether a ban exists for the key
+     */
+    public boolean containsKey(String key) {
+        return getLeaf(key) != null;
+    }
+    
+    /**
+     * Estimate the memory used by the trie's nodes and leaves. Nodes shared
+     * with other tries are counted in full.
+     * 
+     * @return Estimated size in bytes
+     */
+    public long estimateBytes() {
+        return estimateBytes(root) + 16;
+    }
+    
+    /**
+     * Get a ban by key.
+     * 
+     * @param key
+     *            Key to look up
+     * @return The ban, or null if none exists
+     */
+    public DeathBan get(String key) {
+        Leaf leaf = getLeaf(key);
+        return leaf == null ? null : leaf.getBan();
+    }
+    
+    /**
+     * Get the leaf holding a key.
+     * 
+     * @param key
+     *            Key to look up
+     * @return The leaf, or null if none exists
+     */
+    Leaf getLeaf(String key) {
+        int hash = hash(key);
+        Object slot = root;
+        for (int shift = 0;; shift += BITS) {
+            if (slot instanceof Node) {
+                Node node = (Node) slot;
+                int bit = 1 << ((hash >>> shift) & MASK);
+                if ((node.bitmap & bit) == 0) {
+                    return null;
+                }
+                slot = node.slots[Integer.bitCount(node.bitmap & (bit - 1))];
+            } else if (slot instanceof Leaf) {
+                Leaf leaf = (Leaf) slot;
+                return leaf.hash == hash && leaf.hasKey(key) ? leaf : null;
+            } else {
+                Collision collision = (Collision) slot;
+                if (collision.hash != hash) {
+                    return null;
+                }
+                for (Leaf leaf : collision.leaves) {
+                    if (leaf.hasKey(key)) {
+                        return leaf;
+                    }
+                }
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * @return Iterator over the leaves, for moving bans between tiers
+     */
+    Iterator<Leaf> leaves() {
+        return new LeafIterator(root);
+    }
+    
+    /**
+     * Add a ban, replacing any existing ban for the same key.
+     * 
+     * @param key
+     *            Key for the ban
+     * @param ban
+     *            The ban
+     * @return A trie with the ban
+     */
+    public BanTrie put(String key, DeathBan ban) {
+        return put(key, new PackedBan(hash(key), key, ban));
+    }
+    
+    /**
+     * Add a leaf, replacing any existing leaf for the same key.
+     * 
+     * @param key
+     *            Key of the leaf
+     * @param leaf
+     *            The leaf
+     * @return A trie with the leaf
+     */
+    BanTrie put(String key, Leaf leaf) {
+        int grown = containsKey(key) ? size : size + 1;
+        Object slot = put(root, leaf, key, 0);
+        return new BanTrie((Node) slot, grown);
+    }
+    
+    /**
+     * Remove the ban for a key.
+     * 
+     * @param key
+     *            Key to look up
+     * @return A trie without the ban, or this trie if there was none
+     */
+    public BanTrie remove(String key) {
+        Leaf leaf = getLeaf(key);
+        return leaf == null ? this : remove(leaf);
+    }
+    
+    /**
+     * Remove a leaf.
+     * 
+     * @param leaf
+     *            The leaf, which must be in the trie
+     * @return A trie without the leaf
+     */
+    BanTrie remove(Leaf leaf) {
+        if (size == 1) {
+            return EMPTY;
+        }
+        Object slot = remove(root, leaf, 0);
+        if (!(slot instanceof Node)) {
+            /* The root always stays a node */
+            int h = slot instanceof Leaf ? ((Leaf) slot).hash
+                    : ((Collision) slot).hash;
+            slot = new Node(1 << (h & MASK), new Object[] { slot });
+        }
+        return new BanTrie((Node) slot, size - 1);
+    }
+    
+    /**
+     * Replace a leaf with another of the same hash, such as the same ban in
+     * the other tier.
+     * 
+     * @param old
+     *            Leaf to replace, compared by identity
+     * @param leaf
+     *            The replacement
+     * @return A trie with the replacement, or this trie if the old leaf was
+     *         not in it
+     */
+    BanTrie replace(Leaf old, Leaf leaf) {
+        Object slot = replace(root, old, leaf, 0);
+        return slot == root ? this : new BanTrie((Node) slot, size);
+    }
+    
+    /**
+     * @return Number of bans
+     */
+    public int size() {
+        return size;
+    }
+    
+}
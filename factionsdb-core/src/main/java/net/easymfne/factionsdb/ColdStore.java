@@ -0,0 +1,408 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * On-disk tier of bans that have not been used recently. Records are appended
+ * to a segment file, and each cold ban is kept in the {@link BanTrie} as a
+ * {@link ColdBan} leaf of about 32 bytes: the position of its record, which
+ * is read again whenever the key or ban is needed. Because the leaves live in
+ * the trie, any version of the trie can be iterated, cold bans and all,
+ * without copying anything or holding a lock.
+ * 
+ * Records are never changed once written. Records of removed bans are left in
+ * place until more than half of the segment is garbage, at which point the
+ * registry copies the live records into a new segment. A segment that has
+ * been replaced stays open for as long as any leaf, in any version of the
+ * trie, still refers to it, and is then closed and deleted.
+ * 
+ * The files are a cache of bans that are otherwise only in memory: leftover
+ * segments are deleted when the first segment is created, and all segments
+ * are deleted on close.
+ */
+public class ColdStore {
+    
+    /**
+     * A ban in the cold tier, stored as the position of its record.
+     */
+    static final class ColdBan extends BanTrie.Leaf {
+        
+        private final Segment segment;
+        private final long offset;
+        private final int length;
+        
+        private ColdBan(int hash, Segment segment, long offset, int length) {
+            super(hash);
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        @Override
+        long estimateBytes() {
+            return 32;
+        }
+        
+        @Override
+        DeathBan getBan() {
+            return getEntry().getValue();
+        }
+        
+        @Override
+        Map.Entry<String, DeathBan> getEntry() {
+            try {
+                return decode(segment.read(offset, length));
+            } catch (IOException e) {
+                throw new ColdStoreException(e);
+            }
+        }
+        
+        @Override
+        String getKey() {
+            try {
+                return new DataInputStream(new ByteArrayInputStream(
+                        segment.read(offset, length))).readUTF();
+            } catch (IOException e) {
+                throw new ColdStoreException(e);
+            }
+        }
+        
+        @Override
+        boolean hasKey(String key) {
+            return key.equals(getKey());
+        }
+        
+    }
+    
+    /**
+     * Closes and deletes the file of a replaced segment once no leaf refers
+     * to the segment.
+     */
+    private static final class Retired extends PhantomReference<Segment> {
+        
+        private final File file;
+        private final RandomAccessFile data;
+        
+        private Retired(Segment segment, ReferenceQueue<Segment> queue) {
+            super(segment, queue);
+            file = segment.file;
+            data = segment.data;
+        }
+        
+        /**
+         * Close and delete the file.
+         */
+        private void delete() {
+            try {
+                data.close();
+            } catch (IOException e) {
+                /* Nothing more can be done with the file */
+            }
+            file.delete();
+        }
+        
+    }
+    
+    /**
+     * An append-only file of records. Each read and write seeks to its own
+     * position, so a segment is locked only for the duration of one record.
+     */
+    private static final class Segment {
+        
+        private final File file;
+        private final RandomAccessFile data;
+        private long length = 0;
+        
+        private Segment(File file) throws IOException {
+            this.file = file;
+            data = new RandomAccessFile(file, "rw");
+            data.setLength(0);
+        }
+        
+        /**
+         * Append a record.
+         * 
+         * @return Offset of the record
+         */
+        private synchronized long append(byte[] record) throws IOException {
+            long offset = length;
+            data.seek(offset);
+            data.write(record);
+            length += record.length;
+            return offset;
+        }
+        
+        private synchronized long getLength() {
+            return length;
+        }
+        
+        /**
+         * Read the record at an offset.
+         */
+        private synchronized byte[] read(long offset, int length)
+                throws IOException {
+            byte[] record = new byte[length];
+            data.seek(offset);
+            data.readFully(record);
+            return record;
+        }
+        
+    }
+    
+    /* Minimum garbage before compacting, in bytes */
+    private static final long MIN_COMPACT = 1 << 20;
+    
+    /**
+     * Decode a record into its key and ban.
+     */
+    private static SimpleImmutableEntry<String, DeathBan> decode(byte[] record)
+            throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                record));
+        String key = in.readUTF();
+        String name = in.readUTF();
+        UUID uuid = in.readBoolean() ? new UUID(in.readLong(), in.readLong())
+                : null;
+        String faction = in.readUTF();
+        long timestamp = in.readLong();
+        long duration = in.readLong();
+        String policy = in.readUTF();
+        return new SimpleImmutableEntry<String, DeathBan>(key, new DeathBan(
+                name, uuid, faction.length() == 0 ? null : faction,
+                timestamp, duration, policy));
+    }
+    
+    /**
+     * Encode a key and ban as a record.
+     */
+    private static byte[] encode(String key, DeathBan ban) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeUTF(ban.getName());
+        out.writeBoolean(ban.getUniqueId() != null);
+        if (ban.getUniqueId() != null) {
+            out.writeLong(ban.getUniqueId().getMostSignificantBits());
+            out.writeLong(ban.getUniqueId().getLeastSignificantBits());
+        }
+        out.writeUTF(ban.getFactionId() == null ? "" : ban.getFactionId());
+        out.writeLong(ban.getTimestamp());
+        out.writeLong(ban.getDuration());
+        out.writeUTF(ban.getPolicy());
+        out.close();
+        return bytes.toByteArray();
+    }
+    
+    private final File file;
+    private final ReferenceQueue<Segment> unreachable;
+    private final Set<Retired> retired;
+    private Segment current = null;
+    private int segments = 0;
+    private long garbage = 0;
+    private volatile int size = 0;
+    
+    /**
+     * Create an empty store whose segments are named after a file. No file is
+     * created until the first ban is stored.
+     * 
+     * @param file
+     *            The file whose name, with a number appended, each segment
+     *            takes
+     */
+    public ColdStore(File file) {
+        this.file = file;
+        unreachable = new ReferenceQueue<Segment>();
+        retired = new HashSet<Retired>();
+    }
+    
+    /**
+     * Forget every ban. Leaves that were handed out stay readable until they
+     * are unreachable.
+     */
+    public synchronized void clear() {
+        retire();
+        size = 0;
+        garbage = 0;
+    }
+    
+    /**
+     * Close and delete every segment, including those still referred to by
+     * leaves, which can no longer be read. The store is empty afterwards.
+     */
+    public synchronized void close() {
+        retire();
+        for (Retired segment : retired) {
+            segment.delete();
+        }
+        retired.clear();
+        size = 0;
+        garbage = 0;
+    }
+    
+    /**
+     * Copy a ban's record into the current segment, during compaction. The
+     * number of bans is unchanged.
+     * 
+     * @param ban
+     *            Leaf of the ban to copy
+     * @return Leaf of the copy
+     * @throws IOException
+     */
+    synchronized ColdBan copy(ColdBan ban) throws IOException {
+        byte[] record = ban.segment.read(ban.offset, ban.length);
+        Segment segment = getSegment();
+        return new ColdBan(ban.hash, segment, segment.append(record),
+                record.length);
+    }
+    
+    /**
+     * Delete the file and any segments left behind by an earlier run.
+     */
+    private void deleteLeftovers() {
+        file.delete();
+        File[] files = file.getAbsoluteFile().getParentFile().listFiles();
+        if (files == null) {
+            return;
+        }
+        String prefix = file.getName() + ".";
+        for (File leftover : files) {
+            if (leftover.getName().startsWith(prefix)) {
+                leftover.delete();
+            }
+        }
+    }
+    
+    /**
+     * @return Size of the current segment, in bytes
+     */
+    public synchronized long getFileLength() {
+        return current == null ? 0 : current.getLength();
+    }
+    
+    /**
+     * Get the segment to append to, creating it if necessary.
+     */
+    private Segment getSegment() throws IOException {
+        purge();
+        if (current == null) {
+            if (segments == 0) {
+                deleteLeftovers();
+            }
+            current = new Segment(new File(file.getPath() + "." + segments++));
+        }
+        return current;
+    }
+    
+    /**
+     * @return Whether more than half of the current segment is garbage, so
+     *         that the live records should be copied to a new segment with
+     *         {@link #startSegment()} and {@link #copy(ColdBan)}
+     */
+    public synchronized boolean isWasteful() {
+        return current != null && garbage >= MIN_COMPACT
+                && garbage * 2 >= current.getLength();
+    }
+    
+    /**
+     * Close and delete segments that no leaf refers to any more.
+     */
+    private void purge() {
+        Reference<? extends Segment> reference;
+        while ((reference = unreachable.poll()) != null) {
+            ((Retired) reference).delete();
+            retired.remove(reference);
+        }
+    }
+    
+    /**
+     * Forget a ban that has been removed from the trie or paged in, leaving
+     * its record as garbage.
+     * 
+     * @param ban
+     *            Leaf of the ban
+     */
+    synchronized void release(ColdBan ban) {
+        size--;
+        garbage += ban.length;
+        if (size == 0) {
+            clear();
+        }
+    }
+    
+    /**
+     * Stop appending to the current segment. It is deleted once unreachable.
+     */
+    private void retire() {
+        purge();
+        if (current != null) {
+            retired.add(new Retired(current, unreachable));
+            current = null;
+        }
+    }
+    
+    /**
+     * @return Number of bans in the store
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Start a new segment for compaction, keeping the number of bans. The
+     * old segment's records stay readable until no leaf refers to them.
+     */
+    synchronized void startSegment() {
+        retire();
+        garbage = 0;
+    }
+    
+    /**
+     * Append a ban.
+     * 
+     * @param hash
+     *            Hash of the key, from the trie
+     * @param key
+     *            Key for the ban
+     * @param ban
+     *            The ban
+     * @return Leaf referring to the ban's record
+     * @throws IOException
+     */
+    synchronized ColdBan write(int hash, String key, DeathBan ban)
+            throws IOException {
+        byte[] record = encode(key, ban);
+        Segment segment = getSegment();
+        long offset = segment.append(record);
+        size++;
+        return new ColdBan(hash, segment, offset, record.length);
+    }
+    
+}
@@ -0,0 +1,42 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ *
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ *
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ *
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.IOException;
+
+/**
+ * Thrown when bans in the cold tier cannot be read, so that callers copying
+ * or saving every ban fail instead of silently working on an incomplete set.
+ */
+public class ColdStoreException extends RuntimeException {
+    
+    private static final long serialVersionUID = 4153310958021784012L;
+    
+    /**
+     * Wrap the failure that prevented reading the cold tier.
+     * 
+     * @param cause
+     *            The underlying failure
+     */
+    public ColdStoreException(IOException cause) {
+        super("Failed to read cold ban storage: " + cause.getMessage(), cause);
+    }
+    
+    @Override
+    public IOException getCause() {
+        return (IOException) super.getCause();
+    }
+    
+}
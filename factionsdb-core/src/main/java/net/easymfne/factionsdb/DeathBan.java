@@ -0,0 +1,178 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Calendar;
+import java.util.UUID;
+
+/**
+ * Class representation of a FactionsDB ban, storing the time it was issued
+ * along with the duration and name of the policy it was issued under, and the
+ * player's UUID and faction at the time.
+ * 
+ * @author Eric Hildebrand
+ */
+public class DeathBan {
+    
+    private String name;
+    private UUID uuid;
+    private String factionId;
+    private long timestamp;
+    private long duration;
+    private String policy;
+    
+    /**
+     * Construct by automatically getting the current time.
+     * 
+     * @param name
+     *            Name of the player being banned
+     * @param uuid
+     *            UUID of the player being banned, or null if unknown
+     * @param factionId
+     *            Id of the player's faction, or null if they have none
+     * @param policy
+     *            Effective policy for the player at the time of the ban
+     */
+    public DeathBan(String name, UUID uuid, String factionId,
+            BanPolicy policy) {
+        this.name = name;
+        this.uuid = uuid;
+        this.factionId = factionId;
+        timestamp = Calendar.getInstance().getTimeInMillis();
+        duration = policy.getDuration();
+        this.policy = policy.getName();
+    }
+    
+    /**
+     * Initialize with a specified timestamp.
+     * 
+     * @param name
+     *            Name of the banned player
+     * @param uuid
+     *            UUID of the banned player, or null if unknown
+     * @param factionId
+     *            Id of the player's faction, or null if none or unknown
+     * @param timestamp
+     *            Time of ban in milliseconds since epoch
+     * @param duration
+     *            Length of ban in milliseconds
+     * @param policy
+     *            Name of the policy the ban was issued under
+     */
+    public DeathBan(String name, UUID uuid, String factionId, long timestamp,
+            long duration, String policy) {
+        this.name = name;
+        this.uuid = uuid;
+        this.factionId = factionId;
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.policy = policy;
+    }
+    
+    /**
+     * @return Time at which the ban runs out, in milliseconds since epoch
+     */
+    public long getDeadline() {
+        return timestamp + duration;
+    }
+    
+    /**
+     * @return Length of the ban in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+    
+    /**
+     * @return Id of the player's faction when banned, or null if none or
+     *         unknown
+     */
+    public String getFactionId() {
+        return factionId;
+    }
+    
+    /**
+     * Get the name associated with the ban. Used for display.
+     * 
+     * @return Associated name
+     */
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * @return Name of the policy the ban was issued under
+     */
+    public String getPolicy() {
+        return policy;
+    }
+    
+    /**
+     * Get number of milliseconds left in the ban.
+     * 
+     * @return Number of milliseconds left, or 0 if expired
+     */
+    public long getTimeLeft() {
+        return getTimeLeft(duration);
+    }
+    
+    /**
+     * Get number of milliseconds left in the ban, given a specified duration.
+     * 
+     * @param duration
+     *            Duration of bans, in milliseconds
+     * @return Number of milliseconds left, or 0 if expired
+     */
+    public long getTimeLeft(long duration) {
+        return Math.max(0, (timestamp + duration)
+                - Calendar.getInstance().getTimeInMillis());
+    }
+    
+    /**
+     * @return Timestamp of ban in milliseconds since epoch
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * @return UUID of the banned player, or null if unknown
+     */
+    public UUID getUniqueId() {
+        return uuid;
+    }
+    
+    /**
+     * Check to see if the ban is expired.
+     * 
+     * @return True if ban is expired, false otherwise
+     */
+    public boolean isExpired() {
+        return isExpired(duration);
+    }
+    
+    /**
+     * Check to see if the ban is expired, given a specified duration.
+     * 
+     * @param duration
+     *            Length of ban in milliseconds
+     * @return True if ban is expired, false otherwise
+     */
+    public boolean isExpired(long duration) {
+        return (timestamp + duration) < Calendar.getInstance()
+                .getTimeInMillis();
+    }
+    
+}
@@ -15,20 +15,26 @@
 package net.easymfne.factionsdb;
 
 /**
- * Simple exception for catching and reporting syntactic errors in time strings.
+ * Listener for changes to FactionsDB's deathbans, registered through
+ * {@link DeathBanService#addListener(DeathBanListener)}.
  */
-public class TimeFormatException extends Exception {
+public interface DeathBanListener {
     
-    private static final long serialVersionUID = -1675968326479550628L;
+    /**
+     * Called after a ban has been added.
+     * 
+     * @param ban
+     *            The new ban
+     */
+    public void banAdded(DeathBan ban);
     
-    private String timeString;
-    
-    public TimeFormatException(String timeString) {
-        this.timeString = timeString;
-    }
-    
-    public String getTimeString() {
-        return timeString;
-    }
+    /**
+     * Called after a ban has been removed, whether it was pardoned, ran out,
+     * or was replaced by a newer ban.
+     * 
+     * @param ban
+     *            The removed ban
+     */
+    public void banRemoved(DeathBan ban);
     
 }
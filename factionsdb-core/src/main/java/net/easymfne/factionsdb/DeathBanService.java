@@ -0,0 +1,89 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Read-only access to FactionsDB's deathbans for other plugins, registered
+ * with Bukkit's ServicesManager. Queries are answered from a snapshot of all
+ * bans that is shared between callers, and may be made from any thread. After
+ * the bans change, a new snapshot is built in the background, so answers may
+ * lag a change by the time that takes.
+ * 
+ * Bans remain on record after they run out until the player next joins, so
+ * callers interested only in standing bans should check
+ * {@link DeathBan#isExpired()}.
+ */
+public interface DeathBanService {
+    
+    /**
+     * Register a listener to be told about bans being added and removed.
+     * Listeners are called on the main server thread.
+     * 
+     * @param listener
+     *            Listener to register
+     */
+    public void addListener(DeathBanListener listener);
+    
+    /**
+     * Count the players in a faction with a standing (unexpired) ban.
+     * 
+     * @param factionId
+     *            Id of the faction the players were in when banned
+     * @return Number of banned players
+     */
+    public int countBannedIn(String factionId);
+    
+    /**
+     * Get the ban on record for a player.
+     * 
+     * @param player
+     *            UUID of the player
+     * @return The ban, or null if none exists
+     */
+    public DeathBan getBan(UUID player);
+    
+    /**
+     * @return Number of bans on record
+     */
+    public int getBanCount();
+    
+    /**
+     * Get the bans on record for many players at once.
+     * 
+     * @param players
+     *            UUIDs of the players
+     * @return Map from UUID to ban, for players that have a ban
+     */
+    public Map<UUID, DeathBan> getBans(Collection<UUID> players);
+    
+    /**
+     * @return Unmodifiable list of all bans on record, in order of expiry
+     */
+    public List<DeathBan> getBansByDeadline();
+    
+    /**
+     * Unregister a previously registered listener.
+     * 
+     * @param listener
+     *            Listener to unregister
+     */
+    public void removeListener(DeathBanListener listener);
+    
+}
@@ -0,0 +1,401 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Index of standing bans by the faction each banned player currently belongs
+ * to, kept up to date as bans are added and removed, as bans run out, and as
+ * banned players join or leave factions. Counts and member lists are read
+ * without scanning the registry.
+ * 
+ * A player is counted in the faction they were in when banned until told
+ * otherwise through {@link #move(String, String)}. Bans that run out are
+ * dropped by {@link #expire(long)}, so counts may include bans that ran out
+ * since it was last called. Changes must be made on a single thread, but
+ * queries may be made from any thread.
+ */
+public class FactionIndex {
+    
+    /**
+     * Observer of changes to the number of standing bans in a faction. Called
+     * on the thread that made the change.
+     */
+    public interface Observer {
+        
+        /**
+         * Called after the number of standing bans in a faction has changed.
+         * 
+         * @param factionId
+         *            Id of the faction
+         * @param count
+         *            New number of banned members
+         */
+        public void countChanged(String factionId, int count);
+        
+    }
+    
+    /**
+     * A single indexed ban.
+     */
+    private static class Member {
+        
+        private final String key;
+        private final String name;
+        private final long deadline;
+        private String factionId;
+        
+        private Member(String key, String name, long deadline,
+                String factionId) {
+            this.key = key;
+            this.name = name;
+            this.deadline = deadline;
+            this.factionId = factionId;
+        }
+        
+    }
+    
+    /* Orders members by the time at which their bans run out */
+    private static final Comparator<Member> DEADLINE_ORDER =
+            new Comparator<Member>() {
+                @Override
+                public int compare(Member a, Member b) {
+                    return a.deadline < b.deadline ? -1
+                            : (a.deadline == b.deadline ? 0 : 1);
+                }
+            };
+    
+    private Map<String, Member> byKey;
+    private Map<String, Set<Member>> byFaction;
+    
+    /* May hold members that were since removed, which are skipped */
+    private PriorityQueue<Member> byDeadline;
+    
+    private volatile Observer observer = null;
+    
+    /**
+     * Create an empty index.
+     */
+    public FactionIndex() {
+        byKey = new HashMap<String, Member>();
+        byFaction = new HashMap<String, Set<Member>>();
+        byDeadline = new PriorityQueue<Member>(16, DEADLINE_ORDER);
+    }
+    
+    /**
+     * Index a ban under the faction it was issued in, replacing any ban
+     * already indexed for the key.
+     * 
+     * @param key
+     *            Key of the ban
+     * @param ban
+     *            The ban
+     */
+    public void add(String key, DeathBan ban) {
+        add(key, ban, ban.getFactionId());
+    }
+    
+    /**
+     * Index a ban under a given faction, replacing any ban already indexed for
+     * the key. Bans that have already run out are not indexed.
+     * 
+     * @param key
+     *            Key of the ban
+     * @param ban
+     *            The ban
+     * @param factionId
+     *            Id of the player's current faction, or null if none
+     */
+    public synchronized void add(String key, DeathBan ban, String factionId) {
+        Member previous = byKey.remove(key);
+        if (ban.getDeadline() < System.currentTimeMillis()) {
+            if (previous != null) {
+                unlink(previous);
+            }
+            return;
+        }
+        Member member = new Member(key, ban.getName(), ban.getDeadline(),
+                factionId);
+        byKey.put(key, member);
+        byDeadline.add(member);
+        if (previous != null && factionId != null
+                && factionId.equals(previous.factionId)) {
+            /* Same faction, so swap members without changing the count */
+            Set<Member> members = byFaction.get(factionId);
+            members.remove(previous);
+            members.add(member);
+            return;
+        }
+        if (previous != null) {
+            unlink(previous);
+        }
+        link(member);
+    }
+    
+    /**
+     * Check whether a ban is indexed for a key.
+     * 
+     * @param key
+     *            Key of the ban
+     * @return Whether the key has a standing ban
+     */
+    public synchronized boolean contains(String key) {
+        return byKey.containsKey(key);
+    }
+    
+    /**
+     * Count the standing bans of a faction's current members.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @return Number of banned members
+     */
+    public synchronized int count(String factionId) {
+        Set<Member> members = byFaction.get(factionId);
+        return members == null ? 0 : members.size();
+    }
+    
+    /**
+     * Drop every ban that has run out.
+     * 
+     * @param now
+     *            Current time in milliseconds since epoch
+     * @return Number of bans dropped
+     */
+    public synchronized int expire(long now) {
+        int expired = 0;
+        while (!byDeadline.isEmpty() && byDeadline.peek().deadline < now) {
+            Member member = byDeadline.poll();
+            if (byKey.get(member.key) == member) {
+                byKey.remove(member.key);
+                unlink(member);
+                expired++;
+            }
+        }
+        return expired;
+    }
+    
+    /**
+     * @return Number of banned members of each faction with at least one
+     */
+    public synchronized Map<String, Integer> getCounts() {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (Entry<String, Set<Member>> entry : byFaction.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().size());
+        }
+        return counts;
+    }
+    
+    /**
+     * @return Number of factions with at least one banned member
+     */
+    public synchronized int getFactionCount() {
+        return byFaction.size();
+    }
+    
+    /**
+     * Get the faction a banned player is currently counted in.
+     * 
+     * @param key
+     *            Key of the ban
+     * @return Id of the faction, or null if the player has none or has no
+     *         standing ban
+     */
+    public synchronized String getFactionId(String key) {
+        Member member = byKey.get(key);
+        return member == null ? null : member.factionId;
+    }
+    
+    /**
+     * Get the names of a faction's banned members, in order of when their
+     * bans run out.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @return List of player names, which may be empty
+     */
+    public synchronized List<String> getMemberNames(String factionId) {
+        Set<Member> members = byFaction.get(factionId);
+        if (members == null) {
+            return Collections.emptyList();
+        }
+        List<Member> sorted = new ArrayList<Member>(members);
+        Collections.sort(sorted, DEADLINE_ORDER);
+        List<String> names = new ArrayList<String>(sorted.size());
+        for (Member member : sorted) {
+            names.add(member.name);
+        }
+        return names;
+    }
+    
+    /**
+     * Add a member to its faction's set. The faction's count is reported to
+     * the observer.
+     * 
+     * @param member
+     *            Member to add
+     */
+    private void link(Member member) {
+        if (member.factionId == null) {
+            return;
+        }
+        Set<Member> members = byFaction.get(member.factionId);
+        if (members == null) {
+            members = new HashSet<Member>();
+            byFaction.put(member.factionId, members);
+        }
+        members.add(member);
+        notifyObserver(member.factionId, members.size());
+    }
+    
+    /**
+     * Replace the whole index, such as after bans were loaded or moved to new
+     * keys. The observer is told about every faction whose count changed.
+     * 
+     * @param bans
+     *            Bans by key
+     * @param factionIds
+     *            Current faction for keys whose player is known to have moved
+     *            since being banned, which may map to null for no faction
+     */
+    public synchronized void load(Map<String, DeathBan> bans,
+            Map<String, String> factionIds) {
+        Map<String, Integer> before = new HashMap<String, Integer>();
+        for (Entry<String, Set<Member>> entry : byFaction.entrySet()) {
+            before.put(entry.getKey(), entry.getValue().size());
+        }
+        Observer saved = observer;
+        observer = null;
+        byKey = new HashMap<String, Member>();
+        byFaction = new HashMap<String, Set<Member>>();
+        byDeadline = new PriorityQueue<Member>(16, DEADLINE_ORDER);
+        for (Entry<String, DeathBan> entry : bans.entrySet()) {
+            String key = entry.getKey();
+            add(key, entry.getValue(), factionIds.containsKey(key) ? factionIds
+                    .get(key) : entry.getValue().getFactionId());
+        }
+        observer = saved;
+        Set<String> factions = new HashSet<String>(before.keySet());
+        factions.addAll(byFaction.keySet());
+        for (String factionId : factions) {
+            Integer old = before.get(factionId);
+            int count = count(factionId);
+            if (old == null || old.intValue() != count) {
+                notifyObserver(factionId, count);
+            }
+        }
+    }
+    
+    /**
+     * Move a banned player to another faction, such as after they were kicked
+     * from their faction while banned.
+     * 
+     * @param key
+     *            Key of the ban
+     * @param factionId
+     *            Id of the player's new faction, or null if none
+     * @return Whether the key has a standing ban
+     */
+    public synchronized boolean move(String key, String factionId) {
+        Member member = byKey.get(key);
+        if (member == null) {
+            return false;
+        }
+        if (factionId == null ? member.factionId != null : !factionId
+                .equals(member.factionId)) {
+            unlink(member);
+            member.factionId = factionId;
+            link(member);
+        }
+        return true;
+    }
+    
+    /**
+     * Report a faction's count to the observer, if any.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @param count
+     *            New number of banned members
+     */
+    private void notifyObserver(String factionId, int count) {
+        Observer current = observer;
+        if (current != null) {
+            current.countChanged(factionId, count);
+        }
+    }
+    
+    /**
+     * Remove the ban indexed for a key, if any.
+     * 
+     * @param key
+     *            Key of the ban
+     */
+    public synchronized void remove(String key) {
+        Member member = byKey.remove(key);
+        if (member != null) {
+            unlink(member);
+        }
+    }
+    
+    /**
+     * Set the observer told about changes to faction counts.
+     * 
+     * @param observer
+     *            New observer, or null for none
+     */
+    public void setObserver(Observer observer) {
+        this.observer = observer;
+    }
+    
+    /**
+     * @return Number of standing bans indexed
+     */
+    public synchronized int size() {
+        return byKey.size();
+    }
+    
+    /**
+     * Remove a member from its faction's set. The faction's count is reported
+     * to the observer.
+     * 
+     * @param member
+     *            Member to remove
+     */
+    private void unlink(Member member) {
+        if (member.factionId == null) {
+            return;
+        }
+        Set<Member> members = byFaction.get(member.factionId);
+        if (members == null || !members.remove(member)) {
+            return;
+        }
+        if (members.isEmpty()) {
+            byFaction.remove(member.factionId);
+        }
+        notifyObserver(member.factionId, members.size());
+    }
+    
+}
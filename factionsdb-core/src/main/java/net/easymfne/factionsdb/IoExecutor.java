@@ -0,0 +1,311 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executor for all of FactionsDB's disk work. Each task runs on its own
+ * virtual thread where the JVM supports them (Java 21 and later), and on a
+ * small pool of daemon threads otherwise. The number of tasks queued or
+ * running at once is bounded: {@link #trySubmit(String, Callable)} refuses
+ * work beyond the bound, which suits callers on the main server thread, and
+ * {@link #submit(String, Callable)} waits for room. Tasks are timed by name.
+ */
+public class IoExecutor {
+    
+    /**
+     * Timing statistics for all tasks of one name.
+     */
+    public static class TaskStats {
+        
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        
+        /**
+         * @return Number of runs that threw an exception
+         */
+        public long getFailures() {
+            return failures.get();
+        }
+        
+        /**
+         * @return Longest run, in nanoseconds
+         */
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+        
+        /**
+         * @return Mean run time, in nanoseconds
+         */
+        public long getMeanNanos() {
+            long count = runs.get();
+            return count == 0 ? 0 : totalNanos.get() / count;
+        }
+        
+        /**
+         * @return Number of completed runs, including failures
+         */
+        public long getRuns() {
+            return runs.get();
+        }
+        
+        private void record(long nanos, boolean failed) {
+            runs.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+        
+    }
+    
+    /**
+     * Create an executor that starts a virtual thread per task, if the JVM
+     * has them. Looked up reflectively, as the plugin is built for Java 6.
+     * 
+     * @return The executor, or null if virtual threads are unavailable
+     */
+    private static ExecutorService createVirtual() {
+        try {
+            return (ExecutorService) Executors.class.getMethod(
+                    "newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    private final Logger logger;
+    private final ExecutorService executor;
+    private final boolean virtual;
+    private final int capacity;
+    private final Semaphore permits;
+    private final ConcurrentMap<String, TaskStats> stats;
+    private final AtomicLong rejected;
+    
+    /**
+     * Create an executor, using virtual threads if available.
+     * 
+     * @param logger
+     *            Logger for reporting failed tasks
+     * @param threads
+     *            Number of threads in the fallback pool
+     * @param capacity
+     *            Maximum number of tasks queued or running at once
+     */
+    public IoExecutor(Logger logger, int threads, int capacity) {
+        this.logger = logger;
+        this.capacity = Math.max(1, capacity);
+        permits = new Semaphore(this.capacity);
+        stats = new ConcurrentHashMap<String, TaskStats>();
+        rejected = new AtomicLong();
+        ExecutorService created = createVirtual();
+        virtual = created != null;
+        if (created == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(Math.max(1,
+                    threads), Math.max(1, threads), 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable,
+                                    "FactionsDB I/O #"
+                                            + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            created = pool;
+        }
+        executor = created;
+    }
+    
+    /**
+     * Wait until no tasks are queued or running, such as before writing the
+     * final journal at shutdown.
+     * 
+     * @param timeout
+     *            Maximum time to wait, in milliseconds
+     * @return Whether all tasks finished in time
+     */
+    public boolean awaitIdle(long timeout) {
+        try {
+            if (permits.tryAcquire(capacity, timeout, TimeUnit.MILLISECONDS)) {
+                permits.release(capacity);
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+    
+    /**
+     * Run a task once a permit has been taken, timing it and releasing the
+     * permit when it finishes.
+     * 
+     * @param name
+     *            Name to record statistics under
+     * @param task
+     *            The task
+     * @return Future for the task's result
+     */
+    private <T> Future<T> execute(final String name, final Callable<T> task) {
+        TaskStats named = stats.get(name);
+        if (named == null) {
+            stats.putIfAbsent(name, new TaskStats());
+            named = stats.get(name);
+        }
+        final TaskStats taskStats = named;
+        try {
+            return executor.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    long start = System.nanoTime();
+                    boolean failed = true;
+                    try {
+                        T result = task.call();
+                        failed = false;
+                        return result;
+                    } catch (Exception e) {
+                        logger.log(Level.SEVERE, "I/O task '" + name
+                                + "' failed", e);
+                        throw e;
+                    } finally {
+                        taskStats.record(System.nanoTime() - start, failed);
+                        permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return Maximum number of tasks queued or running at once
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+    
+    /**
+     * @return Number of tasks queued or running
+     */
+    public int getPending() {
+        return capacity - permits.availablePermits();
+    }
+    
+    /**
+     * @return Number of tasks refused because the executor was full
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+    
+    /**
+     * @return Statistics of each task name, sorted by name
+     */
+    public Map<String, TaskStats> getStats() {
+        return new TreeMap<String, TaskStats>(stats);
+    }
+    
+    /**
+     * @return Whether tasks run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+    
+    /**
+     * Stop accepting tasks and wait for those already submitted to finish.
+     * 
+     * @param timeout
+     *            Maximum time to wait, in milliseconds
+     * @return Whether every task finished in time
+     */
+    public boolean shutdown(long timeout) {
+        executor.shutdown();
+        try {
+            return executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Submit a task, waiting for room if the executor is full. Must not be
+     * called on the main server thread.
+     * 
+     * @param name
+     *            Name to record statistics under
+     * @param task
+     *            The task
+     * @return Future for the task's result
+     * @throws RejectedExecutionException
+     *             If the executor has been shut down
+     */
+    public <T> Future<T> submit(String name, Callable<T> task) {
+        permits.acquireUninterruptibly();
+        return execute(name, task);
+    }
+    
+    /**
+     * Submit a task if the executor has room for it.
+     * 
+     * @param name
+     *            Name to record statistics under
+     * @param task
+     *            The task
+     * @return Future for the task's result, or null if the executor is full
+     * @throws RejectedExecutionException
+     *             If the executor has been shut down
+     */
+    public <T> Future<T> trySubmit(String name, Callable<T> task) {
+        if (!permits.tryAcquire()) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        return execute(name, task);
+    }
+    
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Message with numbered tags such as "{0}", parsed once into literal text and
+ * tag numbers so that rendering only appends strings. Tags are single digits;
+ * any other text, including braces that do not form a tag, is kept as is.
+ */
+public class MessageTemplate {
+    
+    /**
+     * Parse a message into a template.
+     * 
+     * @param pattern
+     *            Message with tags
+     * @return The compiled template
+     */
+    public static MessageTemplate compile(String pattern) {
+        List<String> literals = new ArrayList<String>();
+        List<Integer> tags = new ArrayList<Integer>();
+        int start = 0;
+        for (int i = 0; i + 2 < pattern.length(); i++) {
+            char digit = pattern.charAt(i + 1);
+            if (pattern.charAt(i) == '{' && digit >= '0' && digit <= '9'
+                    && pattern.charAt(i + 2) == '}') {
+                literals.add(pattern.substring(start, i));
+                tags.add(digit - '0');
+                start = i + 3;
+                i += 2;
+            }
+        }
+        literals.add(pattern.substring(start));
+        int[] order = new int[tags.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = tags.get(i);
+        }
+        return new MessageTemplate(
+                literals.toArray(new String[literals.size()]), order);
+    }
+    
+    private final String[] literals;
+    private final int[] tags;
+    private final int literalLength;
+    
+    /**
+     * Initialize from parsed parts.
+     * 
+     * @param literals
+     *            Text around the tags, one more than there are tags
+     * @param tags
+     *            Tag numbers, in order of appearance
+     */
+    private MessageTemplate(String[] literals, int[] tags) {
+        this.literals = literals;
+        this.tags = tags;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        literalLength = length;
+    }
+    
+    /**
+     * Render the message, replacing each tag by the value with its number.
+     * Tags without a value are replaced by nothing.
+     * 
+     * @param values
+     *            Values by tag number
+     * @return Rendered message
+     */
+    public String render(String[] values) {
+        if (tags.length == 0) {
+            return literals[0];
+        }
+        StringBuilder builder = new StringBuilder(literalLength + 16
+                * tags.length);
+        for (int i = 0; i < tags.length; i++) {
+            builder.append(literals[i]);
+            if (tags[i] < values.length && values[tags[i]] != null) {
+                builder.append(values[tags[i]]);
+            }
+        }
+        return builder.append(literals[tags.length]).toString();
+    }
+    
+}
@@ -0,0 +1,169 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive prefix tree of banned player names, kept up to date as a
+ * registry listener so that names can be completed without scanning every
+ * ban. Each node counts the bans below it and empty branches are pruned, so
+ * a completion visits only the prefix and the branches holding its results.
+ * 
+ * A name banned under more than one key is counted once per ban, and is
+ * completed for as long as any of those bans remain.
+ */
+public class NameTrie implements DeathBanListener {
+    
+    /**
+     * A single character of one or more names.
+     */
+    private static class Node {
+        
+        private final Map<Character, Node> children;
+        private String name = null;
+        private int terminal = 0;
+        private int size = 0;
+        
+        private Node() {
+            children = new TreeMap<Character, Node>();
+        }
+        
+    }
+    
+    private final Node root;
+    
+    /**
+     * Create an empty tree.
+     */
+    public NameTrie() {
+        root = new Node();
+    }
+    
+    /**
+     * Add a name.
+     * 
+     * @param name
+     *            Name to add, in its original case
+     */
+    public synchronized void add(String name) {
+        Node node = root;
+        node.size++;
+        for (int i = 0; i < name.length(); i++) {
+            Character c = Character.toLowerCase(name.charAt(i));
+            Node child = node.children.get(c);
+            if (child == null) {
+                child = new Node();
+                node.children.put(c, child);
+            }
+            node = child;
+            node.size++;
+        }
+        node.terminal++;
+        node.name = name;
+    }
+    
+    @Override
+    public void banAdded(DeathBan ban) {
+        add(ban.getName());
+    }
+    
+    @Override
+    public void banRemoved(DeathBan ban) {
+        remove(ban.getName());
+    }
+    
+    /**
+     * Collect names below a node in alphabetical order, up to a limit.
+     */
+    private void collect(Node node, List<String> names, int limit) {
+        if (node.terminal > 0) {
+            names.add(node.name);
+        }
+        for (Node child : node.children.values()) {
+            if (names.size() >= limit) {
+                return;
+            }
+            collect(child, names, limit);
+        }
+    }
+    
+    /**
+     * Complete a prefix, ignoring case.
+     * 
+     * @param prefix
+     *            Start of the name
+     * @param limit
+     *            Maximum number of names to return
+     * @return Up to limit matching names in alphabetical order
+     */
+    public synchronized List<String> complete(String prefix, int limit) {
+        List<String> names = new ArrayList<String>();
+        Node node = find(prefix);
+        if (node != null && limit > 0) {
+            collect(node, names, limit);
+        }
+        return names;
+    }
+    
+    /**
+     * Find the node for a prefix, ignoring case.
+     * 
+     * @return The node, or null if no name has the prefix
+     */
+    private Node find(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(Character.toLowerCase(prefix.charAt(i)));
+        }
+        return node;
+    }
+    
+    /**
+     * Remove one occurrence of a name, if present.
+     * 
+     * @param name
+     *            Name to remove, in any case
+     */
+    public synchronized void remove(String name) {
+        Node end = find(name);
+        if (end == null || end.terminal == 0) {
+            return;
+        }
+        Node node = root;
+        node.size--;
+        for (int i = 0; i < name.length(); i++) {
+            Character c = Character.toLowerCase(name.charAt(i));
+            Node child = node.children.get(c);
+            if (--child.size == 0) {
+                node.children.remove(c);
+                return;
+            }
+            node = child;
+        }
+        node.terminal--;
+    }
+    
+    /**
+     * @return Number of names in the tree, counting repeats
+     */
+    public synchronized int size() {
+        return root.size;
+    }
+    
+}
@@ -0,0 +1,241 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.UUID;
+
+/**
+ * A ban stored in a {@link BanTrie} leaf as primitives, instead of as a key
+ * String, a DeathBan, a UUID and a name String. UUID halves, the timestamp
+ * and the duration are stored directly, policy names and faction ids are
+ * interned, and the name is packed into a byte array of one byte per
+ * character, or two if any character needs them. DeathBan objects are only
+ * created when a caller asks for one.
+ * 
+ * A key is normally not stored at all: in UUID mode it is the player's UUID,
+ * and in name mode it is the player's name in lower case. Any other key is
+ * packed after the name.
+ */
+final class PackedBan extends BanTrie.Leaf {
+    
+    /* Flags */
+    private static final byte HAS_UUID = 1;
+    private static final byte KEY_IS_UUID = 2;
+    private static final byte KEY_IS_NAME = 4;
+    private static final byte WIDE = 8;
+    
+    /**
+     * Check whether a key is a name in lower case.
+     */
+    private static boolean isLowerName(String key, String name) {
+        if (key.length() != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != lower(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Check whether a String is the canonical form of a UUID, without parsing
+     * it.
+     */
+    private static boolean isUuid(String key, long high, long low) {
+        if (key.length() != 36) {
+            return false;
+        }
+        int digit = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = key.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') {
+                    return false;
+                }
+                continue;
+            }
+            long half = digit < 16 ? high : low;
+            int nibble = (int) (half >>> (60 - 4 * (digit % 16))) & 0xF;
+            if (c != Character.forDigit(nibble, 16)) {
+                return false;
+            }
+            digit++;
+        }
+        return true;
+    }
+    
+    /**
+     * Convert a character to lower case if it is an upper case ASCII letter,
+     * as keys in name mode are.
+     */
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+    
+    private final byte flags;
+    private final int nameLength;
+    private final long uuidHigh;
+    private final long uuidLow;
+    private final long timestamp;
+    private final long duration;
+    private final String policy;
+    private final String factionId;
+    private final byte[] text;
+    
+    /**
+     * Pack a ban, working out how its key can be derived.
+     * 
+     * @param hash
+     *            Spread hash of the key
+     * @param key
+     *            Key of the ban
+     * @param ban
+     *            The ban
+     */
+    PackedBan(int hash, String key, DeathBan ban) {
+        super(hash);
+        String name = ban.getName();
+        UUID uuid = ban.getUniqueId();
+        byte flag = 0;
+        if (uuid != null) {
+            flag |= HAS_UUID;
+            uuidHigh = uuid.getMostSignificantBits();
+            uuidLow = uuid.getLeastSignificantBits();
+        } else {
+            uuidHigh = 0;
+            uuidLow = 0;
+        }
+        String packed = name;
+        if (uuid != null && isUuid(key, uuidHigh, uuidLow)) {
+            flag |= KEY_IS_UUID;
+        } else if (isLowerName(key, name)) {
+            flag |= KEY_IS_NAME;
+        } else {
+            packed = name + key;
+        }
+        boolean wide = false;
+        for (int i = 0; i < packed.length() && !wide; i++) {
+            wide = packed.charAt(i) > 0xFF;
+        }
+        if (wide) {
+            flag |= WIDE;
+        }
+        text = new byte[wide ? packed.length() * 2 : packed.length()];
+        for (int i = 0; i < packed.length(); i++) {
+            char c = packed.charAt(i);
+            if (wide) {
+                text[i * 2] = (byte) (c >>> 8);
+                text[i * 2 + 1] = (byte) c;
+            } else {
+                text[i] = (byte) c;
+            }
+        }
+        flags = flag;
+        nameLength = name.length();
+        timestamp = ban.getTimestamp();
+        duration = ban.getDuration();
+        policy = ban.getPolicy().intern();
+        factionId = ban.getFactionId() == null ? null : ban.getFactionId()
+                .intern();
+    }
+    
+    /**
+     * Get a single packed character.
+     */
+    private char charAt(int index) {
+        if ((flags & WIDE) != 0) {
+            return (char) ((text[index * 2] & 0xFF) << 8 | text[index * 2 + 1]
+                    & 0xFF);
+        }
+        return (char) (text[index] & 0xFF);
+    }
+    
+    @Override
+    long estimateBytes() {
+        /* Object with four longs, an int, a byte and three references */
+        return 72 + (16 + text.length + 7) / 8 * 8;
+    }
+    
+    @Override
+    DeathBan getBan() {
+        UUID uuid = (flags & HAS_UUID) != 0 ? new UUID(uuidHigh, uuidLow)
+                : null;
+        return new DeathBan(getString(0, nameLength), uuid, factionId,
+                timestamp, duration, policy);
+    }
+    
+    @Override
+    String getKey() {
+        if ((flags & KEY_IS_UUID) != 0) {
+            return new UUID(uuidHigh, uuidLow).toString();
+        }
+        if ((flags & KEY_IS_NAME) != 0) {
+            char[] key = new char[nameLength];
+            for (int i = 0; i < nameLength; i++) {
+                key[i] = lower(charAt(i));
+            }
+            return new String(key);
+        }
+        return getString(nameLength, getLength() - nameLength);
+    }
+    
+    /**
+     * @return Number of packed characters
+     */
+    private int getLength() {
+        return (flags & WIDE) != 0 ? text.length / 2 : text.length;
+    }
+    
+    /**
+     * Unpack a run of characters.
+     */
+    private String getString(int start, int count) {
+        char[] chars = new char[count];
+        for (int i = 0; i < count; i++) {
+            chars[i] = charAt(start + i);
+        }
+        return new String(chars);
+    }
+    
+    @Override
+    boolean hasKey(String key) {
+        if ((flags & KEY_IS_UUID) != 0) {
+            return isUuid(key, uuidHigh, uuidLow);
+        }
+        if ((flags & KEY_IS_NAME) != 0) {
+            if (key.length() != nameLength) {
+                return false;
+            }
+            for (int i = 0; i < nameLength; i++) {
+                if (key.charAt(i) != lower(charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (key.length() != getLength() - nameLength) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != charAt(nameLength + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+}
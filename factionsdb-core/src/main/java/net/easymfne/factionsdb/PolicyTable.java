@@ -0,0 +1,269 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lookup table of ban policies, compiled from configured rules so that the
+ * effective policy for a world and faction can be found with at most two hash
+ * lookups. Every world named by a rule gets its own row of per-faction
+ * policies; all other worlds share a single row.
+ * 
+ * Rules are applied from least to most specific: world-only rules, then
+ * faction-only rules, then rules naming both a world and a faction. Within
+ * each of those groups, later rules take precedence over earlier ones.
+ */
+public class PolicyTable {
+    
+    /**
+     * A single configured rule, overriding any of the policy values for the
+     * worlds and factions it names. Null values are inherited.
+     */
+    public static class Rule {
+        
+        private final String name;
+        private final Set<String> worlds;
+        private final Set<String> factions;
+        private final Double threshold;
+        private final Double boost;
+        private final Long duration;
+        
+        /**
+         * Initialize a rule. World and faction names are case-insensitive.
+         * 
+         * @param name
+         *            Name of the rule
+         * @param worlds
+         *            Worlds the rule applies to, or empty for all worlds
+         * @param factions
+         *            Factions the rule applies to, or empty for all factions
+         * @param threshold
+         *            Overridden power threshold, or null
+         * @param boost
+         *            Overridden power boost, or null
+         * @param duration
+         *            Overridden ban duration in milliseconds, or null
+         */
+        public Rule(String name, Collection<String> worlds,
+                Collection<String> factions, Double threshold, Double boost,
+                Long duration) {
+            this.name = name;
+            this.worlds = lowerCase(worlds);
+            this.factions = lowerCase(factions);
+            this.threshold = threshold;
+            this.boost = boost;
+            this.duration = duration;
+        }
+        
+        /**
+         * @return Overridden power boost, or null
+         */
+        public Double getBoost() {
+            return boost;
+        }
+        
+        /**
+         * @return Overridden ban duration in milliseconds, or null
+         */
+        public Long getDuration() {
+            return duration;
+        }
+        
+        /**
+         * @return Name of the rule
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return Overridden power threshold, or null
+         */
+        public Double getThreshold() {
+            return threshold;
+        }
+        
+    }
+    
+    /**
+     * Per-world row of the table: the policy for factionless players or
+     * factions without a rule, plus policies for specific factions.
+     */
+    private static class Row {
+        
+        private BanPolicy fallback;
+        private final Map<String, BanPolicy> byFaction;
+        
+        private Row(BanPolicy fallback) {
+            this.fallback = fallback;
+            byFaction = new HashMap<String, BanPolicy>();
+        }
+        
+        private BanPolicy get(String faction) {
+            BanPolicy policy = byFaction.get(faction);
+            return policy != null ? policy : fallback;
+        }
+        
+    }
+    
+    /**
+     * Copy a collection of names into a set of lower-case names.
+     * 
+     * @param names
+     *            Names to copy
+     * @return Lower-case set
+     */
+    private static Set<String> lowerCase(Collection<String> names) {
+        Set<String> result = new HashSet<String>();
+        for (String name : names) {
+            result.add(name.toLowerCase());
+        }
+        return result;
+    }
+    
+    private final BanPolicy defaults;
+    private final Row anyWorld;
+    private final Map<String, Row> byWorld;
+    private final Map<String, BanPolicy> byName;
+    
+    /**
+     * Compile a list of rules on top of the default policy.
+     * 
+     * @param defaults
+     *            Policy built from the global configuration values
+     * @param rules
+     *            Rules in configured order
+     */
+    public PolicyTable(BanPolicy defaults, List<Rule> rules) {
+        this.defaults = defaults;
+        byWorld = new HashMap<String, Row>();
+        byName = new HashMap<String, BanPolicy>();
+        byName.put(defaults.getName(), defaults);
+        anyWorld = compileRow(null, rules);
+        for (Rule rule : rules) {
+            for (String world : rule.worlds) {
+                if (!byWorld.containsKey(world)) {
+                    byWorld.put(world, compileRow(world, rules));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Build the row for a single world, or for all unnamed worlds if null.
+     * 
+     * @param world
+     *            Lower-case world name, or null
+     * @param rules
+     *            Rules in configured order
+     * @return The compiled row
+     */
+    private Row compileRow(String world, List<Rule> rules) {
+        Row row = new Row(defaults);
+        for (Rule rule : rules) {
+            if (rule.factions.isEmpty() && rule.worlds.contains(world)) {
+                row.fallback = register(row.fallback.derive(rule));
+            }
+        }
+        for (Rule rule : rules) {
+            if (rule.worlds.isEmpty()) {
+                applyToFactions(row, rule);
+            }
+        }
+        for (Rule rule : rules) {
+            if (!rule.factions.isEmpty() && rule.worlds.contains(world)) {
+                applyToFactions(row, rule);
+            }
+        }
+        return row;
+    }
+    
+    /**
+     * Apply a rule to each of its factions within a row.
+     * 
+     * @param row
+     *            Row to modify
+     * @param rule
+     *            Rule to apply
+     */
+    private void applyToFactions(Row row, Rule rule) {
+        for (String faction : rule.factions) {
+            row.byFaction.put(faction,
+                    register(row.get(faction).derive(rule)));
+        }
+    }
+    
+    /**
+     * Get a policy by name, for a ban that was issued under it.
+     * 
+     * @param name
+     *            Name of the policy
+     * @return The policy, or the default policy if it no longer exists
+     */
+    public BanPolicy get(String name) {
+        BanPolicy policy = byName.get(name);
+        return policy != null ? policy : defaults;
+    }
+    
+    /**
+     * @return Policy built from the global configuration values
+     */
+    public BanPolicy getDefault() {
+        return defaults;
+    }
+    
+    /**
+     * Remember a compiled policy by name.
+     * 
+     * @param policy
+     *            Policy to remember
+     * @return The same policy
+     */
+    private BanPolicy register(BanPolicy policy) {
+        byName.put(policy.getName(), policy);
+        return policy;
+    }
+    
+    /**
+     * Find the effective policy for a player in a world and faction.
+     * 
+     * @param world
+     *            Name of the world
+     * @param faction
+     *            Name of the faction, or null if the player has none
+     * @return The effective policy
+     */
+    public BanPolicy resolve(String world, String faction) {
+        Row row = byWorld.get(world.toLowerCase());
+        if (row == null) {
+            row = anyWorld;
+        }
+        return faction == null ? row.fallback : row.get(faction.toLowerCase());
+    }
+    
+    /**
+     * @return Number of distinct compiled policies, including the default
+     */
+    public int size() {
+        return byName.size();
+    }
+    
+}
@@ -0,0 +1,263 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utility class with static methods for converting time between representations
+ * in String and long format, and for parsing UUIDs.
+ */
+public class Util {
+    
+    /**
+     * Time String generated for a whole number of seconds.
+     */
+    private static class CachedTimeString {
+        
+        private final long seconds;
+        private final String string;
+        
+        private CachedTimeString(long seconds, String string) {
+            this.seconds = seconds;
+            this.string = string;
+        }
+        
+    }
+    
+    private final static long SECOND = 1000;
+    private final static long MINUTE = SECOND * 60;
+    private final static long HOUR = MINUTE * 60;
+    private final static long DAY = HOUR * 24;
+    
+    /* Fraction digits beyond this are ignored, as they are below 1ms */
+    private final static int MAX_FRACTION_DIGITS = 9;
+    
+    /* Direct-mapped cache of time Strings, indexed by whole seconds */
+    private final static int CACHE_SIZE = 256;
+    private final static CachedTimeString[] timeStringCache =
+            new CachedTimeString[CACHE_SIZE];
+    
+    /**
+     * Append a time in milliseconds to a builder in user-friendly format, such
+     * as "1 hour, 30 minutes, 5 seconds".
+     * 
+     * @param builder
+     *            Builder to append to
+     * @param time
+     *            Number of milliseconds
+     * @return The same builder
+     */
+    public static StringBuilder appendTimeString(StringBuilder builder,
+            long time) {
+        long d = TimeUnit.MILLISECONDS.toDays(time);
+        time -= TimeUnit.DAYS.toMillis(d);
+        long h = TimeUnit.MILLISECONDS.toHours(time);
+        time -= TimeUnit.HOURS.toMillis(h);
+        long m = TimeUnit.MILLISECONDS.toMinutes(time);
+        time -= TimeUnit.MINUTES.toMillis(m);
+        long s = TimeUnit.MILLISECONDS.toSeconds(time);
+        
+        int start = builder.length();
+        if (d > 0) {
+            appendTimeUnit(builder, start, d, " day");
+        }
+        if (h > 0) {
+            appendTimeUnit(builder, start, h, " hour");
+        }
+        if (m > 0) {
+            appendTimeUnit(builder, start, m, " minute");
+        }
+        if (s > 0 || builder.length() == start) {
+            appendTimeUnit(builder, start, s, " second");
+        }
+        return builder;
+    }
+    
+    /**
+     * Append a single quantity of a time unit, separated from any earlier
+     * units and pluralized as necessary.
+     * 
+     * @param builder
+     *            Builder to append to
+     * @param start
+     *            Length of the builder before any units were appended
+     * @param value
+     *            Quantity of the unit
+     * @param unit
+     *            Singular name of the unit, with a leading space
+     */
+    private static void appendTimeUnit(StringBuilder builder, int start,
+            long value, String unit) {
+        if (builder.length() > start) {
+            builder.append(", ");
+        }
+        builder.append(value).append(unit);
+        if (value != 1) {
+            builder.append('s');
+        }
+    }
+    
+    /**
+     * Calculate the number of milliseconds represented by a time String. The
+     * String consists of one or more numbers, each followed by a unit (s, m,
+     * h, or d), for example "0.5h", "90s", or "1d6h30m". Whitespace between
+     * the parts is ignored. The String is parsed in a single pass.
+     * 
+     * @param timeString
+     *            String representing a time
+     * @return Number of milliseconds
+     * @throws TimeFormatException
+     *             If the String is malformed, with the position of the error
+     */
+    public static long calculateMillis(String timeString)
+            throws TimeFormatException {
+        int length = timeString.length();
+        long total = 0;
+        boolean empty = true;
+        int i = 0;
+        while (i < length) {
+            if (Character.isWhitespace(timeString.charAt(i))) {
+                i++;
+                continue;
+            }
+            
+            /* Number: whole part, then optionally a fractional part */
+            int start = i;
+            long whole = 0;
+            long fraction = 0;
+            long scale = 1;
+            int fractionDigits = 0;
+            boolean point = false;
+            boolean digits = false;
+            for (; i < length; i++) {
+                char c = timeString.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    digits = true;
+                    if (!point) {
+                        if (whole > (Long.MAX_VALUE - 9) / 10) {
+                            throw new TimeFormatException(timeString, start,
+                                    "number too large");
+                        }
+                        whole = whole * 10 + (c - '0');
+                    } else if (fractionDigits < MAX_FRACTION_DIGITS) {
+                        fraction = fraction * 10 + (c - '0');
+                        scale *= 10;
+                        fractionDigits++;
+                    }
+                } else if (c == '.' && !point) {
+                    point = true;
+                } else {
+                    break;
+                }
+            }
+            if (!digits) {
+                throw new TimeFormatException(timeString, start,
+                        "expected a number");
+            }
+            
+            /* Unit */
+            long unit = i < length ? getUnitMillis(timeString.charAt(i)) : 0;
+            if (unit == 0) {
+                throw new TimeFormatException(timeString, i,
+                        "expected a unit (s, m, h, d)");
+            }
+            if (whole > Long.MAX_VALUE / unit - 1) {
+                throw new TimeFormatException(timeString, start,
+                        "number too large");
+            }
+            long part = whole * unit + fraction * unit / scale;
+            if (part > Long.MAX_VALUE - total) {
+                throw new TimeFormatException(timeString, start,
+                        "time too large");
+            }
+            total += part;
+            empty = false;
+            i++;
+        }
+        if (empty) {
+            throw new TimeFormatException(timeString, 0, "expected a number");
+        }
+        return total;
+    }
+    
+    /**
+     * Convert a time in milliseconds to a user-friendly String format. Results
+     * are cached by whole seconds, since repeated requests for the same time
+     * left are common.
+     * 
+     * @param time
+     *            Number of milliseconds
+     * @return User-friendly String
+     */
+    public static String generateTimeString(long time) {
+        long seconds = TimeUnit.MILLISECONDS.toSeconds(time);
+        int slot = (int) (seconds & (CACHE_SIZE - 1));
+        CachedTimeString cached = timeStringCache[slot];
+        if (cached != null && cached.seconds == seconds) {
+            return cached.string;
+        }
+        String string = appendTimeString(new StringBuilder(32), time)
+                .toString();
+        timeStringCache[slot] = new CachedTimeString(seconds, string);
+        return string;
+    }
+    
+    /**
+     * Get the number of milliseconds in a time unit.
+     * 
+     * @param unit
+     *            Unit character, case-insensitive
+     * @return Milliseconds in the unit, or 0 if it is not a unit
+     */
+    private static long getUnitMillis(char unit) {
+        switch (unit) {
+        case 's':
+        case 'S':
+            return SECOND;
+        case 'm':
+        case 'M':
+            return MINUTE;
+        case 'h':
+        case 'H':
+            return HOUR;
+        case 'd':
+        case 'D':
+            return DAY;
+        default:
+            return 0;
+        }
+    }
+    
+    /**
+     * Parse a UUID, without throwing an exception if it is malformed.
+     * 
+     * @param string
+     *            String to parse, may be null
+     * @return The UUID, or null if the String is null or not a UUID
+     */
+    public static UUID parseUuid(String string) {
+        if (string == null || string.length() != 36) {
+            return null;
+        }
+        try {
+            return UUID.fromString(string);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+}
@@ -0,0 +1,145 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static net.easymfne.factionsdb.BanJournalTest.assertBanEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests for writing and reading bans in each {@link BanFormat}.
+ */
+public class BanFormatTest {
+    
+    private static final UUID NOTCH = UUID
+            .fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    
+    private static final BanFormat CSV = BanFormat.forFile(new File("a.csv"));
+    private static final BanFormat JSON = BanFormat
+            .forFile(new File("a.jsonl"));
+    
+    /**
+     * Check that each line is rejected by a format.
+     * 
+     * @param format
+     *            Format to read with
+     * @param lines
+     *            Malformed lines
+     */
+    private static void assertRejected(BanFormat format, String... lines) {
+        for (String line : lines) {
+            try {
+                format.read(line);
+                fail("Expected '" + line + "' to be rejected");
+            } catch (IOException e) {
+                /* Expected */
+            }
+        }
+    }
+    
+    /**
+     * Write a ban and read it back, checking that it is a single line.
+     * 
+     * @param format
+     *            Format to use
+     * @param ban
+     *            Ban to write
+     * @return The ban read back
+     * @throws IOException
+     */
+    private static DeathBan roundTrip(BanFormat format, DeathBan ban)
+            throws IOException {
+        StringWriter writer = new StringWriter();
+        format.write(writer, "key", ban);
+        String text = writer.toString();
+        assertEquals(text.length() - 1, text.indexOf('\n'));
+        return format.read(text.substring(0, text.length() - 1));
+    }
+    
+    @Test
+    public void choosesFormatByExtension() {
+        assertEquals(CSV.getClass(), BanFormat.forFile(new File("B.CSV"))
+                .getClass());
+        assertEquals(JSON.getClass(), BanFormat.forFile(new File("b.json"))
+                .getClass());
+        assertNull(BanFormat.forFile(new File("b.yml")));
+        assertNull(BanFormat.forFile(new File("csv")));
+    }
+    
+    @Test
+    public void csvQuotesSpecialCharacters() throws IOException {
+        DeathBan ban = new DeathBan("a,\"b\"", NOTCH, "red, \"blue\"", 1000,
+                60000, "vets,+\"x\"");
+        assertBanEquals(ban, roundTrip(CSV, ban));
+        DeathBan unknown = new DeathBan("jeb_", null, null, 0, 1, "default");
+        assertBanEquals(unknown, roundTrip(CSV, unknown));
+    }
+    
+    @Test
+    public void csvSkipsHeaderAndBlankLines() throws IOException {
+        StringWriter writer = new StringWriter();
+        CSV.writeHeader(writer);
+        assertNull(CSV.read(writer.toString().trim()));
+        assertNull(CSV.read(""));
+        assertNull(CSV.read("  "));
+        assertBanEquals(new DeathBan("Notch", null, null, 5, 10,
+                BanPolicy.DEFAULT), CSV.read("notch,Notch,,,5,10,"));
+    }
+    
+    @Test
+    public void jsonEscapesSpecialCharacters() throws IOException {
+        DeathBan ban = new DeathBan("a\"b\\c\td\u0001", NOTCH, "f\n", 1000,
+                60000, "p");
+        assertBanEquals(ban, roundTrip(JSON, ban));
+        DeathBan unknown = new DeathBan("jeb_", null, null, 0, 1, "default");
+        assertBanEquals(unknown, roundTrip(JSON, unknown));
+    }
+    
+    @Test
+    public void jsonReadsAnyFieldOrder() throws IOException {
+        JSON.writeHeader(new StringWriter());
+        assertBanEquals(new DeathBan("Notch", NOTCH, null, 5, 10,
+                BanPolicy.DEFAULT), JSON.read(" { \"duration\" : 10,"
+                + " \"timestamp\":5, \"uuid\":\"" + NOTCH + "\","
+                + " \"name\":\"N\\u006ftch\", \"policy\":null } "));
+        assertNull(JSON.read(""));
+    }
+    
+    @Test
+    public void readsMalformedUuidAsUnknown() throws IOException {
+        assertNull(CSV.read("k,Notch,not-a-uuid,,1,2,p").getUniqueId());
+        assertNull(JSON.read("{\"name\":\"Notch\",\"uuid\":\"x\","
+                + "\"timestamp\":1,\"duration\":2}").getUniqueId());
+    }
+    
+    @Test
+    public void rejectsMalformedLines() {
+        assertRejected(CSV, "a,b,c", "k,\"Notch,,,1,2,p", "k,,,,1,2,p",
+                "k,Notch,,,x,2,p");
+        assertRejected(JSON, "[]", "{\"name\":\"Notch\"",
+                "{\"name\":\"Notch\",\"timestamp\":1}",
+                "{\"name\":,\"timestamp\":1,\"duration\":2}",
+                "{\"name\":\"a\\u12\"}", "{\"name\":\"Notch\"");
+    }
+    
+}
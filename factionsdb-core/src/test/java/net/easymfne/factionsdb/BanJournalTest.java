@@ -0,0 +1,215 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for writing and replaying a {@link BanJournal}.
+ */
+public class BanJournalTest {
+    
+    private static final UUID NOTCH = UUID
+            .fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File file;
+    private BanJournal journal;
+    
+    /**
+     * Check that two bans have the same fields.
+     * 
+     * @param expected
+     *            Expected ban
+     * @param actual
+     *            Ban to check
+     */
+    static void assertBanEquals(DeathBan expected, DeathBan actual) {
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getUniqueId(), actual.getUniqueId());
+        assertEquals(expected.getFactionId(), actual.getFactionId());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getDuration(), actual.getDuration());
+        assertEquals(expected.getPolicy(), actual.getPolicy());
+    }
+    
+    @Test
+    public void appendStopsAtDeadline() throws IOException {
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        bans.put("a", new DeathBan("a", null, null, 0, 1000, "default"));
+        assertEquals(0, journal.append(Arrays.asList("a"), bans, 0));
+        assertEquals(0, journal.replay(new HashMap<String, DeathBan>()));
+    }
+    
+    @Test
+    public void deletesFile() throws IOException {
+        assertFalse(journal.delete());
+        write("- a\n".replace(' ', '\t'));
+        assertTrue(journal.exists());
+        assertTrue(journal.delete());
+        assertFalse(journal.exists());
+    }
+    
+    @Test
+    public void dropsCutOffLastRecord() throws IOException {
+        write("-\ta\n+\tnotch\t1000\t600");
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        bans.put("a", new DeathBan("a", null, null, 0, 1, "p"));
+        assertEquals(1, journal.replay(bans));
+        assertTrue(bans.isEmpty());
+        assertEquals(4, file.length());
+        
+        /* Later appends start on a line of their own */
+        DeathBan ban = new DeathBan("jeb_", null, null, 2000, 1000, "p");
+        bans.put("jeb_", ban);
+        journal.append(Arrays.asList("jeb_"), bans, Long.MAX_VALUE);
+        Map<String, DeathBan> replayed = new HashMap<String, DeathBan>();
+        assertEquals(2, journal.replay(replayed));
+        assertBanEquals(ban, replayed.get("jeb_"));
+    }
+    
+    @Test
+    public void dropsMalformedLastRecord() throws IOException {
+        write("-\ta\n+\tnotch\t10\u0000\u0000\n\n");
+        assertEquals(1, journal.replay(new HashMap<String, DeathBan>()));
+        assertEquals(4, file.length());
+    }
+    
+    @Test
+    public void missingJournalReplaysNothing() throws IOException {
+        assertFalse(journal.exists());
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        assertEquals(0, journal.replay(bans));
+        assertTrue(bans.isEmpty());
+    }
+    
+    @Test
+    public void rejectsMalformedRecords() throws IOException {
+        String[] records = { "garbage", "+\tkey\tnot-a-number\t1\tp\t\t\tname",
+                "+\tkey\t1\t1\tp", "-\tkey\textra", "*\tkey" };
+        for (String record : records) {
+            write(record + "\n-\tother\n");
+            try {
+                journal.replay(new HashMap<String, DeathBan>());
+                fail("Expected '" + record + "' to be rejected");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().endsWith(record));
+            }
+        }
+    }
+    
+    @Test
+    public void replayIsIdempotent() throws IOException {
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        DeathBan ban = new DeathBan("Notch", NOTCH, "f", 1000, 60000, "p");
+        bans.put("notch", ban);
+        journal.append(Arrays.asList("notch", "notch"), bans, Long.MAX_VALUE);
+        journal.append(Arrays.asList("notch"), bans, Long.MAX_VALUE);
+        
+        Map<String, DeathBan> once = new HashMap<String, DeathBan>();
+        assertEquals(3, journal.replay(once));
+        Map<String, DeathBan> twice = new HashMap<String, DeathBan>(once);
+        journal.replay(twice);
+        assertEquals(1, twice.size());
+        assertBanEquals(ban, twice.get("notch"));
+        assertBanEquals(once.get("notch"), twice.get("notch"));
+    }
+    
+    @Test
+    public void replaysInOrder() throws IOException {
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        DeathBan first = new DeathBan("Notch", NOTCH, "faction", 1000, 60000,
+                "default");
+        DeathBan second = new DeathBan("jeb_", null, null, 2000, 30000,
+                "veteran");
+        bans.put("notch", first);
+        bans.put("jeb_", second);
+        assertEquals(2, journal.append(Arrays.asList("notch", "jeb_"), bans,
+                Long.MAX_VALUE));
+        
+        /* Later records override earlier ones */
+        bans.remove("notch");
+        DeathBan third = new DeathBan("Notch", NOTCH, null, 3000, 1000,
+                "default");
+        bans.put("notch", third);
+        bans.remove("jeb_");
+        assertEquals(2, journal.append(Arrays.asList("jeb_", "notch"), bans,
+                Long.MAX_VALUE));
+        
+        Map<String, DeathBan> replayed = new HashMap<String, DeathBan>();
+        replayed.put("dinnerbone", second);
+        assertEquals(4, journal.replay(replayed));
+        assertEquals(2, replayed.size());
+        assertBanEquals(third, replayed.get("notch"));
+        assertNull(replayed.get("jeb_"));
+        assertTrue(replayed.containsKey("dinnerbone"));
+    }
+    
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "bans.journal");
+        journal = new BanJournal(file);
+    }
+    
+    @Test
+    public void skipsBlankLines() throws IOException {
+        write("\n+\tnotch\t1000\t60000\tdefault\t\t\tNotch\n\n-\tjeb_\n");
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        bans.put("jeb_", new DeathBan("jeb_", null, null, 0, 1, "p"));
+        assertEquals(2, journal.replay(bans));
+        assertEquals(1, bans.size());
+        assertBanEquals(new DeathBan("Notch", null, null, 1000, 60000,
+                "default"), bans.get("notch"));
+    }
+    
+    /**
+     * Write raw text to the journal file.
+     * 
+     * @param text
+     *            Text to write
+     * @throws IOException
+     */
+    private void write(String text) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file),
+                "UTF-8");
+        try {
+            writer.write(text);
+        } finally {
+            writer.close();
+        }
+    }
+    
+}
@@ -0,0 +1,302 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static net.easymfne.factionsdb.BanJournalTest.assertBanEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for {@link BanRegistry}: paging between the hot and cold tiers,
+ * frozen copies, re-keying, and tracking of unsaved changes.
+ */
+public class BanRegistryTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private BanRegistry registry;
+    private long now;
+    
+    /* Bans reported to the listener, as "+name" or "-name" */
+    private List<String> notified;
+    
+    /**
+     * Create a ban issued a given time after the start of the test.
+     * 
+     * @param name
+     *            Name of the player
+     * @param offset
+     *            Milliseconds after the start of the test
+     * @return The ban
+     */
+    private DeathBan ban(String name, long offset) {
+        return new DeathBan(name, null, "red", now + offset, 600000,
+                "default");
+    }
+    
+    /**
+     * Create a ban with a long name, so that its cold record is about a
+     * kilobyte.
+     * 
+     * @param i
+     *            Number of the ban, also its offset
+     * @return The ban
+     */
+    private DeathBan bulky(int i) {
+        StringBuilder name = new StringBuilder("player" + i);
+        while (name.length() < 1000) {
+            name.append('_');
+        }
+        return ban(name.toString(), i);
+    }
+    
+    @Test
+    public void frozenCopyIsUnaffectedByChanges() {
+        registry.setHotLimit(1);
+        registry.put("a", ban("A", 1));
+        registry.put("b", ban("B", 2));
+        assertEquals(1, registry.getColdCount());
+        Map<String, DeathBan> frozen = registry.freeze();
+        
+        registry.remove("a");
+        registry.put("b", ban("B", 3));
+        registry.put("c", ban("C", 4));
+        assertEquals(2, frozen.size());
+        assertBanEquals(ban("A", 1), frozen.get("a"));
+        assertBanEquals(ban("B", 2), frozen.get("b"));
+        assertFalse(frozen.containsKey("c"));
+        
+        Map<String, DeathBan> copy = new HashMap<String, DeathBan>(frozen);
+        assertEquals(2, copy.size());
+        assertBanEquals(ban("A", 1), copy.get("a"));
+    }
+    
+    @Test
+    public void frozenCopySurvivesCompaction() {
+        registry.setHotLimit(1);
+        for (int i = 0; i < 1600; i++) {
+            registry.put("k" + i, bulky(i));
+        }
+        assertEquals(1599, registry.getColdCount());
+        long length = registry.getColdFileLength();
+        Map<String, DeathBan> frozen = registry.freeze();
+        
+        for (int i = 0; i < 1200; i++) {
+            registry.remove("k" + i);
+        }
+        assertEquals(400, registry.getBanCount());
+        assertTrue(registry.getColdFileLength() * 2 < length);
+        assertEquals(1600, frozen.size());
+        int read = 0;
+        for (Map.Entry<String, DeathBan> entry : frozen.entrySet()) {
+            int i = Integer.parseInt(entry.getKey().substring(1));
+            assertBanEquals(bulky(i), entry.getValue());
+            read++;
+        }
+        assertEquals(1600, read);
+        for (int i = 1200; i < 1600; i++) {
+            assertBanEquals(bulky(i), registry.peek("k" + i));
+        }
+    }
+    
+    @Test
+    public void getPagesColdBansIn() {
+        registry.setHotLimit(2);
+        registry.put("a", ban("A", 1));
+        registry.put("b", ban("B", 2));
+        registry.put("c", ban("C", 3));
+        assertEquals(3, registry.getBanCount());
+        assertEquals(2, registry.getHotCount());
+        assertEquals(1, registry.getColdCount());
+        assertNull(registry.peekHot("a"));
+        assertTrue(registry.contains("a"));
+        assertBanEquals(ban("A", 1), registry.peek("a"));
+        assertEquals(0, registry.getPageIns());
+        
+        /* Paging a in pushes out b, the least recently used */
+        assertBanEquals(ban("A", 1), registry.get("a"));
+        assertEquals(1, registry.getPageIns());
+        assertBanEquals(ban("A", 1), registry.peekHot("a"));
+        assertNull(registry.peekHot("b"));
+        assertEquals(1, registry.getColdCount());
+        
+        /* Looking c up makes b's page-in push out a instead */
+        registry.get("c");
+        registry.get("b");
+        assertEquals(1, registry.getHotHits());
+        assertNull(registry.peekHot("a"));
+        assertNull(registry.get("missing"));
+        assertEquals(1, registry.getMisses());
+        assertEquals(Arrays.asList("+A", "+B", "+C"), notified);
+    }
+    
+    @Test
+    public void loadFillsHotTierWithNewestBans() {
+        registry.put("old", ban("Old", 0));
+        registry.setHotLimit(2);
+        Map<String, DeathBan> loaded = new HashMap<String, DeathBan>();
+        loaded.put("a", ban("A", 3));
+        loaded.put("b", ban("B", 1));
+        loaded.put("c", ban("C", 2));
+        registry.load(loaded);
+        
+        assertEquals(3, registry.getBanCount());
+        assertFalse(registry.contains("old"));
+        assertNull(registry.peekHot("b"));
+        assertBanEquals(ban("B", 1), registry.peek("b"));
+        assertEquals(1, registry.getColdCount());
+        assertTrue(registry.getChangedKeys().isEmpty());
+        assertEquals(3, registry.getFactionIndex().count("red"));
+        assertEquals(Arrays.asList("+Old"), notified);
+    }
+    
+    @Test
+    public void markSavedKeepsLaterChanges() {
+        registry.put("a", ban("A", 1));
+        registry.put("b", ban("B", 2));
+        List<String> saved = registry.getChangedKeys();
+        long through = registry.getChangeCount();
+        assertEquals(Arrays.asList("a", "b"), saved);
+        
+        registry.remove("a");
+        registry.put("c", ban("C", 3));
+        registry.markSaved(saved, through);
+        assertEquals(Arrays.asList("a", "c"), registry.getChangedKeys());
+        
+        registry.markSaved(registry.getChangedKeys(),
+                registry.getChangeCount());
+        assertTrue(registry.getChangedKeys().isEmpty());
+    }
+    
+    @Test
+    public void putReplacesColdBan() {
+        registry.setHotLimit(1);
+        registry.put("a", ban("A", 1));
+        registry.put("b", ban("B", 2));
+        registry.put("a", ban("A", 3));
+        assertEquals(2, registry.getBanCount());
+        assertEquals(1, registry.getColdCount());
+        assertBanEquals(ban("A", 3), registry.peekHot("a"));
+        assertEquals(Arrays.asList("+A", "+B", "-A", "+A"), notified);
+    }
+    
+    @Test
+    public void rekeyKeepsNewestBan() {
+        registry.setHotLimit(2);
+        registry.put("a", ban("A", 1));
+        registry.put("b", ban("B", 2));
+        registry.put("c", ban("C", 3));
+        registry.put("d", ban("D", 4));
+        registry.put("e", ban("E", 5));
+        assertEquals(3, registry.getColdCount());
+        notified.clear();
+        
+        Map<String, String> renames = new HashMap<String, String>();
+        renames.put("a", "x");
+        renames.put("b", "x");
+        renames.put("c", "e");
+        renames.put("d", "y");
+        renames.put("missing", "z");
+        assertEquals(2, registry.rekey(renames));
+        
+        assertEquals(3, registry.getBanCount());
+        assertBanEquals(ban("B", 2), registry.peek("x"));
+        assertBanEquals(ban("D", 4), registry.peek("y"));
+        assertBanEquals(ban("E", 5), registry.peek("e"));
+        for (String key : Arrays.asList("a", "b", "c", "d", "z")) {
+            assertFalse(registry.contains(key));
+        }
+        assertEquals(3, registry.getFactionIndex().count("red"));
+        List<String> dropped = new ArrayList<String>(notified);
+        Collections.sort(dropped);
+        assertEquals(Arrays.asList("-A", "-C"), dropped);
+        assertTrue(registry.getChangedKeys().containsAll(
+                Arrays.asList("a", "b", "c", "d", "x", "y")));
+    }
+    
+    @Test
+    public void removeDropsBanFromEitherTier() {
+        registry.setHotLimit(1);
+        registry.put("a", ban("A", 1));
+        registry.put("b", ban("B", 2));
+        assertBanEquals(ban("A", 1), registry.remove("a"));
+        assertBanEquals(ban("B", 2), registry.remove("b"));
+        assertNull(registry.remove("b"));
+        assertEquals(0, registry.getBanCount());
+        assertEquals(0, registry.getColdCount());
+        assertEquals(0, registry.getFactionIndex().count("red"));
+        assertEquals(Arrays.asList("+A", "+B", "-A", "-B"), notified);
+    }
+    
+    @Test
+    public void setHotLimitMovesBansBetweenTiers() {
+        for (int i = 0; i < 5; i++) {
+            registry.put("k" + i, ban("K" + i, i));
+        }
+        assertEquals(0, registry.getColdCount());
+        
+        /* The oldest bans go cold first */
+        registry.setHotLimit(2);
+        assertEquals(3, registry.getColdCount());
+        assertNull(registry.peekHot("k0"));
+        assertBanEquals(ban("K4", 4), registry.peekHot("k4"));
+        assertTrue(registry.getColdFileLength() > 0);
+        
+        registry.setHotLimit(0);
+        assertEquals(0, registry.getColdCount());
+        assertEquals(5, registry.getHotCount());
+        assertEquals(0, registry.getColdFileLength());
+        for (int i = 0; i < 5; i++) {
+            assertBanEquals(ban("K" + i, i), registry.peekHot("k" + i));
+        }
+    }
+    
+    @Before
+    public void setUp() {
+        now = System.currentTimeMillis();
+        registry = new BanRegistry(Logger.getAnonymousLogger(),
+                new ColdStore(new File(folder.getRoot(), "bans.cold")));
+        notified = new ArrayList<String>();
+        registry.addListener(new DeathBanListener() {
+            @Override
+            public void banAdded(DeathBan ban) {
+                notified.add("+" + ban.getName());
+            }
+            
+            @Override
+            public void banRemoved(DeathBan ban) {
+                notified.add("-" + ban.getName());
+            }
+        });
+    }
+    
+}
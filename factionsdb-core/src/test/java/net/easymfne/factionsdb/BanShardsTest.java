@@ -0,0 +1,189 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static net.easymfne.factionsdb.BanJournalTest.assertBanEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for saving, loading and resharding {@link BanShards}.
+ */
+public class BanShardsTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File directory;
+    private Map<String, DeathBan> bans;
+    
+    /**
+     * Check that two maps hold bans with the same keys and fields.
+     * 
+     * @param expected
+     *            Expected bans
+     * @param actual
+     *            Bans to check
+     */
+    private static void assertBansEqual(Map<String, DeathBan> expected,
+            Map<String, DeathBan> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Entry<String, DeathBan> entry : expected.entrySet()) {
+            assertBanEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+    
+    @Test
+    public void deletesEverything() throws IOException {
+        BanShards shards = new BanShards(directory, 4);
+        shards.save(bans, bans.keySet());
+        shards.delete();
+        assertFalse(shards.exists());
+        assertFalse(directory.exists());
+    }
+    
+    /**
+     * @return Names of the files in the shard directory
+     */
+    private Set<String> getFileNames() {
+        return new HashSet<String>(Arrays.asList(directory.list()));
+    }
+    
+    @Test
+    public void loadAdoptsLayoutOnDisk() throws IOException {
+        new BanShards(directory, 5).save(bans, bans.keySet());
+        BanShards shards = new BanShards(directory, 2);
+        assertEquals(2, shards.getCount());
+        assertBansEqual(bans, shards.load(2));
+        assertEquals(5, shards.getCount());
+    }
+    
+    @Test
+    public void loadRejectsMalformedLayout() throws IOException {
+        directory.mkdirs();
+        FileOutputStream out = new FileOutputStream(new File(directory,
+                "layout"));
+        out.write("zero\n".getBytes("UTF-8"));
+        out.close();
+        try {
+            new BanShards(directory, 2).load(2);
+            fail("Expected the layout to be rejected");
+        } catch (IOException e) {
+            /* Expected */
+        }
+    }
+    
+    @Test
+    public void loadRemovesStrayShards() throws IOException {
+        BanShards shards = new BanShards(directory, 3);
+        shards.save(bans, bans.keySet());
+        Set<String> expected = getFileNames();
+        
+        /* Left over from a reshard interrupted before the layout changed */
+        new File(directory, "shard-0-of-7.bans").createNewFile();
+        new File(directory, "shard-6-of-7.bans").createNewFile();
+        assertBansEqual(bans, new BanShards(directory, 7).load(1));
+        assertEquals(expected, getFileNames());
+    }
+    
+    @Test
+    public void reshardRoundTrips() throws IOException {
+        BanShards shards = new BanShards(directory, 4);
+        shards.save(bans, bans.keySet());
+        for (int total : new int[] { 1, 7, 16, 4 }) {
+            shards.reshard(bans, total);
+            assertEquals(total, shards.getCount());
+            
+            Set<String> expected = new HashSet<String>();
+            expected.add("layout");
+            for (int shard = 0; shard < total; shard++) {
+                expected.add("shard-" + shard + "-of-" + total + ".bans");
+            }
+            assertEquals(expected, getFileNames());
+            
+            BanShards loaded = new BanShards(directory, 2);
+            assertBansEqual(bans, loaded.load(4));
+            assertEquals(total, loaded.getCount());
+        }
+    }
+    
+    @Test
+    public void saveRewritesOnlyChangedShards() throws IOException {
+        BanShards shards = new BanShards(directory, 8);
+        assertFalse(shards.exists());
+        assertEquals(8, shards.save(bans, Collections.<String> emptySet()));
+        assertTrue(shards.exists());
+        assertEquals(0, shards.save(bans, Collections.<String> emptySet()));
+        
+        /* An added key and a removed key in the same shard */
+        String removed = "player17";
+        String added = null;
+        for (int i = 0; added == null; i++) {
+            String key = "new" + i;
+            if (BanShards.shardOf(key, 8) == BanShards.shardOf(removed, 8)) {
+                added = key;
+            }
+        }
+        bans.remove(removed);
+        bans.put(added, new DeathBan(added, null, "f", 5, 6, "p"));
+        assertEquals(1, shards.save(bans, Arrays.asList(removed, added)));
+        assertBansEqual(bans, new BanShards(directory, 8).load(8));
+    }
+    
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), "bans");
+        bans = new HashMap<String, DeathBan>();
+        for (int i = 0; i < 200; i++) {
+            String key = "player" + i;
+            bans.put(key, new DeathBan("Player" + i, null, i % 3 == 0 ? null
+                    : "faction" + i % 5, 1000 + i, 60000, "default"));
+        }
+    }
+    
+    @Test
+    public void shardOfIsInRange() {
+        /* Hash code of Integer.MIN_VALUE, which has no positive negation */
+        String key = "polygenelubricants";
+        assertEquals(Integer.MIN_VALUE, key.hashCode());
+        for (int count = 1; count < 20; count++) {
+            int shard = BanShards.shardOf(key, count);
+            assertTrue(shard >= 0 && shard < count);
+            for (String other : bans.keySet()) {
+                shard = BanShards.shardOf(other, count);
+                assertTrue(shard >= 0 && shard < count);
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,262 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static net.easymfne.factionsdb.BanJournalTest.assertBanEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests for {@link BanTrie}, checked against a HashMap holding the same bans.
+ * Bans are packed into the trie, so they are compared by value.
+ */
+public class BanTrieTest {
+    
+    /* Keys whose String hash codes are all equal */
+    private static final String[] COLLIDING = { "AaAa", "AaBB", "BBAa",
+            "BBBB" };
+    
+    /**
+     * Create a ban for a key.
+     * 
+     * @param key
+     *            Key of the ban, used as the player's name
+     * @return The ban
+     */
+    private static DeathBan ban(String key) {
+        return ban(key, 0);
+    }
+    
+    /**
+     * Create a ban for a key, issued at a given time.
+     * 
+     * @param key
+     *            Key of the ban, used as the player's name
+     * @param timestamp
+     *            Time of the ban
+     * @return The ban
+     */
+    private static DeathBan ban(String key, long timestamp) {
+        return new DeathBan(key, null, null, timestamp, 60000, "default");
+    }
+    
+    /**
+     * Check that a trie holds exactly the bans of a map, through lookups, its
+     * size and iteration.
+     * 
+     * @param expected
+     *            Bans the trie should hold
+     * @param trie
+     *            Trie to check
+     */
+    private static void assertContents(Map<String, DeathBan> expected,
+            BanTrie trie) {
+        assertEquals(expected.size(), trie.size());
+        for (Entry<String, DeathBan> entry : expected.entrySet()) {
+            assertBanEquals(entry.getValue(), trie.get(entry.getKey()));
+        }
+        Map<String, DeathBan> iterated = new HashMap<String, DeathBan>();
+        for (Entry<String, DeathBan> entry : trie.asMap().entrySet()) {
+            assertNull("Key iterated twice: " + entry.getKey(), iterated.put(
+                    entry.getKey(), entry.getValue()));
+        }
+        assertEquals(expected.keySet(), iterated.keySet());
+        for (Entry<String, DeathBan> entry : iterated.entrySet()) {
+            assertBanEquals(expected.get(entry.getKey()), entry.getValue());
+        }
+        assertEquals(expected.keySet(), trie.asMap().keySet());
+    }
+    
+    @Test
+    public void emptyTrieHasNoEntries() {
+        assertEquals(0, BanTrie.EMPTY.size());
+        assertNull(BanTrie.EMPTY.get("Notch"));
+        assertFalse(BanTrie.EMPTY.asMap().entrySet().iterator().hasNext());
+        assertSame(BanTrie.EMPTY, BanTrie.EMPTY.remove("Notch"));
+    }
+    
+    @Test
+    public void iteratorRejectsRemovalAndOverrun() {
+        Iterator<Entry<String, DeathBan>> entries = BanTrie.EMPTY.put("a",
+                ban("a")).asMap().entrySet().iterator();
+        entries.next();
+        try {
+            entries.remove();
+            fail("Expected the iterator to be read-only");
+        } catch (UnsupportedOperationException e) {
+            /* Expected */
+        }
+        try {
+            entries.next();
+            fail("Expected the iterator to be exhausted");
+        } catch (NoSuchElementException e) {
+            /* Expected */
+        }
+    }
+    
+    @Test
+    public void keepsCollidingKeysApart() {
+        Map<String, DeathBan> expected = new HashMap<String, DeathBan>();
+        BanTrie trie = BanTrie.EMPTY;
+        for (String key : COLLIDING) {
+            DeathBan ban = ban(key);
+            expected.put(key, ban);
+            trie = trie.put(key, ban);
+        }
+        assertContents(expected, trie);
+        assertNull(trie.get("AaAb"));
+        
+        DeathBan replacement = ban("BBAa", 1);
+        expected.put("BBAa", replacement);
+        trie = trie.put("BBAa", replacement);
+        assertContents(expected, trie);
+    }
+    
+    @Test
+    public void mixesCollisionsWithOtherKeys() {
+        Map<String, DeathBan> expected = new HashMap<String, DeathBan>();
+        BanTrie trie = BanTrie.EMPTY;
+        for (int i = 0; i < 2000; i++) {
+            String key = "player" + i;
+            expected.put(key, ban(key));
+            trie = trie.put(key, expected.get(key));
+            if (i < COLLIDING.length) {
+                expected.put(COLLIDING[i], ban(COLLIDING[i]));
+                trie = trie.put(COLLIDING[i], expected.get(COLLIDING[i]));
+            }
+        }
+        assertContents(expected, trie);
+        
+        for (int i = 0; i < 2000; i += 2) {
+            expected.remove("player" + i);
+            trie = trie.remove("player" + i);
+        }
+        assertContents(expected, trie);
+    }
+    
+    @Test
+    public void packsEveryKindOfKey() {
+        UUID uuid = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+        Map<String, DeathBan> expected = new HashMap<String, DeathBan>();
+        /* Derived from the UUID, from the name, or stored */
+        expected.put(uuid.toString(), new DeathBan("Notch", uuid, "red", 1,
+                2, "default"));
+        expected.put("jeb_", new DeathBan("jeb_", uuid, null, 3, 4, "p"));
+        expected.put("dinnerbone", new DeathBan("Dinnerbone", null, "blue",
+                5, 6, "p"));
+        expected.put("custom:key", new DeathBan("Notch", uuid, null, 7, 8,
+                "p"));
+        expected.put("\u00e9l\u00e8ve", new DeathBan("\u00c9l\u00e8ve", null,
+                null, 9, 10, "p"));
+        expected.put("\u540d\u524d", new DeathBan("\u540d\u524d", null, null,
+                11, 12, "p"));
+        expected.put("wide", new DeathBan("\u540d", null, null, 13, 14, "p"));
+        expected.put("", new DeathBan("", null, null, 15, 16, "p"));
+        
+        BanTrie trie = BanTrie.EMPTY;
+        for (Entry<String, DeathBan> entry : expected.entrySet()) {
+            trie = trie.put(entry.getKey(), entry.getValue());
+        }
+        assertContents(expected, trie);
+        assertNull(trie.get("Dinnerbone"));
+        assertNull(trie.get(uuid.toString().toUpperCase()));
+        assertNull(trie.get("custom:ke"));
+        assertTrue(trie.estimateBytes() > 0);
+    }
+    
+    @Test
+    public void putLeavesOlderVersionsUnchanged() {
+        BanTrie one = BanTrie.EMPTY.put("a", ban("a"));
+        BanTrie two = one.put("b", ban("b"));
+        BanTrie replaced = two.put("a", ban("a", 1));
+        
+        assertEquals(1, one.size());
+        assertNull(one.get("b"));
+        assertEquals(2, two.size());
+        assertEquals(2, replaced.size());
+        assertEquals(0, two.get("a").getTimestamp());
+        assertEquals(1, replaced.get("a").getTimestamp());
+        assertEquals(0, BanTrie.EMPTY.size());
+    }
+    
+    @Test
+    public void removeCollapsesCollisions() {
+        BanTrie trie = BanTrie.EMPTY;
+        for (String key : COLLIDING) {
+            trie = trie.put(key, ban(key));
+        }
+        Map<String, DeathBan> expected = new HashMap<String, DeathBan>();
+        for (String key : COLLIDING) {
+            expected.put(key, ban(key));
+        }
+        for (String key : COLLIDING) {
+            BanTrie before = trie;
+            expected.remove(key);
+            trie = trie.remove(key);
+            assertContents(expected, trie);
+            assertSame(trie, trie.remove(key));
+            assertEquals(expected.size() + 1, before.size());
+        }
+        assertSame(BanTrie.EMPTY, trie);
+        
+        /* A lone survivor can be put back alongside its old neighbours */
+        trie = BanTrie.EMPTY.put("AaAa", ban("AaAa")).put("BBBB",
+                ban("BBBB")).remove("AaAa").put("AaBB", ban("AaBB"));
+        assertEquals(2, trie.size());
+        assertTrue(trie.containsKey("BBBB"));
+        assertTrue(trie.containsKey("AaBB"));
+        assertFalse(trie.containsKey("AaAa"));
+    }
+    
+    @Test
+    public void removeCollapsesNodes() {
+        Random random = new Random(42);
+        Map<String, DeathBan> expected = new HashMap<String, DeathBan>();
+        BanTrie trie = BanTrie.EMPTY;
+        for (int i = 0; i < 5000; i++) {
+            String key = Long.toHexString(random.nextLong());
+            expected.put(key, ban(key));
+            trie = trie.put(key, expected.get(key));
+        }
+        assertContents(expected, trie);
+        
+        /* Remove in a different order, checking every few steps */
+        String[] keys = expected.keySet().toArray(new String[0]);
+        for (int i = 0; i < keys.length; i++) {
+            expected.remove(keys[i]);
+            trie = trie.remove(keys[i]);
+            assertNull(trie.get(keys[i]));
+            if (i % 500 == 0 || keys.length - i < 40) {
+                assertContents(expected, trie);
+            }
+        }
+        assertSame(BanTrie.EMPTY, trie);
+    }
+    
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static net.easymfne.factionsdb.BanJournalTest.assertBanEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import net.easymfne.factionsdb.ColdStore.ColdBan;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for storing bans in a {@link ColdStore} and compacting its segments.
+ */
+public class ColdStoreTest {
+    
+    private static final UUID NOTCH = UUID
+            .fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    
+    private File file;
+    private ColdStore store;
+    
+    /**
+     * Create a ban with a long name, so that its record is about a kilobyte.
+     * 
+     * @param i
+     *            Number of the ban
+     * @return The ban
+     */
+    private static DeathBan bulky(int i) {
+        StringBuilder name = new StringBuilder("player" + i);
+        while (name.length() < 1000) {
+            name.append('_');
+        }
+        return new DeathBan(name.toString(), null, null, i, 60000, "default");
+    }
+    
+    /**
+     * @return Number of segment files in the folder
+     */
+    private int countSegments() {
+        int count = 0;
+        for (File segment : folder.getRoot().listFiles()) {
+            if (segment.getName().startsWith(file.getName() + ".")) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    @Test
+    public void closeDeletesEverySegment() throws IOException {
+        ColdBan old = store.write(1, "a", bulky(1));
+        store.startSegment();
+        store.write(2, "b", bulky(2));
+        assertEquals(2, countSegments());
+        
+        store.close();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getFileLength());
+        assertEquals(0, countSegments());
+        try {
+            old.getBan();
+            fail("Expected a closed segment to be unreadable");
+        } catch (ColdStoreException e) {
+            /* Expected */
+        }
+    }
+    
+    @Test
+    public void compactionKeepsOldLeavesReadable() throws IOException {
+        List<ColdBan> leaves = new ArrayList<ColdBan>();
+        for (int i = 0; i < 1600; i++) {
+            leaves.add(store.write(i, "k" + i, bulky(i)));
+        }
+        /* Not wasteful until at least a megabyte is garbage */
+        for (int i = 0; i < 900; i++) {
+            store.release(leaves.get(i));
+        }
+        assertFalse(store.isWasteful());
+        for (int i = 900; i < 1200; i++) {
+            store.release(leaves.get(i));
+        }
+        assertTrue(store.isWasteful());
+        long before = store.getFileLength();
+        
+        store.startSegment();
+        assertFalse(store.isWasteful());
+        List<ColdBan> copies = new ArrayList<ColdBan>();
+        for (int i = 1200; i < 1600; i++) {
+            copies.add(store.copy(leaves.get(i)));
+        }
+        assertEquals(400, store.size());
+        assertTrue(store.getFileLength() * 3 < before);
+        for (int i = 1200; i < 1600; i++) {
+            assertEquals("k" + i, copies.get(i - 1200).getKey());
+            assertBanEquals(bulky(i), copies.get(i - 1200).getBan());
+            assertBanEquals(bulky(i), leaves.get(i).getBan());
+        }
+    }
+    
+    @Test
+    public void deletesLeftoverSegments() throws IOException {
+        File leftover = new File(file.getPath() + ".7");
+        assertTrue(leftover.createNewFile());
+        assertTrue(file.createNewFile());
+        assertEquals(0, store.getFileLength());
+        
+        store.write(1, "a", bulky(1));
+        assertFalse(leftover.exists());
+        assertFalse(file.exists());
+        assertEquals(1, countSegments());
+    }
+    
+    @Test
+    public void releaseCountsGarbage() throws IOException {
+        ColdBan a = store.write(1, "a", bulky(1));
+        ColdBan b = store.write(2, "b", bulky(2));
+        long length = store.getFileLength();
+        
+        store.release(a);
+        assertEquals(1, store.size());
+        assertEquals(length, store.getFileLength());
+        assertFalse(store.isWasteful());
+        
+        /* Releasing the last ban starts over with a new segment */
+        store.release(b);
+        assertEquals(0, store.size());
+        assertEquals(0, store.getFileLength());
+        store.write(3, "c", bulky(3));
+        assertTrue(store.getFileLength() < length);
+    }
+    
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "bans.cold");
+        store = new ColdStore(file);
+    }
+    
+    @Test
+    public void writeStoresEveryField() throws IOException {
+        assertEquals(0, store.size());
+        DeathBan ban = new DeathBan("Notch", NOTCH, "faction", 1000, 60000,
+                "veteran");
+        ColdBan leaf = store.write(42, "notch", ban);
+        assertEquals(1, store.size());
+        assertEquals(42, leaf.hash);
+        assertEquals("notch", leaf.getKey());
+        assertTrue(leaf.hasKey("notch"));
+        assertFalse(leaf.hasKey("Notch"));
+        assertBanEquals(ban, leaf.getBan());
+        assertEquals("notch", leaf.getEntry().getKey());
+        
+        DeathBan unknown = new DeathBan("jeb_", null, null, 2000, 1000,
+                "default");
+        ColdBan other = store.write(7, "jeb_", unknown);
+        assertBanEquals(unknown, other.getBan());
+        assertBanEquals(ban, leaf.getBan());
+        assertEquals(2, store.size());
+    }
+    
+}
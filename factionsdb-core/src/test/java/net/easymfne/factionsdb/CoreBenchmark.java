@@ -0,0 +1,234 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rough timings of the core's hot paths, for comparing changes to them. It is
+ * not run by the build; run it from the test classpath after
+ * <code>mvn test-compile</code>, optionally passing the number of bans:
+ * 
+ * <pre>
+ * java -cp factionsdb-core/target/classes:factionsdb-core/target/test-classes \
+ *     net.easymfne.factionsdb.CoreBenchmark 100000
+ * </pre>
+ * 
+ * Each case is run until the JIT has settled, then timed over several rounds,
+ * and the best round is reported.
+ */
+public class CoreBenchmark {
+    
+    /**
+     * A timed operation.
+     */
+    private static abstract class Case {
+        
+        private final String name;
+        
+        private Case(String name) {
+            this.name = name;
+        }
+        
+        /**
+         * Run the operation once.
+         * 
+         * @return Any value depending on the work done, so it is not skipped
+         * @throws Exception
+         */
+        abstract long run() throws Exception;
+        
+    }
+    
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int TIMED_ROUNDS = 10;
+    
+    /* Keeps results alive so that the work is not optimized away */
+    private static long sink = 0;
+    
+    /**
+     * Time a case and print the cost of each of its operations.
+     * 
+     * @param benchmark
+     *            Case to time
+     * @param operations
+     *            Number of operations in one run of the case
+     * @throws Exception
+     */
+    private static void measure(Case benchmark, int operations)
+            throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += benchmark.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < TIMED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += benchmark.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println(String.format("%-28s %12.1f ns/op",
+                benchmark.name, (double) best / operations));
+    }
+    
+    /**
+     * Run every case and print the results.
+     * 
+     * @param args
+     *            Optionally, the number of bans to use
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        final int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        final String[] keys = new String[size];
+        final Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        BanTrie filled = BanTrie.EMPTY;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            keys[i] = "player" + i;
+            DeathBan ban = new DeathBan("Player" + i, null, "faction" + i
+                    % 50, now, 60000 + i, "default");
+            bans.put(keys[i], ban);
+            filled = filled.put(keys[i], ban);
+        }
+        final BanTrie trie = filled;
+        System.out.println("Bans: " + size + ", about "
+                + trie.estimateBytes() / size + " bytes each in a BanTrie");
+        
+        measure(new Case("BanTrie.put") {
+            @Override
+            long run() {
+                BanTrie built = BanTrie.EMPTY;
+                for (String key : keys) {
+                    built = built.put(key, bans.get(key));
+                }
+                return built.size();
+            }
+        }, size);
+        measure(new Case("BanTrie.get") {
+            @Override
+            long run() {
+                long found = 0;
+                for (String key : keys) {
+                    found += trie.get(key).getDuration();
+                }
+                return found;
+            }
+        }, size);
+        measure(new Case("BanTrie.remove") {
+            @Override
+            long run() {
+                BanTrie shrunk = trie;
+                for (String key : keys) {
+                    shrunk = shrunk.remove(key);
+                }
+                return shrunk.size();
+            }
+        }, size);
+        measure(new Case("BanTrie iteration") {
+            @Override
+            long run() {
+                long total = 0;
+                for (DeathBan ban : trie.asMap().values()) {
+                    total += ban.getDuration();
+                }
+                return total;
+            }
+        }, size);
+        measure(new Case("HashMap copy (per ban)") {
+            @Override
+            long run() {
+                return new HashMap<String, DeathBan>(bans).size();
+            }
+        }, size);
+        
+        final FactionIndex index = new FactionIndex();
+        index.load(bans, Collections.<String, String> emptyMap());
+        measure(new Case("FactionIndex.count") {
+            @Override
+            long run() {
+                long total = 0;
+                for (int i = 0; i < 1000; i++) {
+                    total += index.count("faction" + i % 50);
+                }
+                return total;
+            }
+        }, 1000);
+        measure(new Case("FactionIndex.load (per ban)") {
+            @Override
+            long run() {
+                index.load(bans, Collections.<String, String> emptyMap());
+                return index.size();
+            }
+        }, size);
+        
+        final String[] times = { "90s", "0.5h", "1d6h30m", " 2d 12h 5m 30s " };
+        measure(new Case("Util.calculateMillis") {
+            @Override
+            long run() throws TimeFormatException {
+                long total = 0;
+                for (int i = 0; i < 1000; i++) {
+                    total += Util.calculateMillis(times[i & 3]);
+                }
+                return total;
+            }
+        }, 1000);
+        measure(new Case("Util.appendTimeString") {
+            @Override
+            long run() {
+                StringBuilder builder = new StringBuilder(64);
+                long total = 0;
+                for (int i = 0; i < 1000; i++) {
+                    builder.setLength(0);
+                    total += Util.appendTimeString(builder, i * 7919000L)
+                            .length();
+                }
+                return total;
+            }
+        }, 1000);
+        
+        File directory = File.createTempFile("factionsdb", "");
+        directory.delete();
+        final BanShards shards = new BanShards(directory, 16);
+        try {
+            measure(new Case("BanShards.reshard (per ban)") {
+                @Override
+                long run() throws IOException {
+                    shards.reshard(bans, 16);
+                    return shards.getCount();
+                }
+            }, size);
+            measure(new Case("BanShards.save one change") {
+                @Override
+                long run() throws IOException {
+                    return shards.save(bans, Collections.singleton(keys[0]));
+                }
+            }, 1);
+            measure(new Case("BanShards.load (per ban)") {
+                @Override
+                long run() throws IOException {
+                    return shards.load(4).size();
+                }
+            }, size);
+        } finally {
+            shards.delete();
+        }
+        System.out.println("Checksum: " + sink);
+    }
+    
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link FactionIndex}, including what its observer is told.
+ */
+public class FactionIndexTest {
+    
+    private FactionIndex index;
+    private long now;
+    
+    /* Changes reported to the observer, as "faction=count" */
+    private List<String> changes;
+    
+    /**
+     * Create a ban that runs out a while from now.
+     * 
+     * @param name
+     *            Name of the player
+     * @param factionId
+     *            Id of the player's faction, or null if none
+     * @param duration
+     *            Milliseconds from now until the ban runs out
+     * @return The ban
+     */
+    private DeathBan ban(String name, String factionId, long duration) {
+        return new DeathBan(name, null, factionId, now, duration, "default");
+    }
+    
+    @Test
+    public void addCountsBansByFaction() {
+        index.add("a", ban("A", "red", 60000));
+        index.add("b", ban("B", "red", 60000));
+        index.add("c", ban("C", "blue", 60000));
+        index.add("d", ban("D", null, 60000));
+        
+        assertEquals(4, index.size());
+        assertEquals(2, index.count("red"));
+        assertEquals(1, index.count("blue"));
+        assertEquals(0, index.count("green"));
+        assertEquals(2, index.getFactionCount());
+        assertTrue(index.contains("d"));
+        assertNull(index.getFactionId("d"));
+        assertEquals("red", index.getFactionId("a"));
+        assertEquals(Arrays.asList("red=1", "red=2", "blue=1"), changes);
+    }
+    
+    @Test
+    public void addIgnoresBansThatRanOut() {
+        index.add("a", ban("A", "red", 60000));
+        index.add("a", new DeathBan("A", null, "red", 0, 1000, "default"));
+        assertFalse(index.contains("a"));
+        assertEquals(0, index.count("red"));
+        assertEquals(0, index.getFactionCount());
+        assertEquals(Arrays.asList("red=1", "red=0"), changes);
+    }
+    
+    @Test
+    public void addReplacesExistingBan() {
+        index.add("a", ban("A", "red", 60000));
+        index.add("a", ban("A", "red", 120000));
+        assertEquals(1, index.count("red"));
+        assertEquals(Arrays.asList("red=1"), changes);
+        
+        index.add("a", ban("A", "red", 60000), "blue");
+        assertEquals(1, index.size());
+        assertEquals(0, index.count("red"));
+        assertEquals(1, index.count("blue"));
+        assertEquals(Arrays.asList("red=1", "red=0", "blue=1"), changes);
+    }
+    
+    @Test
+    public void expireDropsBansThatRanOut() {
+        index.add("a", ban("A", "red", 10000));
+        index.add("b", ban("B", "red", 20000));
+        index.add("c", ban("C", "blue", 30000));
+        
+        /* Replaced bans leave stale queue entries that must be skipped */
+        index.add("b", ban("B", "red", 40000));
+        index.remove("c");
+        
+        assertEquals(1, index.expire(now + 25000));
+        assertFalse(index.contains("a"));
+        assertTrue(index.contains("b"));
+        assertEquals(1, index.count("red"));
+        assertEquals(0, index.expire(now + 25000));
+        assertEquals(1, index.expire(now + 50000));
+        assertEquals(0, index.size());
+        assertEquals(0, index.getFactionCount());
+    }
+    
+    @Test
+    public void listsMembersByDeadline() {
+        index.add("a", ban("Alice", "red", 30000));
+        index.add("b", ban("Bob", "red", 10000));
+        index.add("c", ban("Carol", "red", 20000));
+        index.add("d", ban("Dave", "blue", 5000));
+        assertEquals(Arrays.asList("Bob", "Carol", "Alice"), index
+                .getMemberNames("red"));
+        assertEquals(Collections.emptyList(), index.getMemberNames("green"));
+    }
+    
+    @Test
+    public void loadReplacesIndexAndReportsChangedCounts() {
+        index.add("a", ban("A", "red", 60000));
+        index.add("b", ban("B", "blue", 60000));
+        index.add("c", ban("C", "green", 60000));
+        changes.clear();
+        
+        Map<String, DeathBan> bans = new HashMap<String, DeathBan>();
+        bans.put("a", ban("A", "red", 60000));
+        bans.put("b", ban("B", "blue", 60000));
+        bans.put("d", ban("D", "red", 60000));
+        Map<String, String> moved = new HashMap<String, String>();
+        moved.put("b", null);
+        index.load(bans, moved);
+        
+        assertEquals(3, index.size());
+        assertEquals(2, index.count("red"));
+        assertEquals(0, index.count("blue"));
+        assertEquals(0, index.count("green"));
+        assertNull(index.getFactionId("b"));
+        Collections.sort(changes);
+        assertEquals(Arrays.asList("blue=0", "green=0", "red=2"), changes);
+        
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        counts.put("red", 2);
+        assertEquals(counts, index.getCounts());
+    }
+    
+    @Test
+    public void moveChangesFaction() {
+        index.add("a", ban("A", "red", 60000));
+        assertTrue(index.move("a", "blue"));
+        assertEquals(0, index.count("red"));
+        assertEquals(1, index.count("blue"));
+        assertTrue(index.move("a", "blue"));
+        assertTrue(index.move("a", null));
+        assertEquals(0, index.getFactionCount());
+        assertTrue(index.contains("a"));
+        assertFalse(index.move("b", "blue"));
+        assertEquals(Arrays.asList("red=1", "red=0", "blue=1", "blue=0"),
+                changes);
+    }
+    
+    @Test
+    public void removeForgetsBan() {
+        index.add("a", ban("A", "red", 60000));
+        index.add("b", ban("B", "red", 60000));
+        index.remove("a");
+        index.remove("missing");
+        assertFalse(index.contains("a"));
+        assertEquals(1, index.count("red"));
+        assertEquals(Arrays.asList("red=1", "red=2", "red=1"), changes);
+    }
+    
+    @Before
+    public void setUp() {
+        index = new FactionIndex();
+        now = System.currentTimeMillis();
+        changes = new ArrayList<String>();
+        index.setObserver(new FactionIndex.Observer() {
+            @Override
+            public void countChanged(String factionId, int count) {
+                changes.add(factionId + "=" + count);
+            }
+        });
+    }
+    
+}
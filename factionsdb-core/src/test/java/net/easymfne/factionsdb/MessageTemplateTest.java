@@ -0,0 +1,63 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests for compiling and rendering a {@link MessageTemplate}.
+ */
+public class MessageTemplateTest {
+    
+    /**
+     * Compile and render a message.
+     * 
+     * @param pattern
+     *            Message with tags
+     * @param values
+     *            Values by tag number
+     * @return Rendered message
+     */
+    private static String render(String pattern, String... values) {
+        return MessageTemplate.compile(pattern).render(values);
+    }
+    
+    @Test
+    public void keepsTextThatIsNotATag() {
+        assertEquals("{} {x} {10} {", render("{} {x} {10} {", "a"));
+        assertEquals("{a}", render("{{0}}", "a"));
+        assertEquals("", render(""));
+        assertEquals("plain", render("plain", "a"));
+    }
+    
+    @Test
+    public void rendersTagsInAnyOrder() {
+        assertEquals("Bob was banned for 5m by Alice", render(
+                "{1} was banned for {2} by {0}", "Alice", "Bob", "5m"));
+        assertEquals("aba", render("{0}{1}{0}", "a", "b"));
+        assertEquals("[x]", render("[{9}]", "0", "1", "2", "3", "4", "5",
+                "6", "7", "8", "x"));
+    }
+    
+    @Test
+    public void replacesMissingValuesByNothing() {
+        assertEquals("a--", render("a-{1}-{0}"));
+        assertEquals("x=", render("x={0}", (String) null));
+        assertEquals("a b", render("a {3}b", "1", "2"));
+    }
+    
+}
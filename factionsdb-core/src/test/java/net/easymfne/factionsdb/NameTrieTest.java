@@ -0,0 +1,97 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for completing names with a {@link NameTrie}.
+ */
+public class NameTrieTest {
+    
+    private NameTrie trie;
+    
+    @Test
+    public void completesInAlphabeticalOrderUpToLimit() {
+        trie.add("Notch");
+        trie.add("jeb_");
+        trie.add("Dinnerbone");
+        trie.add("notchy");
+        trie.add("Grumm");
+        assertEquals(Arrays.asList("Dinnerbone", "Grumm", "jeb_", "Notch",
+                "notchy"), trie.complete("", 10));
+        assertEquals(Arrays.asList("Dinnerbone", "Grumm"), trie.complete("",
+                2));
+        assertEquals(Arrays.asList("Notch", "notchy"), trie.complete("NOT",
+                10));
+        assertEquals(Arrays.asList("notchy"), trie.complete("notchy", 10));
+        assertTrue(trie.complete("notchyy", 10).isEmpty());
+        assertTrue(trie.complete("x", 10).isEmpty());
+        assertTrue(trie.complete("", 0).isEmpty());
+    }
+    
+    @Test
+    public void countsRepeatedNames() {
+        trie.add("Notch");
+        trie.add("Notch");
+        assertEquals(2, trie.size());
+        assertEquals(Arrays.asList("Notch"), trie.complete("n", 10));
+        
+        trie.remove("notch");
+        assertEquals(1, trie.size());
+        assertEquals(Arrays.asList("Notch"), trie.complete("n", 10));
+        trie.remove("NOTCH");
+        assertEquals(0, trie.size());
+        assertTrue(trie.complete("", 10).isEmpty());
+    }
+    
+    @Test
+    public void followsRegistryListenerCalls() {
+        DeathBan ban = new DeathBan("Notch", null, null, 0, 1000, "default");
+        trie.banAdded(ban);
+        assertEquals(Arrays.asList("Notch"), trie.complete("no", 10));
+        trie.banRemoved(ban);
+        assertEquals(0, trie.size());
+    }
+    
+    @Test
+    public void removeKeepsOtherNames() {
+        trie.add("Notch");
+        trie.add("Not");
+        trie.add("notchy");
+        trie.remove("Not");
+        trie.remove("missing");
+        trie.remove("No");
+        assertEquals(2, trie.size());
+        assertEquals(Arrays.asList("Notch", "notchy"), trie.complete("no",
+                10));
+        
+        trie.remove("notchy");
+        trie.add("Not");
+        assertEquals(Arrays.asList("Not", "Notch"), trie.complete("n", 10));
+    }
+    
+    @Before
+    public void setUp() {
+        trie = new NameTrie();
+    }
+    
+}
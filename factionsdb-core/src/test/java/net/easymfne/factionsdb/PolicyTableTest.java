@@ -0,0 +1,114 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for compiling rules into a {@link PolicyTable} and resolving them.
+ */
+public class PolicyTableTest {
+    
+    private static final List<String> NONE = Collections.emptyList();
+    
+    private BanPolicy defaults;
+    private List<PolicyTable.Rule> rules;
+    
+    /**
+     * Check every value of a policy.
+     * 
+     * @param name
+     *            Expected name
+     * @param threshold
+     *            Expected power threshold
+     * @param boost
+     *            Expected power boost
+     * @param duration
+     *            Expected ban duration
+     * @param policy
+     *            Policy to check
+     */
+    private static void assertPolicy(String name, double threshold,
+            double boost, long duration, BanPolicy policy) {
+        assertEquals(name, policy.getName());
+        assertEquals(Double.valueOf(threshold),
+                Double.valueOf(policy.getThreshold()));
+        assertEquals(Double.valueOf(boost), Double.valueOf(policy.getBoost()));
+        assertEquals(duration, policy.getDuration());
+    }
+    
+    @Test
+    public void getFallsBackToDefault() {
+        rules.add(new PolicyTable.Rule("vets", NONE, Arrays
+                .asList("Veterans"), -5.0, null, null));
+        PolicyTable table = new PolicyTable(defaults, rules);
+        assertPolicy("vets", -5, 1, 60000, table.get("vets"));
+        assertSame(defaults, table.get(BanPolicy.DEFAULT));
+        assertSame(defaults, table.get("removed"));
+        assertSame(defaults, table.getDefault());
+    }
+    
+    @Test
+    public void laterRulesTakePrecedence() {
+        rules.add(new PolicyTable.Rule("a", Arrays.asList("w"), NONE, null,
+                null, 1000L));
+        rules.add(new PolicyTable.Rule("b", Arrays.asList("w"), NONE, null,
+                2.0, 2000L));
+        PolicyTable table = new PolicyTable(defaults, rules);
+        assertPolicy("a+b", 0, 2, 2000, table.resolve("w", null));
+        assertPolicy("a+b", 0, 2, 2000, table.resolve("w", "any"));
+    }
+    
+    @Test
+    public void resolvesFromLeastToMostSpecific() {
+        /* Listed most specific first, to show that order of groups wins */
+        rules.add(new PolicyTable.Rule("nethervets", Arrays
+                .asList("world_nether"), Arrays.asList("veterans"), null, 3.0,
+                null));
+        rules.add(new PolicyTable.Rule("vets", NONE, Arrays
+                .asList("Veterans"), -5.0, null, null));
+        rules.add(new PolicyTable.Rule("nether", Arrays
+                .asList("World_Nether"), NONE, null, null, 120000L));
+        PolicyTable table = new PolicyTable(defaults, rules);
+        
+        assertSame(defaults, table.resolve("world", null));
+        assertSame(defaults, table.resolve("world", "pirates"));
+        assertPolicy("vets", -5, 1, 60000, table.resolve("world",
+                "VETERANS"));
+        assertPolicy("nether", 0, 1, 120000, table.resolve("WORLD_NETHER",
+                null));
+        assertPolicy("nether", 0, 1, 120000, table.resolve("world_nether",
+                "pirates"));
+        assertPolicy("nether+vets+nethervets", -5, 3, 120000, table.resolve(
+                "world_nether", "Veterans"));
+        assertEquals(5, table.size());
+    }
+    
+    @Before
+    public void setUp() {
+        defaults = new BanPolicy(BanPolicy.DEFAULT, 0, 1, 60000);
+        rules = new ArrayList<PolicyTable.Rule>();
+    }
+    
+}
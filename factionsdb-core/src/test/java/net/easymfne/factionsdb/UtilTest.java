@@ -0,0 +1,176 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Tests for parsing and formatting times in {@link Util}.
+ */
+public class UtilTest {
+    
+    private static final long SECOND = 1000;
+    private static final long MINUTE = SECOND * 60;
+    private static final long HOUR = MINUTE * 60;
+    private static final long DAY = HOUR * 24;
+    
+    /**
+     * Parse a time String that is expected to be malformed.
+     * 
+     * @param timeString
+     *            String to parse
+     * @return The exception thrown
+     */
+    private static TimeFormatException parseError(String timeString) {
+        try {
+            Util.calculateMillis(timeString);
+        } catch (TimeFormatException e) {
+            return e;
+        }
+        fail("Expected '" + timeString + "' to be rejected");
+        return null;
+    }
+    
+    @Test
+    public void appendsToExistingText() {
+        StringBuilder builder = new StringBuilder("Banned for ");
+        assertEquals("Banned for 1 minute", Util.appendTimeString(builder,
+                MINUTE).toString());
+    }
+    
+    @Test
+    public void formatsEachUnit() {
+        assertEquals("1 day, 1 hour, 1 minute, 1 second", Util
+                .generateTimeString(DAY + HOUR + MINUTE + SECOND));
+        assertEquals("2 days, 3 hours", Util.generateTimeString(2 * DAY + 3
+                * HOUR));
+        assertEquals("5 minutes, 30 seconds", Util.generateTimeString(5
+                * MINUTE + 30 * SECOND + 999));
+    }
+    
+    @Test
+    public void formatsZeroAsSeconds() {
+        assertEquals("0 seconds", Util.generateTimeString(0));
+        assertEquals("0 seconds", Util.generateTimeString(999));
+        assertEquals("1 second", Util.generateTimeString(SECOND));
+    }
+    
+    @Test
+    public void ignoresFractionDigitsBelowOneMillisecond() throws Exception {
+        assertEquals(1000, Util.calculateMillis("1.0000000001s"));
+        assertEquals(1500, Util.calculateMillis("1.5000000009s"));
+    }
+    
+    @Test
+    public void parsesCombinedUnits() throws Exception {
+        assertEquals(DAY + 6 * HOUR + 30 * MINUTE, Util
+                .calculateMillis("1d6h30m"));
+        assertEquals(DAY + 6 * HOUR, Util.calculateMillis(" 1d 6h "));
+        assertEquals(2 * MINUTE, Util.calculateMillis("1m1m"));
+    }
+    
+    @Test
+    public void parsesFractions() throws Exception {
+        assertEquals(HOUR / 2, Util.calculateMillis("0.5h"));
+        assertEquals(HOUR / 2, Util.calculateMillis(".5h"));
+        assertEquals(MINUTE, Util.calculateMillis("1.m"));
+        assertEquals(DAY / 4, Util.calculateMillis("0.25d"));
+    }
+    
+    @Test
+    public void parsesSingleUnits() throws Exception {
+        assertEquals(90 * SECOND, Util.calculateMillis("90s"));
+        assertEquals(15 * MINUTE, Util.calculateMillis("15m"));
+        assertEquals(2 * HOUR, Util.calculateMillis("2H"));
+        assertEquals(7 * DAY, Util.calculateMillis("7d"));
+        assertEquals(0, Util.calculateMillis("0s"));
+    }
+    
+    @Test
+    public void parsesUuids() {
+        assertEquals("123e4567-e89b-12d3-a456-426655440000", Util.parseUuid(
+                "123e4567-e89b-12d3-a456-426655440000").toString());
+        assertEquals(null, Util.parseUuid(null));
+        assertEquals(null, Util.parseUuid("Notch"));
+        assertEquals(null, Util
+                .parseUuid("123e4567-e89b-12d3-a456-42665544000z"));
+    }
+    
+    @Test
+    public void rejectsEmptyStrings() {
+        TimeFormatException e = parseError("");
+        assertEquals(0, e.getPosition());
+        assertEquals("expected a number", e.getReason());
+        assertEquals(0, parseError("   ").getPosition());
+    }
+    
+    @Test
+    public void rejectsMissingNumbers() {
+        TimeFormatException e = parseError("h");
+        assertEquals(0, e.getPosition());
+        assertEquals("expected a number", e.getReason());
+        
+        e = parseError("5m x");
+        assertEquals(3, e.getPosition());
+        assertEquals("expected a number", e.getReason());
+        
+        assertEquals(0, parseError(".s").getPosition());
+    }
+    
+    @Test
+    public void rejectsMissingUnits() {
+        TimeFormatException e = parseError("10");
+        assertEquals(2, e.getPosition());
+        assertEquals("expected a unit (s, m, h, d)", e.getReason());
+        
+        e = parseError("1d 10x");
+        assertEquals(5, e.getPosition());
+        assertEquals("expected a unit (s, m, h, d)", e.getReason());
+        
+        assertEquals(3, parseError("1.5.5s").getPosition());
+    }
+    
+    @Test
+    public void rejectsNumbersTooLarge() {
+        TimeFormatException e = parseError("1m 99999999999999999999s");
+        assertEquals(3, e.getPosition());
+        assertEquals("number too large", e.getReason());
+        
+        /* Fits in a long, but not once multiplied by the unit */
+        e = parseError("106751991167d");
+        assertEquals(0, e.getPosition());
+        assertEquals("number too large", e.getReason());
+    }
+    
+    @Test
+    public void rejectsTotalsTooLarge() {
+        TimeFormatException e = parseError("100000000000d 100000000000d");
+        assertEquals(14, e.getPosition());
+        assertEquals("time too large", e.getReason());
+        assertEquals("time too large at position 14 in "
+                + "'100000000000d 100000000000d'", e.getMessage());
+    }
+    
+    @Test
+    public void reportsUnknownPositions() {
+        TimeFormatException e = new TimeFormatException("soon");
+        assertEquals(-1, e.getPosition());
+        assertEquals("invalid time in 'soon'", e.getMessage());
+    }
+    
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map.Entry;
+import java.util.logging.Level;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Background task that streams every active ban to a CSV or JSON Lines file.
+ * The file is written under a temporary name and renamed once complete, so
+ * that readers never see a partial export.
+ */
+public class BanExport implements Runnable {
+    
+    private FactionsDB plugin = null;
+    private final CommandSender sender;
+    private final File file;
+    private final BanFormat format;
+    
+    /**
+     * Prepare an export.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     * @param sender
+     *            User to report the result to
+     * @param file
+     *            Destination file
+     * @param format
+     *            Format to write
+     */
+    public BanExport(FactionsDB plugin, CommandSender sender, File file,
+            BanFormat format) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.file = file;
+        this.format = format;
+    }
+    
+    /**
+     * Write the bans, then report the result on the main server thread.
+     */
+    @Override
+    public void run() {
+        File temp = new File(file.getPath() + ".tmp");
+        int written = 0;
+        String result;
+        try {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(temp), "UTF-8"));
+            try {
+                format.writeHeader(writer);
+                for (Entry<String, DeathBan> entry : plugin.getBanRegistry()
+                        .freeze().entrySet()) {
+                    format.write(writer, entry.getKey(), entry.getValue());
+                    written++;
+                }
+            } catch (ColdStoreException e) {
+                throw e.getCause();
+            } finally {
+                writer.close();
+            }
+            if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Could not replace " + file.getName());
+            }
+            result = "Exported " + written + " bans to " + file.getName();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Export failed", e);
+            temp.delete();
+            result = "Export to " + file.getName() + " failed: "
+                    + e.getMessage();
+        }
+        final String message = result;
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                sender.sendMessage(message);
+            }
+        });
+    }
+    
+}
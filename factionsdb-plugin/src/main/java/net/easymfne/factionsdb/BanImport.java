@@ -0,0 +1,288 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+import org.bukkit.command.CommandSender;
+
+/**
+ * Background task that streams bans from a CSV or JSON Lines file into the
+ * registry. Records are read off the main thread and handed over in chunks,
+ * each applied by a single main-thread task; the reader waits for each chunk
+ * to be applied before reading the next, so memory use does not depend on
+ * the size of the file. The wait is checked for cancellation every few
+ * milliseconds, as the main thread stops running tasks while the plugin is
+ * being disabled, and an import left waiting would hold up the shutdown.
+ * 
+ * Imported bans are keyed for the current key mode. Malformed lines, bans
+ * that have already run out, and bans without a UUID in UUID mode are
+ * skipped.
+ */
+public class BanImport implements Runnable {
+    
+    /** Keep whichever of the existing and imported bans was issued last */
+    public static final String KEEP_NEWEST = "keep-newest";
+    
+    /** Always replace an existing ban with the imported one */
+    public static final String OVERWRITE = "overwrite";
+    
+    /** Never replace an existing ban */
+    public static final String SKIP = "skip";
+    
+    /* Number of bans applied per main-thread task */
+    private static final int CHUNK_SIZE = 256;
+    
+    /* Longest wait for a chunk between checks for cancellation, in ms */
+    private static final long WAIT_SLICE = 50;
+    
+    /**
+     * Check whether a String names a merge strategy.
+     * 
+     * @param strategy
+     *            String to check
+     * @return Whether it is a known strategy
+     */
+    public static boolean isStrategy(String strategy) {
+        return KEEP_NEWEST.equals(strategy) || OVERWRITE.equals(strategy)
+                || SKIP.equals(strategy);
+    }
+    
+    private FactionsDB plugin = null;
+    private final CommandSender sender;
+    private final File file;
+    private final BanFormat format;
+    private final String strategy;
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+    
+    /* Counters, only touched on the main thread */
+    private int imported = 0;
+    private int kept = 0;
+    private int unusable = 0;
+    
+    /**
+     * Prepare an import.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     * @param sender
+     *            User to report the result to
+     * @param file
+     *            Source file
+     * @param format
+     *            Format to read
+     * @param strategy
+     *            Merge strategy for bans that already exist
+     */
+    public BanImport(FactionsDB plugin, CommandSender sender, File file,
+            BanFormat format, String strategy) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.file = file;
+        this.format = format;
+        this.strategy = strategy;
+    }
+    
+    /**
+     * Apply a chunk of bans to the registry. Must be called on the main
+     * server thread.
+     * 
+     * @param chunk
+     *            Bans to apply
+     */
+    private void apply(List<DeathBan> chunk) {
+        for (DeathBan ban : chunk) {
+            String key = plugin.getKey(ban);
+            if (key == null || ban.isExpired()) {
+                unusable++;
+                continue;
+            }
+            DeathBan existing = plugin.getBanByKey(key);
+            if (existing != null
+                    && (SKIP.equals(strategy) || KEEP_NEWEST.equals(strategy)
+                            && existing.getTimestamp() >= ban.getTimestamp())) {
+                kept++;
+                continue;
+            }
+            plugin.putBanByKey(key, ban);
+            imported++;
+        }
+    }
+    
+    /**
+     * Hand a chunk to the main thread and wait for it to be applied.
+     * 
+     * @param chunk
+     *            Bans to apply
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws CancellationException
+     *             If the import was cancelled while waiting
+     */
+    private void applyOnMainThread(final List<DeathBan> chunk)
+            throws InterruptedException, ExecutionException {
+        Future<Void> applied = plugin.getServer().getScheduler()
+                .callSyncMethod(plugin, new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        apply(chunk);
+                        return null;
+                    }
+                });
+        while (true) {
+            if (cancelled) {
+                applied.cancel(false);
+                throw new CancellationException();
+            }
+            try {
+                applied.get(WAIT_SLICE, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                /* Check for cancellation, then keep waiting */
+            }
+        }
+    }
+    
+    /**
+     * Stop the import before it applies its next chunk, such as when the
+     * plugin is being disabled. Chunks already applied are kept.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    /**
+     * @return Whether the import has finished, failed or been cancelled
+     */
+    public boolean isDone() {
+        return done;
+    }
+    
+    /**
+     * Send a message to the user on the main server thread.
+     * 
+     * @param message
+     *            Message to send
+     */
+    private void report(final String message) {
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                sender.sendMessage(message);
+            }
+        });
+    }
+    
+    /**
+     * Read and apply the file, then report the result.
+     */
+    @Override
+    public void run() {
+        try {
+            runImport();
+        } finally {
+            done = true;
+        }
+    }
+    
+    /**
+     * Read and apply the file, then report the result, for {@link #run()}.
+     */
+    private void runImport() {
+        int malformed = 0;
+        String firstError = null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            try {
+                List<DeathBan> chunk = new ArrayList<DeathBan>(CHUNK_SIZE);
+                String line;
+                int number = 0;
+                while ((line = reader.readLine()) != null) {
+                    number++;
+                    try {
+                        DeathBan ban = format.read(line);
+                        if (ban != null) {
+                            chunk.add(ban);
+                        }
+                    } catch (IOException e) {
+                        if (malformed++ == 0) {
+                            firstError = "line " + number + ": "
+                                    + e.getMessage();
+                        }
+                    }
+                    if (chunk.size() == CHUNK_SIZE) {
+                        applyOnMainThread(chunk);
+                        chunk = new ArrayList<DeathBan>(CHUNK_SIZE);
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    applyOnMainThread(chunk);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Import failed", e);
+            report("Import from " + file.getName() + " failed: "
+                    + e.getMessage());
+            return;
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.WARNING, "Import failed",
+                    e.getCause());
+            report("Import from " + file.getName() + " failed.");
+            return;
+        } catch (CancellationException e) {
+            plugin.getLogger().warning("Import from " + file.getName()
+                    + " was cancelled after " + imported + " bans");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        /* Runs after every chunk has been applied, on the same thread */
+        final int rejected = malformed;
+        final String error = firstError;
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                sender.sendMessage("Imported " + imported + " bans from "
+                        + file.getName() + ", kept " + kept
+                        + " existing, skipped " + unusable
+                        + " expired or unkeyed.");
+                if (rejected > 0) {
+                    sender.sendMessage(rejected
+                            + " malformed lines were ignored, first at "
+                            + error);
+                }
+            }
+        });
+    }
+    
+}
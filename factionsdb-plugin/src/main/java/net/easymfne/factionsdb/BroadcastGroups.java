@@ -0,0 +1,377 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import com.massivecraft.factions.Rel;
+import com.massivecraft.factions.entity.Faction;
+import com.massivecraft.factions.entity.UPlayer;
+import com.massivecraft.factions.event.FactionsEventMembershipChange;
+import com.massivecraft.factions.event.FactionsEventRelationChange;
+
+/**
+ * Recipient groups for ban broadcasts, kept up to date as players join, quit,
+ * change worlds and change factions, so that a broadcast limited to some
+ * players is sent to a ready-made set instead of checking every player. The
+ * combined members of a faction and its allies are built on first use, then
+ * kept up to date as players come and go, until a relation changes.
+ */
+public class BroadcastGroups implements Listener {
+    
+    /* Broadcast scopes */
+    public static final String ALL = "all";
+    public static final String PERMISSION = "permission";
+    public static final String WORLD = "world";
+    public static final String FACTION = "faction";
+    
+    /**
+     * Add a player to a group of a map.
+     * 
+     * @param groups
+     *            Groups by name
+     * @param name
+     *            Name of the group
+     * @param player
+     *            The player
+     */
+    private static void add(Map<String, Set<Player>> groups, String name,
+            Player player) {
+        Set<Player> group = groups.get(name);
+        if (group == null) {
+            group = new HashSet<Player>();
+            groups.put(name, group);
+        }
+        group.add(player);
+    }
+    
+    /**
+     * Remove a player from a group of a map, dropping the group once empty.
+     * 
+     * @param groups
+     *            Groups by name
+     * @param name
+     *            Name of the group
+     * @param player
+     *            The player
+     */
+    private static void remove(Map<String, Set<Player>> groups, String name,
+            Player player) {
+        Set<Player> group = groups.get(name);
+        if (group != null && group.remove(player) && group.isEmpty()) {
+            groups.remove(name);
+        }
+    }
+    
+    private FactionsDB plugin = null;
+    private final Set<Player> online;
+    private final Set<Player> permitted;
+    private final Map<String, Set<Player>> byWorld;
+    private final Map<String, Set<Player>> byFaction;
+    private final Map<Player, String> factionIds;
+    
+    /* Each faction and its allies, and their members, built on first use */
+    private final Map<String, Set<String>> allyIds;
+    private final Map<String, Set<Player>> withAllies;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance, registering
+     * each of the defined EventHandlers, and sorting the players already
+     * online into groups.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public BroadcastGroups(FactionsDB plugin) {
+        this.plugin = plugin;
+        online = new HashSet<Player>();
+        permitted = new HashSet<Player>();
+        byWorld = new HashMap<String, Set<Player>>();
+        byFaction = new HashMap<String, Set<Player>>();
+        factionIds = new HashMap<Player, String>();
+        allyIds = new HashMap<String, Set<String>>();
+        withAllies = new HashMap<String, Set<Player>>();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        refresh();
+    }
+    
+    /**
+     * Add an online player to every group they belong to.
+     * 
+     * @param player
+     *            The player
+     * @param factionId
+     *            Id of the player's faction, or null if they have none
+     */
+    private void addPlayer(Player player, String factionId) {
+        online.add(player);
+        if (Perms.canReceiveBroadcasts(player)) {
+            permitted.add(player);
+        }
+        add(byWorld, player.getWorld().getName(), player);
+        setFaction(player, factionId);
+    }
+    
+    /**
+     * Unregister all registered EventHandlers and empty every group.
+     */
+    public void close() {
+        HandlerList.unregisterAll(this);
+        online.clear();
+        permitted.clear();
+        byWorld.clear();
+        byFaction.clear();
+        factionIds.clear();
+        allyIds.clear();
+        withAllies.clear();
+    }
+    
+    /**
+     * Get the online members of a faction and of the factions it is allied
+     * with, building and keeping the set if needed.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @return The members
+     */
+    private Set<Player> getAlliance(String factionId) {
+        Set<Player> alliance = withAllies.get(factionId);
+        if (alliance != null) {
+            return alliance;
+        }
+        Set<String> ids = new HashSet<String>();
+        ids.add(factionId);
+        Faction faction = plugin.getFactionLockout().findFaction(factionId);
+        if (faction != null) {
+            for (Entry<String, Rel> wish : faction.getRelationWishes()
+                    .entrySet()) {
+                if (wish.getValue() == Rel.ALLY
+                        && isAlly(wish.getKey(), faction)) {
+                    ids.add(wish.getKey());
+                }
+            }
+        }
+        alliance = new HashSet<Player>();
+        for (String id : ids) {
+            Set<Player> members = byFaction.get(id);
+            if (members != null) {
+                alliance.addAll(members);
+            }
+        }
+        allyIds.put(factionId, ids);
+        withAllies.put(factionId, alliance);
+        return alliance;
+    }
+    
+    /**
+     * @return Number of recipient groups: worlds and factions with online
+     *         players, and the alliances built so far
+     */
+    public int getGroupCount() {
+        return byWorld.size() + byFaction.size() + withAllies.size();
+    }
+    
+    /**
+     * @return Every online player, for broadcasts that are not about a ban and
+     *         go to everyone; must not be modified
+     */
+    public Collection<Player> getOnline() {
+        return Collections.unmodifiableSet(online);
+    }
+    
+    /**
+     * Get the players who should receive the broadcast of a ban under the
+     * configured scope.
+     * 
+     * @param ban
+     *            The ban
+     * @param world
+     *            World of the banned player
+     * @return The recipients, which must not be modified
+     */
+    public Collection<Player> getRecipients(DeathBan ban, World world) {
+        String scope = plugin.getConfigHelper().getBroadcastScope();
+        Set<Player> recipients = online;
+        if (scope.equals(PERMISSION)) {
+            recipients = permitted;
+        } else if (scope.equals(WORLD)) {
+            recipients = byWorld.get(world.getName());
+        } else if (scope.equals(FACTION)) {
+            recipients = ban.getFactionId() == null ? null : getAlliance(ban
+                    .getFactionId());
+        }
+        return recipients == null ? Collections.<Player> emptySet()
+                : Collections.unmodifiableSet(recipients);
+    }
+    
+    /**
+     * Check whether a faction wishes to be allied with another.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @param other
+     *            The other faction
+     * @return Whether the faction wishes to be allies
+     */
+    private boolean isAlly(String factionId, Faction other) {
+        Faction faction = plugin.getFactionLockout().findFaction(factionId);
+        return faction != null && faction.getRelationWish(other) == Rel.ALLY;
+    }
+    
+    /**
+     * When a player changes worlds, move them to their new world's group.
+     * 
+     * @param event
+     *            ChangedWorldEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        Player player = event.getPlayer();
+        remove(byWorld, event.getFrom().getName(), player);
+        add(byWorld, player.getWorld().getName(), player);
+    }
+    
+    /**
+     * When a player joins, add them to their groups.
+     * 
+     * @param event
+     *            JoinEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        Faction faction = UPlayer.get(player).getFaction();
+        addPlayer(player, faction == null || faction.isNone() ? null
+                : faction.getId());
+    }
+    
+    /**
+     * When an online player joins or leaves a faction, move them to the group
+     * of their new faction.
+     * 
+     * @param event
+     *            MembershipChangeEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMembershipChange(FactionsEventMembershipChange event) {
+        Player player = event.getUPlayer().getPlayer();
+        if (player != null && online.contains(player)) {
+            Faction faction = event.getNewFaction();
+            setFaction(player, faction == null || faction.isNone() ? null
+                    : faction.getId());
+        }
+    }
+    
+    /**
+     * When a player leaves, remove them from every group.
+     * 
+     * @param event
+     *            QuitEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        removePlayer(event.getPlayer());
+    }
+    
+    /**
+     * When two factions change their relation, forget the alliances, which
+     * may have changed.
+     * 
+     * @param event
+     *            RelationChangeEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onRelationChange(FactionsEventRelationChange event) {
+        allyIds.clear();
+        withAllies.clear();
+    }
+    
+    /**
+     * Sort every online player into groups again, such as after permissions
+     * were reloaded.
+     */
+    public void refresh() {
+        online.clear();
+        permitted.clear();
+        byWorld.clear();
+        byFaction.clear();
+        factionIds.clear();
+        allyIds.clear();
+        withAllies.clear();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            Faction faction = UPlayer.get(player).getFaction();
+            addPlayer(player, faction == null || faction.isNone() ? null
+                    : faction.getId());
+        }
+    }
+    
+    /**
+     * Remove a player from every group.
+     * 
+     * @param player
+     *            The player
+     */
+    private void removePlayer(Player player) {
+        online.remove(player);
+        permitted.remove(player);
+        remove(byWorld, player.getWorld().getName(), player);
+        setFaction(player, null);
+    }
+    
+    /**
+     * Move a player to the group of a faction, and to or from the alliances
+     * that include their old and new faction.
+     * 
+     * @param player
+     *            The player
+     * @param factionId
+     *            Id of the faction, or null to only leave the old one
+     */
+    private void setFaction(Player player, String factionId) {
+        String previous = factionId == null ? factionIds.remove(player)
+                : factionIds.put(player, factionId);
+        if (previous != null) {
+            remove(byFaction, previous, player);
+        }
+        if (factionId != null) {
+            add(byFaction, factionId, player);
+        }
+        for (Entry<String, Set<String>> alliance : allyIds.entrySet()) {
+            Set<String> ids = alliance.getValue();
+            if (factionId != null && ids.contains(factionId)) {
+                withAllies.get(alliance.getKey()).add(player);
+            } else if (previous != null && ids.contains(previous)) {
+                withAllies.get(alliance.getKey()).remove(player);
+            }
+        }
+    }
+    
+}
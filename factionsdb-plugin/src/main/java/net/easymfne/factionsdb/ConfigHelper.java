@@ -0,0 +1,426 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.bukkit.configuration.ConfigurationSection;
+
+/**
+ * Configuration helper class, with methods for accessing the configuration.
+ * 
+ * @author Eric Hildebrand
+ */
+public class ConfigHelper {
+    
+    private FactionsDB plugin = null;
+    
+    /* Cached time values */
+    private long banDurationMillis;
+    private String banDurationString;
+    
+    /* Compiled per-world and per-faction policies */
+    private PolicyTable policyTable;
+    
+    /* Cached login throttle values */
+    private int throttleBurst;
+    private double throttleRate;
+    
+    /* Cached kick queue values */
+    private int kicksPerTick;
+    private long maxKickDelay;
+    
+    /* Cached broadcast scope */
+    private String broadcastScope;
+    
+    /* Cached return queue value */
+    private int returnsPerTick;
+    
+    /* Cached watchdog values */
+    private boolean watchdogEnabled;
+    private long watchdogBudgetNanos;
+    
+    /* Cached trace recorder values, which are read off the main thread */
+    private boolean traceEnabled;
+    private int traceBufferSize;
+    private long traceFileSize;
+    private int traceFiles;
+    
+    /**
+     * Instantiate a reference back to the plugin itself, and prepare the cached
+     * ban duration (in milliseconds) and policy table;
+     * 
+     * @param plugin
+     *            The FactionsDB plugin
+     * @throws TimeFormatException
+     */
+    public ConfigHelper(FactionsDB plugin) {
+        this.plugin = plugin;
+        updateCache();
+    }
+    
+    /**
+     * Compile the configured policy rules into a lookup table, on top of the
+     * global power threshold, power boost, and ban duration.
+     * 
+     * @return Compiled policy table
+     */
+    private PolicyTable compilePolicies() {
+        BanPolicy defaults = new BanPolicy(BanPolicy.DEFAULT,
+                getPowerThreshold(), getPowerBoost(), getBanDurationMillis());
+        List<PolicyTable.Rule> rules = new ArrayList<PolicyTable.Rule>();
+        ConfigurationSection policies = plugin.getConfig()
+                .getConfigurationSection("policies");
+        if (policies != null) {
+            for (String name : policies.getKeys(false)) {
+                ConfigurationSection policy = policies
+                        .getConfigurationSection(name);
+                if (policy == null) {
+                    continue;
+                }
+                List<String> worlds = policy.getStringList("worlds");
+                List<String> factions = policy.getStringList("factions");
+                if (worlds.isEmpty() && factions.isEmpty()) {
+                    plugin.fancyLog(Level.WARNING, "Policy '" + name
+                            + "' names no worlds or factions, ignoring it");
+                    continue;
+                }
+                rules.add(new PolicyTable.Rule(name, worlds, factions,
+                        policy.isSet("threshold") ? policy
+                                .getDouble("threshold") : null, policy
+                                .isSet("boost") ? policy.getDouble("boost")
+                                : null, getPolicyDuration(name, policy)));
+            }
+        }
+        return new PolicyTable(defaults, rules);
+    }
+    
+    /**
+     * @return How far above their threshold a player's power may be for them
+     *         to be warned, or 0 if players are never warned
+     */
+    public double getAtRiskMargin() {
+        return Math.max(0, plugin.getConfig().getDouble("at-risk.margin", 0));
+    }
+    
+    /**
+     * @return Duration of deathbans, in raw configuration String form
+     */
+    public String getBanDuration() {
+        return plugin.getConfig().getString("ban.duration", "0.5h");
+    }
+    
+    /**
+     * @return Duration of deathbans, in milliseconds
+     */
+    public long getBanDurationMillis() {
+        return banDurationMillis;
+    }
+    
+    /**
+     * @return Duration of deathbans, in user-friendly String form
+     */
+    public String getBanDurationString() {
+        return banDurationString;
+    }
+    
+    /**
+     * @return Name of world to send players to upon deathban, or null if
+     *         players should be sent to the spawn of their current world
+     */
+    public String getBanSpawnWorld() {
+        return plugin.getConfig().getString("ban.spawn-world", null);
+    }
+    
+    /**
+     * @return Who receives ban broadcasts, such as
+     *         {@link BroadcastGroups#WORLD}
+     */
+    public String getBroadcastScope() {
+        return broadcastScope;
+    }
+    
+    /**
+     * Get the policy that a ban was issued under.
+     * 
+     * @param ban
+     *            DeathBan involved
+     * @return The ban's policy, or the default policy if it no longer exists
+     */
+    public BanPolicy getPolicy(DeathBan ban) {
+        return policyTable.get(ban.getPolicy());
+    }
+    
+    /**
+     * Parse the overridden ban duration of a configured policy, if any.
+     * 
+     * @param name
+     *            Name of the policy
+     * @param policy
+     *            Configuration section of the policy
+     * @return Duration in milliseconds, or null if not overridden or invalid
+     */
+    private Long getPolicyDuration(String name, ConfigurationSection policy) {
+        if (!policy.isSet("duration")) {
+            return null;
+        }
+        try {
+            return Util.calculateMillis(policy.getString("duration"));
+        } catch (TimeFormatException e) {
+            plugin.fancyLog(Level.WARNING, "Failed to parse ban duration of "
+                    + "policy '" + name + "' (" + e.getMessage()
+                    + "), using the inherited duration");
+            return null;
+        }
+    }
+    
+    /**
+     * @return Lookup table of per-world and per-faction policies
+     */
+    public PolicyTable getPolicyTable() {
+        return policyTable;
+    }
+    
+    /**
+     * @return Number of deathbanned members that locks a faction's land, or 0
+     *         if land is never locked
+     */
+    public int getLockoutThreshold() {
+        return Math.max(0, plugin.getConfig().getInt("lockout.threshold", 0));
+    }
+    
+    /**
+     * @return Number of ticks a deathbanned player may wait to be kicked
+     */
+    public long getMaxKickDelay() {
+        return maxKickDelay;
+    }
+    
+    /**
+     * @return Maximum number of bans kept in memory, or 0 for no limit
+     */
+    public int getHotTierSize() {
+        return Math.max(0, plugin.getConfig().getInt("storage.hot-size", 0));
+    }
+    
+    /**
+     * @return Number of disk threads used when virtual threads are
+     *         unavailable
+     */
+    public int getIoThreads() {
+        return Math.max(1, plugin.getConfig().getInt("storage.io-threads", 2));
+    }
+    
+    /**
+     * @return Number of disk tasks that may wait or run at once
+     */
+    public int getIoQueueSize() {
+        return Math.max(1, plugin.getConfig().getInt("storage.io-queue", 32));
+    }
+    
+    /**
+     * @return Number of files that saved bans are split between
+     */
+    public int getShardCount() {
+        return Math.max(1, plugin.getConfig().getInt("storage.shards", 8));
+    }
+    
+    /**
+     * @return Number of deathbanned players to kick per tick
+     */
+    public int getKicksPerTick() {
+        return kicksPerTick;
+    }
+    
+    /**
+     * @return Number of returns to prepare, and returned players' power
+     *         boosts to apply, per tick
+     */
+    public int getReturnsPerTick() {
+        return returnsPerTick;
+    }
+    
+    /**
+     * @return Power level boost upon returning from a deathban
+     */
+    public double getPowerBoost() {
+        return plugin.getConfig().getDouble("power.boost", 4);
+    }
+    
+    /**
+     * @return Power level that triggers a deathban
+     */
+    public double getPowerThreshold() {
+        return plugin.getConfig().getDouble("power.threshold", 0);
+    }
+    
+    /**
+     * @return Number of login attempts a banned player may make in a burst
+     *         before further attempts are suppressed
+     */
+    public int getThrottleBurst() {
+        return throttleBurst;
+    }
+    
+    /**
+     * @return Number of login attempts regained per millisecond
+     */
+    public double getThrottleRate() {
+        return throttleRate;
+    }
+    
+    /**
+     * @return Time allowed for saving changed bans at shutdown, in
+     *         milliseconds
+     */
+    public long getShutdownBudget() {
+        return plugin.getConfig().getLong("shutdown-budget", 500);
+    }
+    
+    /**
+     * @return Should bans be broadcast to the server?
+     */
+    public boolean isBanBroadcast() {
+        return plugin.getConfig().getBoolean("ban.broadcast", true);
+    }
+    
+    /**
+     * @return Send players to spawn when issuing deathban?
+     */
+    public boolean isBanSendToSpawn() {
+        return plugin.getConfig().getBoolean("ban.send-to-spawn", true);
+    }
+    
+    /**
+     * @return Should bans be saved and reloaded when server is restarted?
+     */
+    public boolean isPersistent() {
+        return plugin.getConfig().getBoolean("persistence", false);
+    }
+    
+    /**
+     * @return Number of events the trace ring buffer holds
+     */
+    public int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+    
+    /**
+     * @return Number of trace files to keep
+     */
+    public int getTraceFiles() {
+        return traceFiles;
+    }
+    
+    /**
+     * @return Size at which a new trace file is started, in bytes
+     */
+    public long getTraceFileSize() {
+        return traceFileSize;
+    }
+    
+    /**
+     * @return Main-thread time FactionsDB may use per tick before the watchdog
+     *         warns, in nanoseconds
+     */
+    public long getWatchdogBudgetNanos() {
+        return watchdogBudgetNanos;
+    }
+    
+    /**
+     * @return Record events to trace files?
+     */
+    public boolean isTraceEnabled() {
+        return traceEnabled;
+    }
+    
+    /**
+     * @return Use UUIDs instead of Player names?
+     */
+    public boolean isUuidMode() {
+        return plugin.getConfig().getBoolean("uuid-mode", true);
+    }
+    
+    /**
+     * @return Measure main-thread time spent in FactionsDB?
+     */
+    public boolean isWatchdogEnabled() {
+        return watchdogEnabled;
+    }
+    
+    /**
+     * Set the persistence state, in the case that persistence must be disabled
+     * for configuration file safety.
+     * 
+     * @param value
+     *            New state
+     */
+    public void setPersistent(boolean value) {
+        plugin.getConfig().set("persistence", false);
+    }
+    
+    /**
+     * Update cached String and Long values of deathban duration, login
+     * throttle, kick queue, watchdog and trace values, and compile the policy
+     * table
+     */
+    protected void updateCache() {
+        try {
+            banDurationMillis = Util.calculateMillis(getBanDuration());
+        } catch (TimeFormatException e) {
+            plugin.fancyLog(Level.WARNING,
+                    "Failed to parse configured ban duration ("
+                            + e.getMessage() + "), defaulting to 30m");
+            banDurationMillis = TimeUnit.MINUTES.toMillis(30);
+        }
+        banDurationString = Util.generateTimeString(getBanDurationMillis());
+        policyTable = compilePolicies();
+        throttleBurst = Math.max(1,
+                plugin.getConfig().getInt("login-throttle.burst", 3));
+        throttleRate = plugin.getConfig().getDouble(
+                "login-throttle.per-minute", 6)
+                / TimeUnit.MINUTES.toMillis(1);
+        kicksPerTick = Math.max(1,
+                plugin.getConfig().getInt("ban.kicks-per-tick", 5));
+        maxKickDelay = Math.max(0,
+                plugin.getConfig().getLong("ban.max-kick-delay", 40));
+        broadcastScope = plugin.getConfig()
+                .getString("ban.broadcast-scope", BroadcastGroups.ALL)
+                .toLowerCase();
+        if (!Arrays.asList(BroadcastGroups.ALL, BroadcastGroups.PERMISSION,
+                BroadcastGroups.WORLD, BroadcastGroups.FACTION).contains(
+                broadcastScope)) {
+            plugin.fancyLog(Level.WARNING, "Unknown broadcast scope ("
+                    + broadcastScope + "), broadcasting to all players");
+            broadcastScope = BroadcastGroups.ALL;
+        }
+        returnsPerTick = Math.max(1,
+                plugin.getConfig().getInt("ban.returns-per-tick", 20));
+        watchdogEnabled = plugin.getConfig().getBoolean("watchdog.enabled",
+                false);
+        watchdogBudgetNanos = (long) (plugin.getConfig().getDouble(
+                "watchdog.budget", 1.0) * 1000000);
+        traceEnabled = plugin.getConfig().getBoolean("trace.enabled", false);
+        traceBufferSize = plugin.getConfig().getInt("trace.buffer-size", 65536);
+        traceFileSize = Math.max(1,
+                plugin.getConfig().getLong("trace.file-size", 4)) * 1024 * 1024;
+        traceFiles = Math.max(1, plugin.getConfig().getInt("trace.files", 5));
+    }
+    
+}
@@ -14,6 +14,8 @@
  */
 package net.easymfne.factionsdb;
 
+import java.util.Collection;
+
 import org.bukkit.entity.Player;
 
 /**
@@ -42,20 +44,27 @@ public class DeathBanner implements Runnable {
     }
     
     /**
-     * Broadcast the player's ban to the server with the appropriate message.
+     * Broadcast the player's ban to the configured recipients with the
+     * appropriate message, in each recipient's language.
      */
     private void broadcastDeathBan() {
-        plugin.getServer().broadcastMessage(
-                plugin.getConfigHelper().formatDisplayString(
-                        plugin.getConfigHelper().getStringBroadcast(), ban));
+        Collection<Player> recipients = plugin.getBroadcastGroups()
+                .getRecipients(ban, player.getWorld());
+        plugin.getMessageCatalog().broadcast(MessageCatalog.BROADCAST, ban,
+                recipients);
     }
     
     /**
-     * Kick the player from the server with the appropriate message.
+     * Kick the player from the server with the appropriate message, unless
+     * they left while the DeathBanner was queued. Their ban is already in
+     * place, so it still keeps them out.
      */
     private void kickPlayer() {
-        player.kickPlayer(plugin.getConfigHelper().formatDisplayString(
-                plugin.getConfigHelper().getStringKick(), ban));
+        if (!player.isOnline()) {
+            return;
+        }
+        player.kickPlayer(plugin.getMessageCatalog().render(
+                MessageCatalog.KICK, ban, player.getUniqueId()));
     }
     
     /**
@@ -63,10 +72,12 @@ public class DeathBanner implements Runnable {
      */
     @Override
     public void run() {
+        long start = plugin.getWatchdog().start();
         kickPlayer();
         if (plugin.getConfigHelper().isBanBroadcast()) {
             broadcastDeathBan();
         }
+        plugin.getWatchdog().stop(TickWatchdog.KICK, start);
     }
     
 }
@@ -0,0 +1,169 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * Cache of whether each online player is exempt from deathbans, so that the
+ * permission is not resolved again on every death. A player's status is
+ * forgotten when they join, quit or change worlds, and when the configuration
+ * is reloaded. Permission plugins give no notice of changes made while a
+ * player is online, so a status is also checked again once it is older than
+ * {@link #MAX_AGE}.
+ */
+public class ExemptionCache implements Listener {
+    
+    /* Milliseconds after which a cached status is checked again */
+    public static final long MAX_AGE = 60000;
+    
+    /**
+     * Exemption status of a player, and when it was checked.
+     */
+    private static class Status {
+        
+        private final boolean exempt;
+        private final long checked;
+        
+        private Status(boolean exempt, long checked) {
+            this.exempt = exempt;
+            this.checked = checked;
+        }
+        
+    }
+    
+    private FactionsDB plugin = null;
+    private final Map<UUID, Status> statuses;
+    private long hits = 0;
+    private long misses = 0;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance and
+     * registering each of the defined EventHandlers.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public ExemptionCache(FactionsDB plugin) {
+        this.plugin = plugin;
+        statuses = new HashMap<UUID, Status>();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+    
+    /**
+     * Forget every cached status, such as after the configuration is
+     * reloaded.
+     */
+    public void clear() {
+        statuses.clear();
+    }
+    
+    /**
+     * Unregister all registered EventHandlers and forget every cached status.
+     */
+    public void close() {
+        HandlerList.unregisterAll(this);
+        statuses.clear();
+    }
+    
+    /**
+     * @return Number of exemption checks answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+    
+    /**
+     * @return Number of exemption checks that resolved the permission
+     */
+    public long getMisses() {
+        return misses;
+    }
+    
+    /**
+     * @return Number of players with a cached status
+     */
+    public int getSize() {
+        return statuses.size();
+    }
+    
+    /**
+     * Check if a player is exempt from being deathbanned, resolving the
+     * permission only if their status is not cached or is too old.
+     * 
+     * @param player
+     *            The player
+     * @return Exemption status
+     */
+    public boolean isExempt(Player player) {
+        long now = System.currentTimeMillis();
+        Status status = statuses.get(player.getUniqueId());
+        if (status != null && now - status.checked < MAX_AGE) {
+            hits++;
+            return status.exempt;
+        }
+        misses++;
+        status = new Status(Perms.isExempt(player), now);
+        statuses.put(player.getUniqueId(), status);
+        return status.exempt;
+    }
+    
+    /**
+     * Forget a player's status when they change worlds, as permissions may
+     * differ by world.
+     * 
+     * @param event
+     *            ChangedWorldEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        statuses.remove(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * Forget a player's status when they join, in case their permissions
+     * changed while they were away.
+     * 
+     * @param event
+     *            JoinEvent
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        statuses.remove(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * Forget a player's status when they leave the server.
+     * 
+     * @param event
+     *            QuitEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        statuses.remove(event.getPlayer().getUniqueId());
+    }
+    
+}
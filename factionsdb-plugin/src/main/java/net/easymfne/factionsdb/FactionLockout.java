@@ -0,0 +1,254 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import com.massivecraft.factions.entity.BoardColls;
+import com.massivecraft.factions.entity.Faction;
+import com.massivecraft.factions.entity.FactionColl;
+import com.massivecraft.factions.entity.FactionColls;
+import com.massivecraft.factions.entity.UPlayer;
+import com.massivecraft.factions.event.FactionsEventChunkChange;
+import com.massivecraft.factions.event.FactionsEventMembershipChange;
+
+/**
+ * Keeps the registry's {@link FactionIndex} in step with Factions, and locks
+ * the land of factions with too many deathbanned members. Banned players who
+ * join or leave a faction are moved in the index, and bans that have run out
+ * are dropped from it once a second. While a faction is locked, no land can
+ * be claimed by it or taken from it.
+ */
+public class FactionLockout extends BukkitRunnable implements Listener,
+        FactionIndex.Observer {
+    
+    private FactionsDB plugin = null;
+    private final Set<String> locked;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance, registering
+     * each of the defined EventHandlers, and observing the faction index.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public FactionLockout(FactionsDB plugin) {
+        this.plugin = plugin;
+        locked = new HashSet<String>();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        plugin.getBanRegistry().getFactionIndex().setObserver(this);
+    }
+    
+    /**
+     * Stop observing the faction index, unregister all registered
+     * EventHandlers, and release every lock.
+     */
+    public void close() {
+        plugin.getBanRegistry().getFactionIndex().setObserver(null);
+        HandlerList.unregisterAll(this);
+        locked.clear();
+    }
+    
+    /**
+     * Lock or unlock a faction whose number of banned members has changed.
+     */
+    @Override
+    public void countChanged(String factionId, int count) {
+        update(factionId, count);
+    }
+    
+    /**
+     * Find a faction by id in any universe.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @return The faction, or null if it no longer exists
+     */
+    public Faction findFaction(String factionId) {
+        for (FactionColl coll : FactionColls.get().getColls()) {
+            Faction faction = coll.get(factionId);
+            if (faction != null) {
+                return faction;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Find a faction by name in any universe, ignoring case.
+     * 
+     * @param name
+     *            Name of the faction
+     * @return The faction, or null if none has the name
+     */
+    public Faction findFactionByName(String name) {
+        for (FactionColl coll : FactionColls.get().getColls()) {
+            Faction faction = coll.getByName(name);
+            if (faction != null) {
+                return faction;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * @return Number of factions whose land is locked
+     */
+    public int getLockedCount() {
+        return locked.size();
+    }
+    
+    /**
+     * Get the name of a faction for display.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @return Name of the faction, or its id if it no longer exists
+     */
+    private String getName(String factionId) {
+        Faction faction = findFaction(factionId);
+        return faction == null ? factionId : faction.getName();
+    }
+    
+    /**
+     * Check whether a faction's land is locked.
+     * 
+     * @param faction
+     *            The faction, or null
+     * @return Whether the faction is locked
+     */
+    public boolean isLocked(Faction faction) {
+        return faction != null && locked.contains(faction.getId());
+    }
+    
+    /**
+     * When land is about to change hands, cancel the change if either its
+     * current or its new owner is locked, and tell whoever attempted it.
+     * 
+     * @param event
+     *            ChunkChangeEvent
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onChunkChange(FactionsEventChunkChange event) {
+        if (locked.isEmpty()) {
+            return;
+        }
+        Faction faction = event.getNewFaction();
+        if (!isLocked(faction)) {
+            faction = BoardColls.get().getFactionAt(event.getChunk());
+            if (!isLocked(faction)) {
+                return;
+            }
+        }
+        event.setCancelled(true);
+        CommandSender sender = event.getSender();
+        if (sender != null) {
+            int count = plugin.getBanRegistry().getFactionIndex()
+                    .count(faction.getId());
+            String message = plugin.getMessageCatalog().render(
+                    MessageCatalog.LOCKED_LAND,
+                    new String[] { faction.getName(), Integer.toString(count) },
+                    sender instanceof Player ? ((Player) sender).getUniqueId()
+                            : null);
+            if (message.length() > 0) {
+                sender.sendMessage(message);
+            }
+        }
+    }
+    
+    /**
+     * When a player joins or leaves a faction while deathbanned, such as by
+     * being kicked, count their ban in their new faction instead.
+     * 
+     * @param event
+     *            MembershipChangeEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMembershipChange(FactionsEventMembershipChange event) {
+        FactionIndex index = plugin.getBanRegistry().getFactionIndex();
+        if (index.size() == 0) {
+            return;
+        }
+        UPlayer uplayer = event.getUPlayer();
+        OfflinePlayer player = uplayer.getPlayer();
+        if (player == null) {
+            player = plugin.getServer().getOfflinePlayer(uplayer.getId());
+        }
+        Faction faction = event.getNewFaction();
+        index.move(plugin.getKey(player), faction == null || faction.isNone()
+                ? null : faction.getId());
+    }
+    
+    /**
+     * Re-evaluate every lock, such as after the threshold was reloaded.
+     */
+    public void refresh() {
+        Map<String, Integer> counts = plugin.getBanRegistry()
+                .getFactionIndex().getCounts();
+        Set<String> factionIds = new HashSet<String>(locked);
+        factionIds.addAll(counts.keySet());
+        for (String factionId : factionIds) {
+            Integer count = counts.get(factionId);
+            update(factionId, count == null ? 0 : count);
+        }
+    }
+    
+    /**
+     * Drop bans that have run out from the faction index.
+     */
+    @Override
+    public void run() {
+        plugin.getBanRegistry().getFactionIndex()
+                .expire(System.currentTimeMillis());
+    }
+    
+    /**
+     * Lock a faction that has reached the configured threshold, or unlock one
+     * that has dropped below it, announcing the change if configured.
+     * 
+     * @param factionId
+     *            Id of the faction
+     * @param count
+     *            Number of banned members
+     */
+    private void update(String factionId, int count) {
+        int threshold = plugin.getConfigHelper().getLockoutThreshold();
+        int message = -1;
+        if (threshold > 0 && count >= threshold) {
+            if (locked.add(factionId)) {
+                message = MessageCatalog.LOCKOUT;
+            }
+        } else if (locked.remove(factionId)) {
+            message = MessageCatalog.UNLOCK;
+        }
+        if (message >= 0) {
+            String[] values = { getName(factionId), Integer.toString(count) };
+            plugin.getMessageCatalog().broadcast(message, values,
+                    plugin.getBroadcastGroups().getOnline());
+        }
+    }
+    
+}
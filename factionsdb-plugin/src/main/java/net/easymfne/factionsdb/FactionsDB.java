@@ -0,0 +1,955 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.plugin.ServicePriority;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.bukkit.scheduler.BukkitTask;
+import org.mcstats.MetricsLite;
+
+/**
+ * Main plugin class, responsible for its own setup, logging, reloading, and
+ * shutdown operations. Maintains instances of ConfigHelper, FdbCommand, and
+ * PlayerListener, and handles active bans (through the BanRegistry, which is
+ * also provided to other plugins as a DeathBanService) and saving/loading.
+ * 
+ * @author Eric Hildebrand
+ */
+public class FactionsDB extends JavaPlugin {
+    
+    /**
+     * Simple runnable class for automatically saving deathbans on an interval.
+     */
+    private class Autosave extends BukkitRunnable {
+        @Override
+        public void run() {
+            long start = watchdog.start();
+            saveBans();
+            watchdog.stop(TickWatchdog.AUTOSAVE, start);
+        }
+    }
+    
+    /**
+     * Disk write of a save, given a copy of the active bans taken on the main
+     * thread.
+     */
+    private interface SaveTask {
+        /**
+         * @param bans
+         *            Copy of the active bans, by key
+         * @param keys
+         *            Keys changed since the last save
+         * @throws IOException
+         *             If the bans cannot be written
+         */
+        void write(Map<String, DeathBan> bans, List<String> keys)
+                throws IOException;
+    }
+    
+    private BanRegistry activeBans;
+    
+    private final File BANS_FILE = new File(getDataFolder().getAbsolutePath()
+            + File.separator + "bans.yml"); /* Before shards, only read */
+    private BanShards shards;
+    private final BanJournal journal = new BanJournal(new File(
+            getDataFolder(), "bans.journal"));
+    private final BanJournal emergencyDump = new BanJournal(new File(
+            getDataFolder(), "bans.emergency"));
+    /* Number of flushes to the journals, guarded by the journal */
+    private long journalGeneration = 0;
+    private final int AUTOSAVE_PERIOD = 1200; /* 6000 ticks = 5 minutes */
+    private BukkitTask autosaveTask;
+    private IoExecutor io = null;
+    private Future<?> pendingSave = null;
+    private volatile boolean fullSaveNeeded = false;
+    /* Whether saved bans failed to load, so their files must be kept */
+    private boolean loadFailed = false;
+    
+    private ConfigHelper configHelper = null;
+    private LoginThrottle loginThrottle = null;
+    private KickQueue kickQueue = null;
+    private SpawnCache spawnCache = null;
+    private TickWatchdog watchdog = null;
+    private TraceRecorder traceRecorder = null;
+    private ExemptionCache exemptionCache = null;
+    private FactionLockout factionLockout = null;
+    private MessageCatalog messageCatalog = null;
+    private ReturnQueue returnQueue = null;
+    private PowerWatch powerWatch = null;
+    private BroadcastGroups broadcastGroups = null;
+    private FdbCommand fdbCommand = null;
+    private PlayerListener playerListener = null;
+    
+    /* Strings for fancyLog() methods */
+    private final String logPrefix = ChatColor.RED + "[FactionsDB] ";
+    private final String logColor = ChatColor.YELLOW.toString();
+    
+    /**
+     * Add a new Deathban into the system and return a reference to it.
+     * 
+     * @param player
+     *            Player to deathban
+     * @param policy
+     *            Effective policy for the player
+     * @param factionId
+     *            Id of the player's faction, or null if they have none
+     * @return The resulting DeathBan
+     */
+    protected DeathBan addBan(OfflinePlayer player, BanPolicy policy,
+            String factionId) {
+        DeathBan ban = new DeathBan(player.getName(), player.getUniqueId(),
+                factionId, policy);
+        String key = getKey(player);
+        activeBans.put(key, ban);
+        loginThrottle.forget(key);
+        return ban;
+    }
+    
+    /**
+     * Log a message to the console using color, with a specific logging Level.
+     * If there is no console open, log the message without any coloration.
+     * 
+     * @param level
+     *            Level at which the message should be logged
+     * @param message
+     *            The message to be logged
+     */
+    protected void fancyLog(Level level, String message) {
+        if (getServer().getConsoleSender() != null) {
+            getServer().getConsoleSender().sendMessage(
+                    logPrefix + logColor + message);
+        } else {
+            getServer().getLogger().log(level,
+                    ChatColor.stripColor(logPrefix + message));
+        }
+    }
+    
+    /**
+     * Log a message to the console using color, defaulting to the Info level.
+     * If there is no console open, log the message without any coloration.
+     * 
+     * @param message
+     *            The message to be logged
+     */
+    protected void fancyLog(String message) {
+        fancyLog(Level.INFO, message);
+    }
+    
+    /**
+     * Run a task on the I/O executor and wait for it to finish, for disk work
+     * that must be done before the caller can continue. The main thread never
+     * waits for room in the executor or past the deadline: if the executor is
+     * full, or the task has not started by the deadline, the task is run here
+     * instead. A task that has started is left to finish on its own.
+     * 
+     * @param name
+     *            Name to record the task's statistics under
+     * @param task
+     *            The task
+     * @param deadline
+     *            Time by which to stop waiting, in milliseconds since the
+     *            epoch
+     * @return The task's result
+     * @throws TimeoutException
+     *             If the task was still running at the deadline
+     * @throws Exception
+     *             If the task threw an exception
+     */
+    private <T> T awaitIo(String name, final Callable<T> task, long deadline)
+            throws Exception {
+        final AtomicBoolean claimed = new AtomicBoolean();
+        Future<T> future = io.trySubmit(name, new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return claimed.compareAndSet(false, true) ? task.call() : null;
+            }
+        });
+        if (future == null) {
+            fancyLog(Level.WARNING, "Disk I/O queue is full, running " + name
+                    + " on the main thread");
+            return task.call();
+        }
+        try {
+            return future.get(
+                    Math.max(0, deadline - System.currentTimeMillis()),
+                    TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } catch (TimeoutException e) {
+            if (claimed.compareAndSet(false, true)) {
+                fancyLog(Level.WARNING, "Disk I/O is behind, running " + name
+                        + " on the main thread");
+                return task.call();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Write bans changed since the last full save to the journal, giving up
+     * once the deadline has passed. Any changes that could not be journaled in
+     * time are written to the emergency dump instead, so that nothing is lost.
+     * Keys being written by a save that has not finished are still changed, so
+     * they are journaled too, and the flush starts a new journal generation so
+     * that the save does not delete the journals.
+     * 
+     * @param deadline
+     *            Time by which to stop journaling, in milliseconds since the
+     *            epoch
+     */
+    private void flushBans(long deadline) {
+        synchronized (journal) {
+            journalGeneration++;
+            writeJournals(deadline);
+        }
+    }
+    
+    /**
+     * Get an existing deathban by player.
+     * 
+     * @param player
+     *            Player to look up
+     * @return DeathBan, or null if none exist
+     */
+    protected DeathBan getBan(OfflinePlayer player) {
+        return activeBans.get(getKey(player));
+    }
+    
+    /**
+     * Get an existing deathban by lookup key
+     * 
+     * @param key
+     *            Key to use for lookup
+     * @return DeathBan, or null if none exist
+     */
+    protected DeathBan getBanByKey(String key) {
+        return activeBans.get(key);
+    }
+    
+    /**
+     * Get the set of active DeathBan entries
+     * 
+     * @return All active deathban entries
+     */
+    protected Set<Entry<String, DeathBan>> getBanEntries() {
+        return activeBans.asMap().entrySet();
+    }
+    
+    /**
+     * Get a collection of active DeathBans.
+     * 
+     * @return All active deathbans
+     */
+    protected Collection<DeathBan> getBans() {
+        return activeBans.asMap().values();
+    }
+    
+    /**
+     * @return the registry of active bans
+     */
+    public BanRegistry getBanRegistry() {
+        return activeBans;
+    }
+    
+    /**
+     * @return the broadcast recipient groups instance
+     */
+    public BroadcastGroups getBroadcastGroups() {
+        return broadcastGroups;
+    }
+    
+    /**
+     * @return the configuration helper instance
+     */
+    public ConfigHelper getConfigHelper() {
+        return configHelper;
+    }
+    
+    /**
+     * @return the deathban exemption cache instance
+     */
+    public ExemptionCache getExemptionCache() {
+        return exemptionCache;
+    }
+    
+    /**
+     * @return the faction lockout instance
+     */
+    public FactionLockout getFactionLockout() {
+        return factionLockout;
+    }
+    
+    /**
+     * @return the disk I/O executor instance
+     */
+    public IoExecutor getIoExecutor() {
+        return io;
+    }
+    
+    /**
+     * Get the String key for an existing DeathBan under the current key mode,
+     * such as for a ban imported from another server.
+     * 
+     * @param ban
+     *            DeathBan to get key for
+     * @return Key for the DeathBan, or null if in UUID mode and the ban has no
+     *         UUID
+     */
+    protected String getKey(DeathBan ban) {
+        if (getConfigHelper().isUuidMode()) {
+            return ban.getUniqueId() == null ? null : ban.getUniqueId()
+                    .toString();
+        }
+        return ban.getName().toLowerCase();
+    }
+    
+    /**
+     * Get the String key representing a player. UUID.toString() if in UUID
+     * mode, otherwise it will be the player's name in lower-case.
+     * 
+     * @param player
+     *            Player to get key for
+     * @return Key representing the Player
+     */
+    protected String getKey(OfflinePlayer player) {
+        if (getConfigHelper().isUuidMode()) {
+            return player.getUniqueId().toString();
+        }
+        return player.getName().toLowerCase();
+    }
+    
+    /**
+     * @return the kick queue instance
+     */
+    public KickQueue getKickQueue() {
+        return kickQueue;
+    }
+    
+    /**
+     * @return the login throttle instance
+     */
+    public LoginThrottle getLoginThrottle() {
+        return loginThrottle;
+    }
+    
+    /**
+     * @return the message catalog instance
+     */
+    public MessageCatalog getMessageCatalog() {
+        return messageCatalog;
+    }
+    
+    /**
+     * @return the power watchlist instance
+     */
+    public PowerWatch getPowerWatch() {
+        return powerWatch;
+    }
+    
+    /**
+     * @return the return queue instance
+     */
+    public ReturnQueue getReturnQueue() {
+        return returnQueue;
+    }
+    
+    /**
+     * @return the respawn location cache instance
+     */
+    public SpawnCache getSpawnCache() {
+        return spawnCache;
+    }
+    
+    /**
+     * @return the event trace recorder instance
+     */
+    public TraceRecorder getTraceRecorder() {
+        return traceRecorder;
+    }
+    
+    /**
+     * @return the main-thread tick watchdog instance
+     */
+    public TickWatchdog getWatchdog() {
+        return watchdog;
+    }
+    
+    /**
+     * Check to see if a player has a standing deathban
+     * 
+     * @param player
+     *            The player to check
+     * @return Whether the player has a deathban
+     */
+    protected boolean hasBan(OfflinePlayer player) {
+        return activeBans.contains(getKey(player));
+    }
+    
+    /**
+     * Check for an existing deathban by lookup key
+     * 
+     * @param key
+     *            Key to use for lookup
+     * @return Whether a ban exists for the key
+     */
+    protected boolean hasBanByKey(String key) {
+        return activeBans.contains(key);
+    }
+    
+    /**
+     * Check whether any saved bans, full or journaled, exist on disk.
+     * 
+     * @return Whether there is anything to load
+     */
+    private boolean hasSavedBans() {
+        return shards.exists() || BANS_FILE.exists() || journal.exists()
+                || emergencyDump.exists();
+    }
+    
+    /**
+     * Load previously saved DeathBans from disk, then replay any changes that
+     * were journaled or dumped at the last shutdown. If there were any, or if
+     * the bans came from a bans.yml file of an older version, start a new full
+     * save so that the journals and the old file can be discarded. If it
+     * cannot be started now, autosaves keep trying it in place of their own.
+     * Files are read on the I/O executor, but the server waits for them.
+     * 
+     * @return Successfulness of loading, regardless of the full save
+     */
+    private boolean loadBans() {
+        try {
+            long start = System.currentTimeMillis();
+            final Map<String, DeathBan> loaded = awaitIo("load",
+                    new Callable<Map<String, DeathBan>>() {
+                        @Override
+                        public Map<String, DeathBan> call() throws Exception {
+                            return shards.exists() ? shards.load(Runtime
+                                    .getRuntime().availableProcessors())
+                                    : loadLegacyBans();
+                        }
+                    }, Long.MAX_VALUE);
+            if (shards.exists()) {
+                fancyLog("Read " + loaded.size() + " bans from "
+                        + shards.getCount() + " shards ("
+                        + (System.currentTimeMillis() - start) + "ms)");
+                if (shards.getCount() != getConfigHelper().getShardCount()) {
+                    fancyLog(Level.WARNING, "Bans are stored in "
+                            + shards.getCount() + " shards, but "
+                            + getConfigHelper().getShardCount()
+                            + " are configured. Run '/fdb reshard' to change.");
+                }
+            }
+            int replayed = awaitIo("replay", new Callable<Integer>() {
+                @Override
+                public Integer call() throws IOException {
+                    return journal.replay(loaded)
+                            + emergencyDump.replay(loaded);
+                }
+            }, Long.MAX_VALUE);
+            activeBans.load(loaded);
+            if (replayed > 0 || BANS_FILE.exists()) {
+                if (replayed > 0) {
+                    fancyLog("Replayed " + replayed + " journaled ban changes");
+                }
+                fullSaveNeeded = true;
+                if (!saveAllBans(shards.getCount())) {
+                    fancyLog(Level.WARNING, "Full save of loaded bans will be"
+                            + " retried at the next autosave");
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            getLogger().log(Level.SEVERE, "Bans could not be loaded", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Read DeathBans from the single bans.yml file of an older version, if it
+     * exists.
+     * 
+     * @return Bans by key, which may be empty
+     */
+    private Map<String, DeathBan> loadLegacyBans() {
+        YamlConfiguration bans = BANS_FILE.exists() ? YamlConfiguration
+                .loadConfiguration(BANS_FILE) : new YamlConfiguration();
+        Map<String, DeathBan> loaded = new HashMap<String, DeathBan>();
+        for (String key : bans.getKeys(false)) {
+            ConfigurationSection section = bans.getConfigurationSection(key);
+            UUID uuid = Util.parseUuid(section.getString("uuid", key));
+            loaded.put(key, new DeathBan(section.getString("name"), uuid,
+                    section.getString("faction"), section.getLong("timestamp"),
+                    section.getLong("duration", getConfigHelper()
+                            .getBanDurationMillis()), section.getString(
+                            "policy", BanPolicy.DEFAULT)));
+        }
+        return loaded;
+    }
+    
+    /**
+     * Close all event handlers and command listeners, then null instances to
+     * mark them for garbage collection. Displays elapsed time to console when
+     * finished.
+     */
+    @Override
+    public void onDisable() {
+        long start = Calendar.getInstance().getTimeInMillis();
+        fancyLog("=== DISABLE START ===");
+        if (autosaveTask != null) {
+            autosaveTask.cancel();
+        }
+        long budget = getConfigHelper().getShutdownBudget();
+        final long deadline = System.currentTimeMillis() + budget;
+        fdbCommand.cancelImports();
+        if (!io.awaitIdle(budget)) {
+            fancyLog(Level.WARNING, io.getPending()
+                    + " disk tasks still running at shutdown");
+        }
+        try {
+            if (getConfigHelper().isPersistent()) {
+                awaitIo("flush", new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        flushBans(deadline);
+                        return null;
+                    }
+                }, deadline);
+            } else if (loadFailed) {
+                fancyLog(Level.WARNING, "Left the saved bans files in place,"
+                        + " as they could not be loaded");
+            } else if (hasSavedBans()) {
+                awaitIo("delete", new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        shards.delete();
+                        BANS_FILE.delete();
+                        journal.delete();
+                        emergencyDump.delete();
+                        return null;
+                    }
+                }, deadline);
+                fancyLog("Cleaned up leftover bans files");
+            }
+        } catch (TimeoutException e) {
+            fancyLog(Level.WARNING, "Shutdown budget exceeded, leaving disk"
+                    + " tasks to finish in the background");
+        } catch (Exception e) {
+            fancyLog(Level.SEVERE, "Bans could not be saved at shutdown: "
+                    + e.getMessage());
+        }
+        activeBans.setIoExecutor(null);
+        io.shutdown(budget);
+        io = null;
+        pendingSave = null;
+        playerListener.close();
+        playerListener = null;
+        factionLockout.cancel();
+        factionLockout.close();
+        factionLockout = null;
+        kickQueue.cancel();
+        kickQueue.drain();
+        kickQueue = null;
+        returnQueue.cancel();
+        returnQueue.close();
+        returnQueue = null;
+        powerWatch.close();
+        powerWatch = null;
+        broadcastGroups.close();
+        broadcastGroups = null;
+        exemptionCache.close();
+        exemptionCache = null;
+        watchdog.cancel();
+        watchdog = null;
+        spawnCache.close();
+        spawnCache = null;
+        traceRecorder.cancel();
+        traceRecorder.close();
+        traceRecorder = null;
+        fdbCommand.close();
+        fdbCommand = null;
+        getServer().getServicesManager().unregisterAll(this);
+        messageCatalog.close();
+        messageCatalog = null;
+        configHelper = null;
+        loginThrottle.cancel();
+        loginThrottle = null;
+        activeBans.close();
+        activeBans = null;
+        fancyLog("=== DISABLE COMPLETE ("
+                + (Calendar.getInstance().getTimeInMillis() - start)
+                + "ms) ===");
+    }
+    
+    /**
+     * Set up the plugin by: loading config.yml (creating from default if not
+     * existent), then instantiating its own ConfigHelper, FdbCommand, and
+     * PlayerListener objects. Displays elapsed time to console when finished.
+     */
+    @Override
+    public void onEnable() {
+        long start = Calendar.getInstance().getTimeInMillis();
+        fancyLog("=== ENABLE START ===");
+        File configFile = new File(getDataFolder(), "config.yml");
+        if (!configFile.exists()) {
+            saveDefaultConfig();
+            fancyLog("Saved default config.yml");
+        }
+        
+        activeBans = new BanRegistry(getLogger(), new ColdStore(new File(
+                getDataFolder(), "bans.cold")));
+        configHelper = new ConfigHelper(this);
+        io = new IoExecutor(getLogger(), configHelper.getIoThreads(),
+                configHelper.getIoQueueSize());
+        fancyLog("Disk I/O on "
+                + (io.isVirtual() ? "virtual threads" : "a thread pool"));
+        activeBans.setIoExecutor(io);
+        shards = new BanShards(new File(getDataFolder(), "bans"),
+                configHelper.getShardCount());
+        activeBans.setHotLimit(configHelper.getHotTierSize());
+        messageCatalog = new MessageCatalog(this);
+        loginThrottle = new LoginThrottle(this);
+        loginThrottle.runTaskTimerAsynchronously(this, 20, 20);
+        kickQueue = new KickQueue(this);
+        kickQueue.runTaskTimer(this, 1, 1);
+        spawnCache = new SpawnCache(this);
+        watchdog = new TickWatchdog(this);
+        watchdog.runTaskTimer(this, 1, 1);
+        traceRecorder = new TraceRecorder(this);
+        traceRecorder.configure();
+        traceRecorder.runTaskTimerAsynchronously(this, 20, 20);
+        exemptionCache = new ExemptionCache(this);
+        playerListener = new PlayerListener(this);
+        factionLockout = new FactionLockout(this);
+        factionLockout.runTaskTimer(this, 20, 20);
+        powerWatch = new PowerWatch(this);
+        broadcastGroups = new BroadcastGroups(this);
+        if (getConfigHelper().isPersistent()) {
+            if (hasSavedBans() && loadBans()) {
+                fancyLog("Loaded saved bans from disk");
+                autosaveTask = getServer().getScheduler().runTaskTimer(this,
+                        new Autosave(), AUTOSAVE_PERIOD, AUTOSAVE_PERIOD);
+                fancyLog("Scheduled autosave task");
+            } else if (hasSavedBans()) {
+                fancyLog(Level.SEVERE, "Failed to load bans from disk");
+                loadFailed = true;
+                getConfigHelper().setPersistent(false);
+                fancyLog(Level.SEVERE, "Persistence and autosaving have been "
+                        + "disabled this time, to allow you to fix the issue.");
+            } else {
+                autosaveTask = getServer().getScheduler().runTaskTimer(this,
+                        new Autosave(), AUTOSAVE_PERIOD, AUTOSAVE_PERIOD);
+                fancyLog("Scheduled autosave task");
+            }
+        }
+        returnQueue = new ReturnQueue(this);
+        returnQueue.runTaskTimer(this, 1, 1);
+        fdbCommand = new FdbCommand(this);
+        getServer().getServicesManager().register(DeathBanService.class,
+                activeBans, this, ServicePriority.Normal);
+        fancyLog("Registered DeathBanService");
+        startMetrics();
+        fancyLog("=== ENABLE COMPLETE ("
+                + (Calendar.getInstance().getTimeInMillis() - start)
+                + "ms) ===");
+    }
+    
+    /**
+     * Store an existing DeathBan under a key, replacing any DeathBan already
+     * there.
+     * 
+     * @param key
+     *            Key to store the DeathBan under
+     * @param ban
+     *            The DeathBan
+     */
+    protected void putBanByKey(String key, DeathBan ban) {
+        activeBans.put(key, ban);
+        loginThrottle.forget(key);
+    }
+    
+    /**
+     * Move DeathBans to new keys, such as after a change of key mode, and
+     * save the result if persistence is enabled.
+     * 
+     * @param renames
+     *            New key for each old key that should change
+     * @return Number of DeathBans dropped because they shared a new key with
+     *         a newer DeathBan
+     */
+    protected int rekeyBans(Map<String, String> renames) {
+        int dropped = activeBans.rekey(renames);
+        returnQueue.reset();
+        for (String key : renames.keySet()) {
+            loginThrottle.forget(key);
+        }
+        if (getConfigHelper().isPersistent()) {
+            saveBans();
+        }
+        return dropped;
+    }
+    
+    /**
+     * Reload the configuration from disk and perform any necessary functions.
+     * Displays elapsed time to console when finished.
+     */
+    public void reload() {
+        long watchdogStart = watchdog.start();
+        long start = Calendar.getInstance().getTimeInMillis();
+        fancyLog("=== RELOAD START ===");
+        boolean persistence = getConfigHelper().isPersistent();
+        reloadConfig();
+        getConfigHelper().setPersistent(persistence);
+        fancyLog("Configuration reloaded from disk");
+        configHelper.updateCache();
+        messageCatalog.load();
+        activeBans.setHotLimit(configHelper.getHotTierSize());
+        spawnCache.refresh();
+        traceRecorder.configure();
+        factionLockout.refresh();
+        exemptionCache.clear();
+        powerWatch.refresh();
+        broadcastGroups.refresh();
+        returnQueue.reset();
+        fancyLog("Cache updated");
+        fancyLog("=== RELOAD COMPLETE ("
+                + (Calendar.getInstance().getTimeInMillis() - start)
+                + "ms) ===");
+        watchdog.stop(TickWatchdog.RELOAD, watchdogStart);
+    }
+    
+    /**
+     * Remove and return a DeathBan for a player
+     * 
+     * @param player
+     *            Player to look up
+     * @return DeathBan on file, or null if none exists
+     */
+    protected DeathBan removeBan(OfflinePlayer player) {
+        return removeBanByKey(getKey(player));
+    }
+    
+    /**
+     * Remove and return a DeathBan for a certain String key
+     * 
+     * @param key
+     *            Specific String key to look up
+     * @return DeathBan on file, or null if none exists
+     */
+    protected DeathBan removeBanByKey(String key) {
+        DeathBan ban = activeBans.remove(key);
+        if (ban != null) {
+            loginThrottle.forget(key);
+        }
+        return ban;
+    }
+    
+    /**
+     * Start rewriting every saved DeathBan into the configured number of
+     * shards.
+     * 
+     * @return Whether the rewrite was started
+     */
+    protected boolean reshardBans() {
+        return saveAllBans(getConfigHelper().getShardCount());
+    }
+    
+    /**
+     * Start writing every active DeathBan to a complete set of shards on the
+     * I/O executor, replacing the saved shards, journals, and any bans.yml
+     * file of an older version.
+     * 
+     * @param count
+     *            Number of shards to write
+     * @return Whether the save was started
+     */
+    private boolean saveAllBans(final int count) {
+        return startSave("save-all", new SaveTask() {
+            @Override
+            public void write(Map<String, DeathBan> bans, List<String> keys)
+                    throws IOException {
+                int from = shards.getCount();
+                shards.reshard(bans, count);
+                BANS_FILE.delete();
+                fullSaveNeeded = false;
+                if (from != count) {
+                    getLogger().info(
+                            "Resharded bans from " + from + " to " + count
+                                    + " shards");
+                }
+            }
+        });
+    }
+    
+    /**
+     * Start saving currently active DeathBans on the I/O executor, rewriting
+     * only the shards that hold bans changed since the last save. If replayed
+     * or converted bans still need a full save, that is started instead, so
+     * that the journals holding them are not deleted before they are saved.
+     * 
+     * @return Whether the save was started
+     */
+    private boolean saveBans() {
+        if (fullSaveNeeded) {
+            return saveAllBans(shards.getCount());
+        }
+        if (activeBans.getChangedKeys().isEmpty()) {
+            return true;
+        }
+        return startSave("save", new SaveTask() {
+            @Override
+            public void write(Map<String, DeathBan> bans, List<String> keys)
+                    throws IOException {
+                shards.save(bans, keys);
+            }
+        });
+    }
+    
+    /**
+     * Freeze the active DeathBans and start writing them on the I/O executor.
+     * The changed keys are only marked saved once the write has finished, and
+     * only if they have not changed again since the bans were frozen, so a
+     * failed or unfinished write loses nothing. A successful write supersedes
+     * the journals, which are then deleted, unless they were flushed again
+     * while it ran. Only one save runs at a time, so an older copy can never
+     * overwrite a newer one.
+     * 
+     * @param name
+     *            Name to record the task's statistics under
+     * @param save
+     *            Writes the copied bans
+     * @return Whether the save was started
+     */
+    private boolean startSave(String name, final SaveTask save) {
+        if (pendingSave != null && !pendingSave.isDone()) {
+            fancyLog(Level.WARNING, "Previous save still running, skipped "
+                    + name);
+            return false;
+        }
+        final BanRegistry registry = activeBans;
+        final Map<String, DeathBan> bans = registry.freeze();
+        final List<String> keys = registry.getChangedKeys();
+        final long through = registry.getChangeCount();
+        final long generation;
+        synchronized (journal) {
+            generation = journalGeneration;
+        }
+        pendingSave = io.trySubmit(name, new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                save.write(bans, keys);
+                registry.markSaved(keys, through);
+                synchronized (journal) {
+                    if (journalGeneration == generation) {
+                        journal.delete();
+                        emergencyDump.delete();
+                    }
+                }
+                return null;
+            }
+        });
+        if (pendingSave == null) {
+            fancyLog(Level.WARNING, "Disk I/O queue is full, skipped " + name);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * If possible, instantiate Metrics and connect with mcstats.org
+     */
+    private void startMetrics() {
+        MetricsLite metrics;
+        try {
+            metrics = new MetricsLite(this);
+            if (metrics.start()) {
+                fancyLog("Metrics enabled.");
+            }
+        } catch (IOException e) {
+            fancyLog(Level.WARNING, "Metrics exception: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Write the changed bans for {@link #flushBans(long)}, which must hold the
+     * journal lock.
+     * 
+     * @param deadline
+     *            Time by which to stop journaling, in milliseconds since the
+     *            epoch
+     */
+    private void writeJournals(long deadline) {
+        long start = System.currentTimeMillis();
+        List<String> keys = activeBans.getChangedKeys();
+        if (keys.isEmpty()) {
+            fancyLog("No ban changes to save");
+            return;
+        }
+        Map<String, DeathBan> bans = activeBans.freeze();
+        int written = 0;
+        try {
+            written = journal.append(keys, bans, deadline);
+            fancyLog("Saved " + written + " of " + keys.size()
+                    + " ban changes to journal ("
+                    + (System.currentTimeMillis() - start) + "ms)");
+        } catch (IOException e) {
+            fancyLog(Level.SEVERE,
+                    "Ban journal could not be written: " + e.getMessage());
+        } catch (ColdStoreException e) {
+            fancyLog(Level.SEVERE,
+                    "Ban journal could not be written: " + e.getMessage());
+        }
+        if (written < keys.size()) {
+            List<String> remaining = keys.subList(written, keys.size());
+            try {
+                emergencyDump.append(remaining, bans, Long.MAX_VALUE);
+                fancyLog(Level.WARNING, "Shutdown budget exceeded, dumped "
+                        + remaining.size() + " ban changes to emergency file");
+            } catch (IOException e) {
+                fancyLog(Level.SEVERE, remaining.size()
+                        + " ban changes could not be saved: " + e.getMessage());
+            } catch (ColdStoreException e) {
+                fancyLog(Level.SEVERE, remaining.size()
+                        + " ban changes could not be saved: " + e.getMessage());
+            }
+        }
+    }
+    
+}
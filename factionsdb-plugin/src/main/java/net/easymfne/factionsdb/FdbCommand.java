@@ -0,0 +1,528 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.lang.StringUtils;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+
+import com.massivecraft.factions.entity.Faction;
+
+/**
+ * The class that handles the "/factionsdb" command for the plugin.
+ * 
+ * @author Eric Hildebrand
+ */
+public class FdbCommand implements CommandExecutor, TabCompleter {
+    
+    /* Subcommands, in alphabetical order for completion */
+    private static final List<String> SUBCOMMANDS = Arrays.asList("atrisk",
+            "export", "faction", "import", "list", "migrate", "pardon",
+            "reload", "reshard", "stats");
+    
+    /* Maximum number of player names offered by tab completion */
+    private static final int MAX_COMPLETIONS = 20;
+    
+    private FactionsDB plugin = null;
+    private NameTrie bannedNames = null;
+    private KeyMigration migration = null;
+    private List<BanImport> imports = null;
+    
+    /**
+     * Initialize by instantiating reference to the plugin and registering this
+     * class to handle the '/factionsdb' command. The names of existing bans
+     * are indexed for tab completion, and the index is kept up to date by
+     * listening to the ban registry.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public FdbCommand(FactionsDB plugin) {
+        this.plugin = plugin;
+        bannedNames = new NameTrie();
+        imports = new ArrayList<BanImport>();
+        for (DeathBan ban : plugin.getBans()) {
+            bannedNames.add(ban.getName());
+        }
+        plugin.getBanRegistry().addListener(bannedNames);
+        plugin.getCommand("factionsdb").setExecutor(this);
+        plugin.getCommand("factionsdb").setTabCompleter(this);
+    }
+    
+    /**
+     * Cancel every running import, so that none is left waiting for the
+     * main thread while the plugin is being disabled.
+     */
+    public void cancelImports() {
+        for (BanImport running : imports) {
+            running.cancel();
+        }
+        imports.clear();
+    }
+    
+    /**
+     * Release the '/factionsdb' command from its ties to this class.
+     */
+    public void close() {
+        plugin.getBanRegistry().removeListener(bannedNames);
+        plugin.getCommand("factionsdb").setExecutor(null);
+        plugin.getCommand("factionsdb").setTabCompleter(null);
+    }
+    
+    /**
+     * Format a duration in nanoseconds as milliseconds, for statistics.
+     * 
+     * @param nanos
+     *            Duration in nanoseconds
+     * @return Formatted String, such as "0.125ms"
+     */
+    private String formatNanos(long nanos) {
+        return String.format("%.3fms", nanos / 1000000.0);
+    }
+    
+    /**
+     * Helper method that carries out user commands.
+     * 
+     * Usage: "/fdb reload", "/fdb list", "/fdb pardon <name|*>", "/fdb stats",
+     * "/fdb migrate [dry-run]", "/fdb export <file>",
+     * "/fdb import <file> [keep-newest|overwrite|skip]", "/fdb faction <name>",
+     * "/fdb reshard", "/fdb atrisk"
+     */
+    private boolean handleCommand(CommandSender sender, String[] args) {
+        /* Use case: "/factionsdb atrisk" */
+        if (args.length == 1 && args[0].equalsIgnoreCase("atrisk")) {
+            showAtRisk(sender);
+            return true;
+        }
+        /* Use case: "/factionsdb export <file>" */
+        if (args.length == 2 && args[0].equalsIgnoreCase("export")) {
+            File file = resolveFile(sender, args[1]);
+            if (file != null) {
+                if (submitIo("export", new BanExport(plugin, sender, file,
+                        BanFormat.forFile(file)))) {
+                    sender.sendMessage("Exporting bans to " + file.getName()
+                            + "...");
+                } else {
+                    sender.sendMessage("Disk I/O queue is full, try again.");
+                }
+            }
+            return true;
+        }
+        /* Use case: "/factionsdb faction <name>" */
+        if (args.length == 2 && args[0].equalsIgnoreCase("faction")) {
+            showFaction(sender, args[1]);
+            return true;
+        }
+        /* Use case: "/factionsdb import <file> [strategy]" */
+        if (args.length >= 2 && args.length <= 3
+                && args[0].equalsIgnoreCase("import")) {
+            String strategy = args.length == 3 ? args[2].toLowerCase()
+                    : BanImport.KEEP_NEWEST;
+            if (!BanImport.isStrategy(strategy)) {
+                sender.sendMessage("Unknown merge strategy: " + strategy);
+                return true;
+            }
+            File file = resolveFile(sender, args[1]);
+            if (file == null) {
+                return true;
+            }
+            if (!file.isFile()) {
+                sender.sendMessage("File not found: " + file.getName());
+                return true;
+            }
+            BanImport task = new BanImport(plugin, sender, file,
+                    BanFormat.forFile(file), strategy);
+            if (submitIo("import", task)) {
+                Iterator<BanImport> running = imports.iterator();
+                while (running.hasNext()) {
+                    if (running.next().isDone()) {
+                        running.remove();
+                    }
+                }
+                imports.add(task);
+                sender.sendMessage("Importing bans from " + file.getName()
+                        + " (" + strategy + ")...");
+            } else {
+                sender.sendMessage("Disk I/O queue is full, try again.");
+            }
+            return true;
+        }
+        /* Use case: "/factionsdb list" */
+        if (args.length == 1 && args[0].equalsIgnoreCase("list")) {
+            /* Names come from memory, so cold bans are not read */
+            List<String> names = bannedNames.complete("", Integer.MAX_VALUE);
+            sender.sendMessage("Active deathbans: "
+                    + (names.isEmpty() ? "(none)" : StringUtils.join(names,
+                            ", ")));
+            return true;
+        }
+        /* Use case: "/factionsdb migrate [dry-run]" */
+        if (args.length >= 1 && args.length <= 2
+                && args[0].equalsIgnoreCase("migrate")) {
+            boolean dryRun = args.length == 2;
+            if (dryRun && !args[1].equalsIgnoreCase("dry-run")) {
+                return false;
+            }
+            if (migration != null && !migration.isDone()) {
+                sender.sendMessage("A migration is already running.");
+                return true;
+            }
+            migration = new KeyMigration(plugin, sender, dryRun);
+            migration.start();
+            return true;
+        }
+        /* Use case: "/factionsdb reload" */
+        if (args.length == 1 && args[0].equalsIgnoreCase("reload")) {
+            plugin.reload();
+            sender.sendMessage("Configuration reloaded from disk.");
+            return true;
+        }
+        /* Use case: "/factionsdb reshard" */
+        if (args.length == 1 && args[0].equalsIgnoreCase("reshard")) {
+            if (!plugin.getConfigHelper().isPersistent()) {
+                sender.sendMessage("Persistence is disabled.");
+            } else if (plugin.reshardBans()) {
+                sender.sendMessage("Rewriting bans into "
+                        + plugin.getConfigHelper().getShardCount()
+                        + " shards...");
+            } else {
+                sender.sendMessage("A save is already running or the disk "
+                        + "I/O queue is full, try again.");
+            }
+            return true;
+        }
+        /* Use case: "/factionsdb stats" */
+        if (args.length == 1 && args[0].equalsIgnoreCase("stats")) {
+            showStats(sender);
+            return true;
+        }
+        /* Use case: "/factionsdb pardon <...>" */
+        if (args.length > 1 && args[0].equalsIgnoreCase("pardon")) {
+            List<String> names = new ArrayList<String>();
+            for (int i = 1; i < args.length; i++) {
+                if (args[i].equals("*")) {
+                    names.addAll(pardonAll());
+                } else {
+                    String name = pardonName(args[i]);
+                    if (name != null) {
+                        names.add(name);
+                    }
+                }
+            }
+            sender.sendMessage("Pardoned " + names.size()
+                    + (names.size() == 1 ? " player: " : " players: ")
+                    + StringUtils.join(names, ", "));
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * This method handles user commands, timing them for the watchdog.
+     */
+    @Override
+    public boolean onCommand(CommandSender sender, Command command,
+            String label, String[] args) {
+        long start = plugin.getWatchdog().start();
+        long traceStart = plugin.getTraceRecorder().start();
+        try {
+            return handleCommand(sender, args);
+        } finally {
+            plugin.getWatchdog().stop(TickWatchdog.COMMAND, start);
+            if (traceStart != 0) {
+                plugin.getTraceRecorder().record(TraceRecorder.COMMAND, null,
+                        System.nanoTime() - traceStart, (byte) 0);
+            }
+        }
+    }
+    
+    /**
+     * This method completes subcommands, banned player names for pardons, and
+     * the fixed options of other subcommands.
+     */
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command,
+            String alias, String[] args) {
+        String prefix = args.length == 0 ? "" : args[args.length - 1];
+        if (args.length <= 1) {
+            return startingWith(SUBCOMMANDS, prefix);
+        }
+        String subcommand = args[0].toLowerCase();
+        if (subcommand.equals("pardon")) {
+            List<String> names = bannedNames.complete(prefix, MAX_COMPLETIONS);
+            if ("*".startsWith(prefix)) {
+                names.add(0, "*");
+            }
+            return names;
+        }
+        if (subcommand.equals("migrate") && args.length == 2) {
+            return startingWith(Arrays.asList("dry-run"), prefix);
+        }
+        if (subcommand.equals("import") && args.length == 3) {
+            return startingWith(Arrays.asList(BanImport.KEEP_NEWEST,
+                    BanImport.OVERWRITE, BanImport.SKIP), prefix);
+        }
+        return new ArrayList<String>();
+    }
+    
+    /**
+     * Helper method to pardon all standing DeathBans and generate a list for
+     * names of those pardoned.
+     * 
+     * @return Names of the pardoned
+     */
+    private List<String> pardonAll() {
+        List<String> names = new ArrayList<String>();
+        for (Entry<String, DeathBan> ban : plugin.getBanEntries()) {
+            DeathBan deathban = plugin.removeBanByKey(ban.getKey());
+            if (deathban != null) {
+                plugin.getTraceRecorder().record(TraceRecorder.PARDON,
+                        deathban.getUniqueId(), 0, (byte) 0);
+                names.add(deathban.getName());
+            }
+        }
+        return names;
+    }
+    
+    /**
+     * Helper method to pardon a DeathBan based on a String, giving a name back
+     * as a result if a ban was pardoned. Otherwise, returns null.
+     * 
+     * @param name
+     *            Name to use for the pardon
+     * @return Name of the player pardoned, or null
+     */
+    private String pardonName(String name) {
+        /* Only scan the bans, reading the cold ones, if the name is banned */
+        List<String> known = bannedNames.complete(name, 1);
+        if (known.isEmpty() || !known.get(0).equalsIgnoreCase(name)) {
+            return null;
+        }
+        for (Entry<String, DeathBan> ban : plugin.getBanEntries()) {
+            if (ban.getValue().getName().equalsIgnoreCase(name)) {
+                DeathBan result = plugin.removeBanByKey(ban.getKey());
+                if (result != null) {
+                    plugin.getTraceRecorder().record(TraceRecorder.PARDON,
+                            result.getUniqueId(), 0, (byte) 0);
+                    return result.getName();
+                }
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Helper method to resolve an export or import file name within the
+     * plugin's folder, telling the user why if it cannot be used.
+     * 
+     * @param sender
+     *            User who named the file
+     * @param name
+     *            File name, relative to the plugin's folder
+     * @return The file, or null if it is outside the plugin's folder or has
+     *         an unknown format
+     */
+    private File resolveFile(CommandSender sender, String name) {
+        File folder = plugin.getDataFolder();
+        File file = new File(folder, name);
+        try {
+            if (!file.getCanonicalPath().startsWith(
+                    folder.getCanonicalPath() + File.separator)) {
+                sender.sendMessage("File must be inside the plugin folder.");
+                return null;
+            }
+        } catch (IOException e) {
+            sender.sendMessage("Invalid file name: " + name);
+            return null;
+        }
+        if (BanFormat.forFile(file) == null) {
+            sender.sendMessage("File name must end in .csv or .jsonl");
+            return null;
+        }
+        return file;
+    }
+    
+    /**
+     * Helper method to show the players on the power watchlist, from the
+     * closest to their threshold.
+     * 
+     * @param sender
+     *            User to show the watchlist to
+     */
+    private void showAtRisk(CommandSender sender) {
+        PowerWatch watch = plugin.getPowerWatch();
+        if (!watch.isEnabled()) {
+            sender.sendMessage("Warnings are disabled by at-risk.margin.");
+            return;
+        }
+        List<String> entries = new ArrayList<String>();
+        for (PowerWatch.Watched player : watch.getAtRisk()) {
+            entries.add(String.format("%s (%.1f/%.1f)", player.getName(),
+                    player.getPower(), player.getThreshold()));
+        }
+        sender.sendMessage("Players at risk (power/threshold): "
+                + (entries.isEmpty() ? "(none)" : StringUtils.join(entries,
+                        ", ")));
+    }
+    
+    /**
+     * Helper method to show the deathbanned members of a faction, and whether
+     * its land is locked.
+     * 
+     * @param sender
+     *            User to show the faction to
+     * @param name
+     *            Name of the faction
+     */
+    private void showFaction(CommandSender sender, String name) {
+        FactionLockout lockout = plugin.getFactionLockout();
+        Faction faction = lockout.findFactionByName(name);
+        if (faction == null) {
+            sender.sendMessage("Unknown faction: " + name);
+            return;
+        }
+        List<String> names = plugin.getBanRegistry().getFactionIndex()
+                .getMemberNames(faction.getId());
+        sender.sendMessage(faction.getName() + ": " + names.size()
+                + " deathbanned"
+                + (lockout.isLocked(faction) ? ", land locked" : "")
+                + (names.isEmpty() ? "" : " (" + StringUtils.join(names, ", ")
+                        + ")"));
+    }
+    
+    /**
+     * Helper method to show runtime statistics to a user.
+     * 
+     * @param sender
+     *            User to show statistics to
+     */
+    private void showStats(CommandSender sender) {
+        LoginThrottle throttle = plugin.getLoginThrottle();
+        KickQueue kicks = plugin.getKickQueue();
+        BanRegistry bans = plugin.getBanRegistry();
+        long bytes = bans.estimateBytes();
+        sender.sendMessage("Active deathbans: " + bans.getBanCount() + " ("
+                + bytes / 1024 + " KiB"
+                + (bans.getBanCount() > 0 ? ", " + bytes / bans.getBanCount()
+                        + " bytes each" : "") + ")");
+        sender.sendMessage("Login attempts rejected: "
+                + throttle.getRejected() + ", suppressed: "
+                + throttle.getSuppressed() + " (" + throttle.getTracked()
+                + " players tracked)");
+        sender.sendMessage("Kick queue depth: " + kicks.getDepth() + " (peak "
+                + kicks.getPeakDepth() + "), " + kicks.getKicks()
+                + " kicked, last tick " + formatNanos(kicks.getLastTickNanos())
+                + ", peak tick " + formatNanos(kicks.getPeakTickNanos()));
+        PowerWatch watch = plugin.getPowerWatch();
+        if (watch.isEnabled()) {
+            sender.sendMessage("At risk: " + watch.getAtRisk().size()
+                    + " players, " + watch.getWarnings() + " warnings sent");
+        }
+        ExemptionCache exemptions = plugin.getExemptionCache();
+        sender.sendMessage("Exemption cache: " + exemptions.getSize()
+                + " players, " + exemptions.getHits() + " hits, "
+                + exemptions.getMisses() + " permission checks");
+        ReturnQueue returns = plugin.getReturnQueue();
+        sender.sendMessage("Returns: " + returns.getReturns() + " ("
+                + returns.getPreparedReturns() + " prepared ahead), "
+                + returns.getPreparedCount() + " waiting for their players, "
+                + returns.getBoostCount() + " power boosts queued (peak "
+                + returns.getPeakBoostCount() + ")");
+        if (bans.getHotLimit() > 0) {
+            sender.sendMessage("Hot tier: " + bans.getHotCount() + " of "
+                    + bans.getHotLimit() + ", cold tier: "
+                    + bans.getColdCount() + " ("
+                    + bans.getColdFileLength() / 1024 + " KiB on disk)");
+        }
+        sender.sendMessage("Ban lookups: " + bans.getHotHits() + " hot, "
+                + bans.getPageIns() + " paged in, " + bans.getMisses()
+                + " not banned");
+        FactionIndex factions = bans.getFactionIndex();
+        sender.sendMessage("Faction index: " + factions.size()
+                + " standing bans in " + factions.getFactionCount()
+                + " factions, " + plugin.getFactionLockout().getLockedCount()
+                + " locked");
+        TraceRecorder trace = plugin.getTraceRecorder();
+        if (trace.isEnabled()) {
+            sender.sendMessage("Trace: " + trace.getRecorded()
+                    + " events written, " + trace.getDropped() + " dropped");
+        }
+        IoExecutor io = plugin.getIoExecutor();
+        sender.sendMessage("Disk I/O: "
+                + (io.isVirtual() ? "virtual threads" : "thread pool") + ", "
+                + io.getPending() + " of " + io.getCapacity()
+                + " tasks pending, " + io.getRejected() + " refused");
+        for (Entry<String, IoExecutor.TaskStats> task : io.getStats()
+                .entrySet()) {
+            IoExecutor.TaskStats stats = task.getValue();
+            sender.sendMessage("  " + task.getKey() + ": " + stats.getRuns()
+                    + " runs, mean " + formatNanos(stats.getMeanNanos())
+                    + ", max " + formatNanos(stats.getMaxNanos()) + ", "
+                    + stats.getFailures() + " failed");
+        }
+        TickWatchdog watchdog = plugin.getWatchdog();
+        if (watchdog.isEnabled()) {
+            sender.sendMessage("Main-thread time: "
+                    + formatNanos(watchdog.getWindowNanos())
+                    + " in the last second, "
+                    + watchdog.getOverBudgetTotal() + " ticks over budget");
+        }
+    }
+    
+    /**
+     * Helper method to filter fixed options by a typed prefix, ignoring case.
+     * 
+     * @param options
+     *            Options to filter
+     * @param prefix
+     *            Typed prefix
+     * @return Matching options
+     */
+    private List<String> startingWith(List<String> options, String prefix) {
+        List<String> matches = new ArrayList<String>();
+        for (String option : options) {
+            if (option.regionMatches(true, 0, prefix, 0, prefix.length())) {
+                matches.add(option);
+            }
+        }
+        return matches;
+    }
+    
+    /**
+     * Run a task on the plugin's disk I/O executor, if it has room.
+     * 
+     * @param name
+     *            Name to record the task's statistics under
+     * @param task
+     *            The task
+     * @return Whether the task was accepted
+     */
+    private boolean submitIo(String name, Runnable task) {
+        return plugin.getIoExecutor().trySubmit(name,
+                Executors.callable(task)) != null;
+    }
+}
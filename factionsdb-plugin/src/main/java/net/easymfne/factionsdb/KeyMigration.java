@@ -0,0 +1,249 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import org.apache.commons.lang.StringUtils;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+
+/**
+ * Re-keys every ban for the configured key mode, so that switching
+ * 'uuid-mode' does not orphan existing bans. Switching to name mode only
+ * needs each ban's stored name. Switching to UUID mode uses the ban's stored
+ * UUID, or else that of the player with the ban's name in a snapshot of the
+ * server's known offline players. Bans matching neither are not guessed at,
+ * but left under their old key and listed for the user.
+ * 
+ * The new keys are planned off the main thread, as the bans may need paging
+ * in from disk, then applied in one step on the main thread. Bans that
+ * changed in the meantime are left as they are.
+ */
+public class KeyMigration implements Runnable {
+    
+    /* Minimum time between progress reports, in milliseconds */
+    private static final long REPORT_INTERVAL = 2000;
+    
+    private FactionsDB plugin = null;
+    private final CommandSender sender;
+    private final boolean dryRun;
+    private final boolean uuidMode;
+    private final Map<String, DeathBan> bans;
+    private final Map<String, String> renames;
+    private final Map<String, UUID> known;
+    private final Set<String> unresolved;
+    private volatile boolean done = false;
+    
+    /**
+     * Prepare a migration to the currently configured key mode.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     * @param sender
+     *            User to report progress to
+     * @param dryRun
+     *            Whether to only report what would change
+     */
+    public KeyMigration(FactionsDB plugin, CommandSender sender,
+            boolean dryRun) {
+        this.plugin = plugin;
+        this.sender = sender;
+        this.dryRun = dryRun;
+        uuidMode = plugin.getConfigHelper().isUuidMode();
+        bans = plugin.getBanRegistry().freeze();
+        renames = new HashMap<String, String>();
+        known = new HashMap<String, UUID>();
+        unresolved = new TreeSet<String>();
+    }
+    
+    /**
+     * Count the bans that would share a new key with another ban.
+     * 
+     * @return Number of bans that would be merged away
+     */
+    private int countCollisions() {
+        Set<String> keys = new HashSet<String>();
+        int collisions = 0;
+        for (String key : bans.keySet()) {
+            String renamed = renames.get(key);
+            if (!keys.add(renamed != null ? renamed : key)) {
+                collisions++;
+            }
+        }
+        return collisions;
+    }
+    
+    /**
+     * Apply the planned keys to the registry, or report them if this is a dry
+     * run. Must be called on the main server thread.
+     */
+    private void finish() {
+        done = true;
+        if (plugin.getConfigHelper().isUuidMode() != uuidMode) {
+            report("Migration aborted: uuid-mode changed while running.");
+            return;
+        }
+        String target = uuidMode ? "UUID" : "name";
+        if (dryRun) {
+            report("Dry run: " + renames.size() + " of " + bans.size()
+                    + " bans would be re-keyed to " + target + " mode, "
+                    + countCollisions() + " would be merged.");
+        } else {
+            /* Skip bans that were pardoned or replaced since the snapshot */
+            Map<String, String> applied = new HashMap<String, String>();
+            for (Entry<String, String> rename : renames.entrySet()) {
+                DeathBan current = plugin.getBanByKey(rename.getKey());
+                if (current != null
+                        && current.getTimestamp() == bans.get(rename.getKey())
+                                .getTimestamp()) {
+                    applied.put(rename.getKey(), rename.getValue());
+                }
+            }
+            int dropped;
+            try {
+                dropped = plugin.rekeyBans(applied);
+            } catch (ColdStoreException e) {
+                report("Migration aborted: " + e.getMessage());
+                return;
+            }
+            report("Re-keyed " + applied.size() + " of " + bans.size()
+                    + " bans to " + target + " mode, " + dropped
+                    + " merged into newer bans.");
+        }
+        if (!unresolved.isEmpty()) {
+            report("No UUID found for " + unresolved.size() + " players: "
+                    + StringUtils.join(unresolved, ", "));
+        }
+    }
+    
+    /**
+     * @return Whether the migration has finished or been aborted
+     */
+    public boolean isDone() {
+        return done;
+    }
+    
+    /**
+     * Work out the new key for a ban. In UUID mode, the ban's own UUID is
+     * used if it has one, otherwise that of the known player with its name.
+     * Bans matching neither are left as they are and reported.
+     * 
+     * @param key
+     *            Current key of the ban
+     * @param ban
+     *            The ban
+     */
+    private void plan(String key, DeathBan ban) {
+        if (!uuidMode) {
+            rename(key, ban.getName().toLowerCase());
+            return;
+        }
+        UUID uuid = ban.getUniqueId();
+        if (uuid == null) {
+            uuid = known.get(ban.getName().toLowerCase());
+        }
+        if (uuid != null) {
+            rename(key, uuid.toString());
+        } else {
+            unresolved.add(ban.getName());
+        }
+    }
+    
+    /**
+     * Record the new key for a ban, if it differs from the old one.
+     */
+    private void rename(String key, String target) {
+        if (!key.equals(target)) {
+            renames.put(key, target);
+        }
+    }
+    
+    /**
+     * Send a message to the user on the main server thread, and log it.
+     * 
+     * @param message
+     *            Message to send
+     */
+    private void report(final String message) {
+        plugin.getLogger().info(message);
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                sender.sendMessage(message);
+            }
+        });
+    }
+    
+    /**
+     * Work out the new key of every ban, reporting progress, then schedule
+     * the switchover on the main thread. Runs off the main thread, as reading
+     * each ban may page it in from disk.
+     */
+    @Override
+    public void run() {
+        long reported = System.currentTimeMillis();
+        int planned = 0;
+        try {
+            for (Entry<String, DeathBan> entry : bans.entrySet()) {
+                plan(entry.getKey(), entry.getValue());
+                planned++;
+                if (System.currentTimeMillis() - reported >= REPORT_INTERVAL) {
+                    reported = System.currentTimeMillis();
+                    report("Planned " + planned + " of " + bans.size()
+                            + " bans...");
+                }
+            }
+        } catch (ColdStoreException e) {
+            done = true;
+            report("Migration aborted after planning " + planned + " of "
+                    + bans.size() + " bans: " + e.getMessage());
+            return;
+        }
+        plugin.getServer().getScheduler().runTask(plugin, new Runnable() {
+            @Override
+            public void run() {
+                finish();
+            }
+        });
+    }
+    
+    /**
+     * Take a snapshot of the server's known players, then plan the new keys
+     * off the main thread. Must be called on the main server thread.
+     */
+    public void start() {
+        if (uuidMode) {
+            OfflinePlayer[] players = plugin.getServer().getOfflinePlayers();
+            for (OfflinePlayer player : players) {
+                if (player.getName() != null && player.getUniqueId() != null) {
+                    known.put(player.getName().toLowerCase(),
+                            player.getUniqueId());
+                }
+            }
+        }
+        sender.sendMessage((dryRun ? "Planning" : "Starting")
+                + " migration of " + bans.size() + " bans to "
+                + (uuidMode ? "UUID" : "name") + " mode.");
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this);
+    }
+    
+}
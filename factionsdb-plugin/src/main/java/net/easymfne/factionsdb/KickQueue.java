@@ -0,0 +1,150 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.LinkedList;
+import java.util.Queue;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Task that runs every tick, spreading the kicks (and broadcasts) of new
+ * deathbans across ticks so that a large fight does not kick every banned
+ * player in the same tick. A limited number of DeathBanners are run each tick,
+ * plus any that have waited for the maximum delay. Bans themselves are
+ * registered immediately, so queued players still cannot rejoin.
+ */
+public class KickQueue extends BukkitRunnable {
+    
+    /**
+     * A queued DeathBanner and the tick it was queued on.
+     */
+    private static class Pending {
+        
+        private final DeathBanner banner;
+        private final long tick;
+        
+        private Pending(DeathBanner banner, long tick) {
+            this.banner = banner;
+            this.tick = tick;
+        }
+        
+    }
+    
+    private FactionsDB plugin = null;
+    private final Queue<Pending> queue;
+    private long tick = 0;
+    
+    /* Statistics */
+    private long kicks = 0;
+    private long lastTickNanos = 0;
+    private long peakTickNanos = 0;
+    private int peakDepth = 0;
+    
+    /**
+     * Instantiate a reference to the plugin, which provides the configured
+     * kicks per tick and maximum delay.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public KickQueue(FactionsDB plugin) {
+        this.plugin = plugin;
+        queue = new LinkedList<Pending>();
+    }
+    
+    /**
+     * Queue a DeathBanner to be run on a later tick.
+     * 
+     * @param banner
+     *            DeathBanner to run
+     */
+    public void add(DeathBanner banner) {
+        queue.add(new Pending(banner, tick));
+        peakDepth = Math.max(peakDepth, queue.size());
+    }
+    
+    /**
+     * Run every queued DeathBanner immediately, such as when the plugin is
+     * being disabled.
+     */
+    public void drain() {
+        while (!queue.isEmpty()) {
+            queue.poll().banner.run();
+            kicks++;
+        }
+    }
+    
+    /**
+     * @return Number of DeathBanners waiting to run
+     */
+    public int getDepth() {
+        return queue.size();
+    }
+    
+    /**
+     * @return Total number of DeathBanners run
+     */
+    public long getKicks() {
+        return kicks;
+    }
+    
+    /**
+     * @return Time spent running DeathBanners in the last tick that ran any,
+     *         in nanoseconds
+     */
+    public long getLastTickNanos() {
+        return lastTickNanos;
+    }
+    
+    /**
+     * @return Largest number of DeathBanners waiting at once
+     */
+    public int getPeakDepth() {
+        return peakDepth;
+    }
+    
+    /**
+     * @return Most time spent running DeathBanners in a single tick, in
+     *         nanoseconds
+     */
+    public long getPeakTickNanos() {
+        return peakTickNanos;
+    }
+    
+    /**
+     * Run up to the configured number of queued DeathBanners, plus any that
+     * have waited for the configured maximum delay.
+     */
+    @Override
+    public void run() {
+        tick++;
+        if (queue.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        int budget = plugin.getConfigHelper().getKicksPerTick();
+        long overdue = tick - plugin.getConfigHelper().getMaxKickDelay();
+        while (!queue.isEmpty()
+                && (budget > 0 || queue.peek().tick <= overdue)) {
+            queue.poll().banner.run();
+            kicks++;
+            budget--;
+        }
+        lastTickNanos = System.nanoTime() - start;
+        peakTickNanos = Math.max(peakTickNanos, lastTickNanos);
+    }
+    
+}
@@ -0,0 +1,225 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Remembers recent login rejections of banned players, so that repeated
+ * attempts can be rejected with a cached message instead of repeating the
+ * ban lookup and message formatting. Each key has a token bucket: attempts
+ * within the bucket are ordinary rejections, whose message is re-rendered at
+ * most once per second, while attempts beyond it are suppressed and simply
+ * given the last message.
+ * 
+ * Methods may be called from any thread. As a task, it runs every second to
+ * sweep out the entries of bans that have run out, for keys that never tried
+ * to log in again.
+ */
+public class LoginThrottle extends BukkitRunnable {
+    
+    /**
+     * Throttle state for a single banned key.
+     */
+    private static class Entry {
+        
+        private final DeathBan ban;
+        private final long deadline;
+        private double tokens;
+        private long refilled;
+        private volatile String message;
+        private volatile long renderedAt;
+        
+        private Entry(DeathBan ban, double tokens, long now) {
+            this.ban = ban;
+            this.deadline = ban.getTimestamp() + ban.getDuration();
+            this.tokens = tokens;
+            this.refilled = now;
+        }
+        
+        /**
+         * Refill the bucket for the time elapsed, then try to take a token.
+         */
+        private synchronized boolean tryAcquire(long now, int burst,
+                double perMilli) {
+            tokens = Math.min(burst, tokens + (now - refilled) * perMilli);
+            refilled = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+        
+    }
+    
+    /* Minimum time between renderings of a key's message, in milliseconds */
+    private static final long RENDER_INTERVAL = 1000;
+    
+    /**
+     * Check whether two bans are the same ban. Bans are compared by the time
+     * they were issued, as the registry creates a new object for each lookup.
+     */
+    private static boolean isSameBan(DeathBan a, DeathBan b) {
+        return a != null && b != null && a.getTimestamp() == b.getTimestamp();
+    }
+    
+    private FactionsDB plugin = null;
+    private final ConcurrentMap<String, Entry> entries;
+    private final AtomicLong rejected;
+    private final AtomicLong suppressed;
+    
+    /**
+     * Instantiate a reference to the plugin, which provides the configured
+     * burst size and refill rate.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public LoginThrottle(FactionsDB plugin) {
+        this.plugin = plugin;
+        entries = new ConcurrentHashMap<String, Entry>();
+        rejected = new AtomicLong();
+        suppressed = new AtomicLong();
+    }
+    
+    /**
+     * Check whether a login attempt can be rejected from the cache. Returns
+     * null if the key has no recent rejection, if its ban has run out, or if
+     * its message is due to be re-rendered; the caller should then check the
+     * ban itself and call {@link #record(String, DeathBan, String, long)}.
+     * 
+     * @param key
+     *            Ban key of the player logging in
+     * @param now
+     *            Current time in milliseconds since epoch
+     * @return Cached rejection message, or null
+     */
+    public String check(String key, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (now >= entry.deadline) {
+            entries.remove(key, entry);
+            return null;
+        }
+        ConfigHelper config = plugin.getConfigHelper();
+        if (entry.tryAcquire(now, config.getThrottleBurst(),
+                config.getThrottleRate())) {
+            if (now - entry.renderedAt >= RENDER_INTERVAL) {
+                return null;
+            }
+            rejected.incrementAndGet();
+        } else {
+            suppressed.incrementAndGet();
+        }
+        return entry.message;
+    }
+    
+    /**
+     * Forget any cached rejection for a key, because its ban was added,
+     * replaced, or removed.
+     * 
+     * @param key
+     *            Ban key
+     */
+    public void forget(String key) {
+        entries.remove(key);
+    }
+    
+    /**
+     * @return Number of attempts rejected while tokens were available
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+    
+    /**
+     * @return Number of attempts rejected after running out of tokens
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+    
+    /**
+     * @return Number of keys with a recent rejection
+     */
+    public int getTracked() {
+        return entries.size();
+    }
+    
+    /**
+     * Record a login attempt that was rejected after checking the ban, caching
+     * the rendered message for later attempts.
+     * 
+     * @param key
+     *            Ban key of the player logging in
+     * @param ban
+     *            The ban that caused the rejection
+     * @param message
+     *            Rendered rejection message
+     * @param now
+     *            Current time in milliseconds since epoch
+     */
+    public void record(String key, DeathBan ban, String message, long now) {
+        Entry entry = entries.get(key);
+        if (entry == null || !isSameBan(entry.ban, ban)) {
+            entry = new Entry(ban,
+                    plugin.getConfigHelper().getThrottleBurst() - 1, now);
+            entries.put(key, entry);
+        }
+        entry.message = message;
+        entry.renderedAt = now;
+        rejected.incrementAndGet();
+        /* The ban may have been pardoned while the message was rendered */
+        if (!isSameBan(plugin.getBanByKey(key), ban)) {
+            entries.remove(key, entry);
+        }
+    }
+    
+    /**
+     * Sweep out the entries of bans that have run out.
+     */
+    @Override
+    public void run() {
+        sweep(System.currentTimeMillis());
+    }
+    
+    /**
+     * Remove the entries of bans that have run out by a given time.
+     * 
+     * @param now
+     *            Current time in milliseconds since epoch
+     * @return Number of entries removed
+     */
+    public int sweep(long now) {
+        int removed = 0;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (now >= iterator.next().deadline) {
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+    
+}
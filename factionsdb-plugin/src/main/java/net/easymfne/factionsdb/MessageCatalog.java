@@ -0,0 +1,398 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+
+import org.bukkit.ChatColor;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+
+/**
+ * Per-locale catalogs of the kick, login, broadcast, return, at-risk and
+ * lockout messages, compiled into {@link MessageTemplate}s when loaded. The
+ * default catalog comes from config.yml, and each messages_xx.yml file in the
+ * plugin folder adds a catalog for locale xx (such as 'de' or 'pt_br'),
+ * falling back to the default for messages it leaves out.
+ * 
+ * Each player's client locale is resolved when they join and remembered, so
+ * that later messages, including login rejections, need only a map lookup.
+ * Methods may be called from any thread.
+ */
+public class MessageCatalog implements Listener {
+    
+    /* Message numbers, which index each catalog */
+    public static final int KICK = 0;
+    public static final int LOGIN = 1;
+    public static final int BROADCAST = 2;
+    public static final int RETURN = 3;
+    public static final int AT_RISK = 4;
+    public static final int LOCKOUT = 5;
+    public static final int UNLOCK = 6;
+    public static final int LOCKED_LAND = 7;
+    
+    /* Keys of the messages in the message files */
+    private static final String[] KEYS = { "kick", "login", "broadcast",
+            "return", "at-risk", "lockout", "unlock", "locked-land" };
+    
+    /* Paths of the messages in config.yml */
+    private static final String[] PATHS = { "strings.kick", "strings.login",
+            "strings.broadcast", "strings.return", "at-risk.message",
+            "lockout.message", "lockout.unlock-message",
+            "lockout.denied-message" };
+    
+    /* Locale used for players whose locale is unknown */
+    private static final String DEFAULT = "";
+    
+    private static final String FILE_PREFIX = "messages_";
+    private static final String FILE_SUFFIX = ".yml";
+    
+    private FactionsDB plugin = null;
+    
+    /* Catalogs by configured locale, and by client locale once looked up */
+    private volatile Map<String, MessageTemplate[]> catalogs;
+    private final ConcurrentMap<String, MessageTemplate[]> resolved;
+    
+    /* Last known client locale of each player */
+    private final ConcurrentMap<UUID, String> locales;
+    
+    /* Reflective access to the client locale, found on first use */
+    private volatile Method localeMethod = null;
+    private volatile Method handleMethod = null;
+    private volatile Field localeField = null;
+    private volatile boolean localeUnavailable = false;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance, registering
+     * each of the defined EventHandlers, and loading the catalogs.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public MessageCatalog(FactionsDB plugin) {
+        this.plugin = plugin;
+        resolved = new ConcurrentHashMap<String, MessageTemplate[]>();
+        locales = new ConcurrentHashMap<UUID, String>();
+        load();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+    
+    /**
+     * Send a message about a ban to a group of players and the console. The
+     * message is rendered once for each catalog in use, not once per player.
+     * 
+     * @param message
+     *            Message number, such as {@link #BROADCAST}
+     * @param ban
+     *            The ban
+     * @param recipients
+     *            Players to send the message to
+     */
+    public void broadcast(int message, DeathBan ban,
+            Collection<Player> recipients) {
+        broadcast(message, getValues(ban), recipients);
+    }
+    
+    /**
+     * Send a message that is not about a ban, such as {@link #LOCKOUT}, to a
+     * group of players and the console. The message is rendered once for each
+     * catalog in use, and is not sent to anyone whose catalog leaves it blank.
+     * 
+     * @param message
+     *            Message number
+     * @param values
+     *            Values of the message's tags, by tag number
+     * @param recipients
+     *            Players to send the message to
+     */
+    public void broadcast(int message, String[] values,
+            Collection<Player> recipients) {
+        Map<MessageTemplate[], String> rendered;
+        rendered = new IdentityHashMap<MessageTemplate[], String>();
+        for (Player player : recipients) {
+            MessageTemplate[] catalog = getCatalog(player.getUniqueId());
+            String text = rendered.get(catalog);
+            if (text == null) {
+                text = catalog[message].render(values);
+                rendered.put(catalog, text);
+            }
+            if (text.length() > 0) {
+                player.sendMessage(text);
+            }
+        }
+        String text = catalogs.get(DEFAULT)[message].render(values);
+        if (text.length() > 0) {
+            plugin.getServer().getConsoleSender().sendMessage(text);
+        }
+    }
+    
+    /**
+     * Unregister all registered EventHandlers and forget all locales.
+     */
+    public void close() {
+        HandlerList.unregisterAll(this);
+        resolved.clear();
+        locales.clear();
+    }
+    
+    /**
+     * Compile a catalog from the messages in a configuration, using a
+     * fallback catalog for missing messages.
+     * 
+     * @param config
+     *            Configuration holding the messages
+     * @param paths
+     *            Path of each message in the configuration
+     * @param fallback
+     *            Catalog to fall back to, or null if every message is present
+     * @return The compiled catalog
+     */
+    private MessageTemplate[] compile(ConfigurationSection config,
+            String[] paths, MessageTemplate[] fallback) {
+        MessageTemplate[] catalog = new MessageTemplate[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            String text = config.getString(paths[i]);
+            if (text == null && fallback != null) {
+                catalog[i] = fallback[i];
+            } else {
+                catalog[i] = MessageTemplate.compile(ChatColor
+                        .translateAlternateColorCodes('&',
+                                text == null ? "" : text));
+            }
+        }
+        return catalog;
+    }
+    
+    /**
+     * Look up how to read a player's locale: a getLocale() method on newer
+     * servers, or the locale field of the server's own player object.
+     * 
+     * @param player
+     *            An online player
+     * @throws Exception
+     *             If neither is available
+     */
+    private void findLocaleAccess(Player player) throws Exception {
+        try {
+            Method method = player.getClass().getMethod("getLocale");
+            if (method.getReturnType() == String.class) {
+                localeMethod = method;
+                return;
+            }
+        } catch (NoSuchMethodException e) {
+            /* Fall back to the server's own player object */
+        }
+        handleMethod = player.getClass().getMethod("getHandle");
+        localeField = handleMethod.getReturnType().getField("locale");
+    }
+    
+    /**
+     * Find the catalog for a client locale, trying the full locale and then
+     * its language alone before falling back to the default.
+     * 
+     * @param locale
+     *            Client locale, such as "de_DE"
+     * @return The catalog
+     */
+    private MessageTemplate[] getCatalog(String locale) {
+        MessageTemplate[] catalog = resolved.get(locale);
+        if (catalog != null) {
+            return catalog;
+        }
+        Map<String, MessageTemplate[]> current = catalogs;
+        String key = locale.toLowerCase();
+        catalog = current.get(key);
+        if (catalog == null && key.indexOf('_') > 0) {
+            catalog = current.get(key.substring(0, key.indexOf('_')));
+        }
+        if (catalog == null) {
+            catalog = current.get(DEFAULT);
+        }
+        resolved.put(locale, catalog);
+        return catalog;
+    }
+    
+    /**
+     * Find the catalog for a player's last known locale.
+     * 
+     * @param player
+     *            UUID of the player, or null if unknown
+     * @return The catalog
+     */
+    private MessageTemplate[] getCatalog(UUID player) {
+        String locale = player == null ? null : locales.get(player);
+        return getCatalog(locale == null ? DEFAULT : locale);
+    }
+    
+    /**
+     * @return Number of catalogs loaded, including the default
+     */
+    public int getCatalogCount() {
+        return catalogs.size();
+    }
+    
+    /**
+     * Get the client locale of an online player through the server's
+     * implementation, which the API does not expose.
+     * 
+     * @param player
+     *            The player
+     * @return The locale, or null if it could not be found
+     */
+    private String getClientLocale(Player player) {
+        if (localeUnavailable) {
+            return null;
+        }
+        try {
+            if (localeMethod == null && localeField == null) {
+                findLocaleAccess(player);
+            }
+            Object locale;
+            if (localeMethod != null) {
+                locale = localeMethod.invoke(player);
+            } else {
+                locale = localeField.get(handleMethod.invoke(player));
+            }
+            return locale instanceof String ? (String) locale : null;
+        } catch (Exception e) {
+            localeUnavailable = true;
+            plugin.fancyLog(Level.WARNING, "Client locales are not available "
+                    + "on this server, using the default messages ("
+                    + e.getClass().getSimpleName() + ")");
+            return null;
+        }
+    }
+    
+    /**
+     * @param player
+     *            UUID of the player, or null if unknown
+     * @return The last known client locale of the player, or null if unknown
+     */
+    public String getLocale(UUID player) {
+        return player == null ? null : locales.get(player);
+    }
+    
+    /**
+     * Get the values of the message tags for a ban.
+     * 
+     * @param ban
+     *            The ban
+     * @return Values by tag number
+     */
+    private String[] getValues(DeathBan ban) {
+        BanPolicy policy = plugin.getConfigHelper().getPolicy(ban);
+        return new String[] { ban.getName(),
+                Util.generateTimeString(ban.getDuration()),
+                String.format("%.1f", policy.getThreshold()),
+                Util.generateTimeString(ban.getTimeLeft()),
+                String.format("%.1f", policy.getBoost()) };
+    }
+    
+    /**
+     * Load the default catalog from config.yml and the other catalogs from
+     * the message files in the plugin folder, replacing any loaded before.
+     */
+    public void load() {
+        Map<String, MessageTemplate[]> loaded;
+        loaded = new HashMap<String, MessageTemplate[]>();
+        MessageTemplate[] defaults = compile(plugin.getConfig(), PATHS, null);
+        loaded.put(DEFAULT, defaults);
+        File[] files = plugin.getDataFolder().listFiles();
+        List<String> names = new ArrayList<String>();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX)
+                    && name.length() > FILE_PREFIX.length()
+                            + FILE_SUFFIX.length()) {
+                String locale = name.substring(FILE_PREFIX.length(),
+                        name.length() - FILE_SUFFIX.length()).toLowerCase();
+                loaded.put(locale, compile(YamlConfiguration
+                        .loadConfiguration(file), KEYS, defaults));
+                names.add(locale);
+            }
+        }
+        catalogs = loaded;
+        resolved.clear();
+        if (!names.isEmpty()) {
+            plugin.fancyLog("Loaded messages for locales: " + names);
+        }
+    }
+    
+    /**
+     * When a player joins, remember their client locale for later messages.
+     * Runs before other handlers so that the return message is localized.
+     * 
+     * @param event
+     *            JoinEvent
+     */
+    @EventHandler(priority = EventPriority.LOWEST)
+    public void onJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        String locale = getClientLocale(player);
+        if (locale != null) {
+            locales.put(player.getUniqueId(), locale);
+        }
+    }
+    
+    /**
+     * Render a message about a ban for a single player.
+     * 
+     * @param message
+     *            Message number, such as {@link #KICK}
+     * @param ban
+     *            The ban
+     * @param player
+     *            UUID of the recipient, or null to use the default catalog
+     * @return Rendered message
+     */
+    public String render(int message, DeathBan ban, UUID player) {
+        return render(message, getValues(ban), player);
+    }
+    
+    /**
+     * Render a message that is not about a ban, such as {@link #AT_RISK}, for
+     * a single player.
+     * 
+     * @param message
+     *            Message number
+     * @param values
+     *            Values of the message's tags, by tag number
+     * @param player
+     *            UUID of the recipient, or null to use the default catalog
+     * @return Rendered message
+     */
+    public String render(int message, String[] values, UUID player) {
+        return getCatalog(player)[message].render(values);
+    }
+    
+}
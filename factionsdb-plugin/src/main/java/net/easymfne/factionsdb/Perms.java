@@ -23,6 +23,17 @@ import org.bukkit.permissions.Permissible;
  */
 public class Perms {
     
+    /**
+     * Check if a user receives ban broadcasts limited by permission
+     * 
+     * @param p
+     *            User
+     * @return Whether the user receives them
+     */
+    public static boolean canReceiveBroadcasts(Permissible p) {
+        return p.hasPermission("factionsdb.broadcast.receive");
+    }
+    
     /**
      * Check if a user is exempt from being deathbanned
      * 
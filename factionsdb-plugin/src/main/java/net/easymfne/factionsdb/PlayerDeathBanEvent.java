@@ -54,7 +54,8 @@ public class PlayerDeathBanEvent extends Event {
     /**
      * Get the PlayerDeathEvent that caused the DeathBan.
      * 
-     * @return the PlayerDeathEvent
+     * @return the PlayerDeathEvent, or null if the player died before a
+     *         restart or left the server before respawning
      */
     public PlayerDeathEvent getDeathEvent() {
         return death;
@@ -0,0 +1,332 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.PlayerDeathEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent.Result;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+
+import com.massivecraft.factions.FFlag;
+import com.massivecraft.factions.entity.BoardColls;
+import com.massivecraft.factions.entity.Faction;
+import com.massivecraft.factions.entity.MConf;
+import com.massivecraft.factions.entity.UPlayer;
+import com.massivecraft.mcore.ps.PS;
+
+/**
+ * The class that monitors and reacts to server events: PlayerDeathEvent,
+ * PlayerRespawnEvent, AsyncPlayerPreLoginEvent, PlayerJoinEvent, and
+ * PlayerQuitEvent.
+ * 
+ * Deathbans are decided when a player dies and issued when they respawn. A
+ * player who leaves while dead respawns on their return, so the decision is
+ * kept for {@link #MAX_PENDING_AGE}. Decisions are only held in memory: if a
+ * player respawns without one and without having died since the plugin was
+ * enabled, or after theirs was forgotten, their power is checked on respawn
+ * instead.
+ * 
+ * @author Eric Hildebrand
+ */
+public class PlayerListener implements Listener {
+    
+    /* Milliseconds after which a pending ban is forgotten */
+    public static final long MAX_PENDING_AGE = 24 * 60 * 60 * 1000L;
+    
+    /**
+     * A deathban decided when a player died, to be issued when they respawn.
+     */
+    private static class PendingBan {
+        
+        private final String policy;
+        private final String factionId;
+        private final long timestamp;
+        
+        private PendingBan(String policy, String factionId, long timestamp) {
+            this.policy = policy;
+            this.factionId = factionId;
+            this.timestamp = timestamp;
+        }
+        
+    }
+    
+    private FactionsDB plugin = null;
+    /* Pending bans in order of death */
+    private LinkedHashMap<UUID, PendingBan> pendingBans = null;
+    /* Deaths of online players who have not yet respawned */
+    private HashMap<UUID, PlayerDeathEvent> deaths = null;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance, registering
+     * each of the defined EventHandlers, and initializing the pending ban
+     * store.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public PlayerListener(FactionsDB plugin) {
+        this.plugin = plugin;
+        pendingBans = new LinkedHashMap<UUID, PendingBan>();
+        deaths = new HashMap<UUID, PlayerDeathEvent>();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+    
+    /**
+     * Check a player's power, including any return boost not yet applied by
+     * the ReturnQueue, against the threshold of the effective policy for
+     * their world and faction.
+     * 
+     * @param player
+     *            The player
+     * @return Ban to issue, or null if their power is high enough
+     */
+    private PendingBan checkPower(Player player) {
+        plugin.getReturnQueue().applyBoost(player);
+        UPlayer uplayer = UPlayer.get(player);
+        Faction faction = uplayer.getFaction();
+        String factionId = faction == null || faction.isNone() ? null
+                : faction.getId();
+        BanPolicy policy = plugin
+                .getConfigHelper()
+                .getPolicyTable()
+                .resolve(player.getWorld().getName(),
+                        factionId == null ? null : faction.getName());
+        if (uplayer.getPower() > policy.getThreshold()) {
+            return null;
+        }
+        return new PendingBan(policy.getName(), factionId,
+                System.currentTimeMillis());
+    }
+    
+    /**
+     * Empty and null the pending ban and death stores, and unregister all
+     * registered EventHandlers, preventing further reactions.
+     */
+    public void close() {
+        HandlerList.unregisterAll(this);
+        pendingBans.clear();
+        pendingBans = null;
+        deaths.clear();
+        deaths = null;
+    }
+    
+    /**
+     * Decide whether a death deathbans the player, for
+     * {@link #onPlayerDeath(PlayerDeathEvent)}.
+     * 
+     * @param event
+     *            DeathEvent to examine
+     */
+    private void decideBan(PlayerDeathEvent event) {
+        Player player = event.getEntity();
+        Faction zone = BoardColls.get().getFactionAt(PS.valueOf(player));
+        if (!zone.getFlag(FFlag.POWERLOSS)) {
+            return;
+        }
+        if (MConf.get().worldsNoPowerLoss.contains(player.getWorld()
+                .getName())) {
+            return;
+        }
+        if (plugin.getExemptionCache().isExempt(player)) {
+            return;
+        }
+        PendingBan pending = checkPower(player);
+        if (pending != null) {
+            expirePendingBans(pending.timestamp);
+            pendingBans.remove(player.getUniqueId());
+            pendingBans.put(player.getUniqueId(), pending);
+        }
+    }
+    
+    /**
+     * Forget pending bans older than {@link #MAX_PENDING_AGE}, whose players
+     * have not come back to respawn.
+     * 
+     * @param now
+     *            Current time in milliseconds since epoch
+     */
+    private void expirePendingBans(long now) {
+        Iterator<PendingBan> oldest = pendingBans.values().iterator();
+        while (oldest.hasNext()
+                && now - oldest.next().timestamp > MAX_PENDING_AGE) {
+            oldest.remove();
+        }
+    }
+    
+    /**
+     * When a player passes the Login check and joins the server, check for
+     * existing DeathBans. If one is found and expired (it would have to be, to
+     * pass the above Login check), the ReturnQueue removes the DeathBan,
+     * greets the player, and queues the boost of their power level by the
+     * configured amount.
+     * 
+     * @param event
+     *            JoinEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLogin(PlayerJoinEvent event) {
+        long start = plugin.getWatchdog().start();
+        long traceStart = plugin.getTraceRecorder().start();
+        byte traceFlags = 0;
+        Player player = event.getPlayer();
+        if (plugin.getReturnQueue().returnPlayer(player)) {
+            traceFlags = TraceRecorder.FLAG_RETURNED;
+        }
+        if (traceStart != 0) {
+            plugin.getTraceRecorder().record(TraceRecorder.LOGIN,
+                    player.getUniqueId(), System.nanoTime() - traceStart,
+                    traceFlags);
+        }
+        plugin.getWatchdog().stop(TickWatchdog.LOGIN, start);
+    }
+    
+    /**
+     * When a non-exempt player dies in a world with power loss, and in a
+     * region of that world that allows power loss, check their power level
+     * after Factions has taken its loss, including any return boost not yet
+     * applied by the ReturnQueue. If it is below the threshold of the effective
+     * policy for their world and faction, remember the decision until the
+     * player respawns.
+     * 
+     * @param event
+     *            DeathEvent to examine
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerDeath(PlayerDeathEvent event) {
+        long traceStart = plugin.getTraceRecorder().start();
+        deaths.put(event.getEntity().getUniqueId(), event);
+        try {
+            decideBan(event);
+        } finally {
+            if (traceStart != 0) {
+                plugin.getTraceRecorder().record(TraceRecorder.DEATH,
+                        event.getEntity().getUniqueId(),
+                        System.nanoTime() - traceStart, (byte) 0);
+            }
+        }
+    }
+    
+    /**
+     * When a player leaves, forget their unfinished death, which is only kept
+     * for the death ban event. A pending ban is kept, as they respawn on their
+     * return.
+     * 
+     * @param event
+     *            QuitEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        deaths.remove(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * When a player respawns with a deathban decided at their death, or
+     * respawns from a death this listener did not see and a check of their
+     * power calls for a deathban, adjust their respawn location to the
+     * configured world spawn, create and run a new DeathBan, and have the
+     * PluginManager call this event for integration by other plugins. Any
+     * other respawn needs no further work.
+     * 
+     * @param event
+     *            RespawnEvent
+     */
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onPlayerRespawn(PlayerRespawnEvent event) {
+        long start = plugin.getWatchdog().start();
+        long traceStart = plugin.getTraceRecorder().start();
+        Player player = event.getPlayer();
+        PendingBan pending = pendingBans.remove(player.getUniqueId());
+        PlayerDeathEvent death = deaths.remove(player.getUniqueId());
+        if (pending == null && death == null
+                && !plugin.getExemptionCache().isExempt(player)) {
+            /* Died before a restart or reload, or left and was forgotten */
+            pending = checkPower(player);
+        }
+        
+        /* If the player's death left their power too low */
+        if (pending != null) {
+            /* Adjust their respawn location as configured */
+            event.setRespawnLocation(plugin.getSpawnCache().getSpawnLocation(
+                    player));
+            
+            /* Create a new DeathBan and queue the DeathBanner */
+            DeathBan ban = plugin.addBan(player, plugin.getConfigHelper()
+                    .getPolicyTable().get(pending.policy), pending.factionId);
+            plugin.getKickQueue().add(new DeathBanner(plugin, player, ban));
+            plugin.getTraceRecorder().record(TraceRecorder.BAN,
+                    player.getUniqueId(), 0, (byte) 0);
+            
+            /* Call the custom event so other plugins can catch this event. */
+            Bukkit.getServer()
+                    .getPluginManager()
+                    .callEvent(
+                            new PlayerDeathBanEvent(player, death, ban));
+        }
+        if (traceStart != 0) {
+            plugin.getTraceRecorder().record(TraceRecorder.RESPAWN,
+                    player.getUniqueId(), System.nanoTime() - traceStart,
+                    (byte) 0);
+        }
+        plugin.getWatchdog().stop(TickWatchdog.RESPAWN, start);
+    }
+    
+    /**
+     * When a player attempts to log in to the server, check for existing
+     * DeathBans. If there is a DeathBan and it is not expired yet, prevent the
+     * login with the appropriate message. Repeated attempts are rejected by the
+     * LoginThrottle without looking up the ban again.
+     * 
+     * @param event
+     *            LoginEvent
+     */
+    @EventHandler(ignoreCancelled = true)
+    public void onPreLogin(AsyncPlayerPreLoginEvent event) {
+        long traceStart = plugin.getTraceRecorder().start();
+        String key = (plugin.getConfigHelper().isUuidMode() ? event
+                .getUniqueId().toString() : event.getName().toLowerCase());
+        long now = System.currentTimeMillis();
+        String message = plugin.getLoginThrottle().check(key, now);
+        byte traceFlags = message != null ? TraceRecorder.FLAG_THROTTLED : 0;
+        DeathBan ban = message == null ? plugin.getBanByKey(key) : null;
+        if (ban != null && !ban.isExpired()) {
+            message = plugin.getMessageCatalog().render(MessageCatalog.LOGIN,
+                    ban, event.getUniqueId());
+            plugin.getLoginThrottle().record(key, ban, message, now);
+        }
+        if (message != null) {
+            event.setLoginResult(Result.KICK_BANNED);
+            event.setKickMessage(message);
+            if (traceStart != 0) {
+                plugin.getTraceRecorder().record(TraceRecorder.LOGIN_REJECTED,
+                        event.getUniqueId(), System.nanoTime() - traceStart,
+                        traceFlags);
+            }
+        }
+    }
+    
+}
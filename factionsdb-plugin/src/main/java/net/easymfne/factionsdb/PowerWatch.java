@@ -0,0 +1,293 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import com.massivecraft.factions.entity.Faction;
+import com.massivecraft.factions.entity.UPlayer;
+import com.massivecraft.factions.event.FactionsEventMembershipChange;
+import com.massivecraft.factions.event.FactionsEventPowerChange;
+
+/**
+ * Watchlist of online players whose power is within the configured margin of
+ * their deathban threshold. It is kept up to date by the events that change
+ * a player's power or threshold, such as Factions' power changes on death and
+ * over time, joining, changing worlds and changing factions, instead of by
+ * checking every player. Players are warned when they enter the watchlist.
+ */
+public class PowerWatch implements Listener {
+    
+    /**
+     * A watched player's power and threshold.
+     */
+    public static class Watched {
+        
+        private final String name;
+        private final double power;
+        private final double threshold;
+        
+        private Watched(String name, double power, double threshold) {
+            this.name = name;
+            this.power = power;
+            this.threshold = threshold;
+        }
+        
+        /**
+         * @return Name of the player
+         */
+        public String getName() {
+            return name;
+        }
+        
+        /**
+         * @return Power of the player when last changed
+         */
+        public double getPower() {
+            return power;
+        }
+        
+        /**
+         * @return Power threshold of the player's effective policy
+         */
+        public double getThreshold() {
+            return threshold;
+        }
+        
+    }
+    
+    /* Orders watched players from the closest to their threshold */
+    private static final Comparator<Watched> RISK_ORDER =
+            new Comparator<Watched>() {
+                @Override
+                public int compare(Watched a, Watched b) {
+                    return Double.compare(a.power - a.threshold, b.power
+                            - b.threshold);
+                }
+            };
+    
+    private FactionsDB plugin = null;
+    private final Map<UUID, Watched> watched;
+    private long warnings = 0;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance, registering
+     * each of the defined EventHandlers, and checking the players already
+     * online.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public PowerWatch(FactionsDB plugin) {
+        this.plugin = plugin;
+        watched = new HashMap<UUID, Watched>();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        refresh();
+    }
+    
+    /**
+     * Unregister all registered EventHandlers and empty the watchlist.
+     */
+    public void close() {
+        HandlerList.unregisterAll(this);
+        watched.clear();
+    }
+    
+    /**
+     * @return Watched players, from the closest to their threshold
+     */
+    public List<Watched> getAtRisk() {
+        List<Watched> players = new ArrayList<Watched>(watched.values());
+        Collections.sort(players, RISK_ORDER);
+        return players;
+    }
+    
+    /**
+     * Get the power threshold of a player's effective policy.
+     * 
+     * @param player
+     *            The player
+     * @param faction
+     *            The player's faction, or null if they have none
+     * @return The threshold
+     */
+    private double getThreshold(Player player, Faction faction) {
+        return plugin
+                .getConfigHelper()
+                .getPolicyTable()
+                .resolve(player.getWorld().getName(),
+                        faction == null || faction.isNone() ? null : faction
+                                .getName()).getThreshold();
+    }
+    
+    /**
+     * @return Number of warnings sent
+     */
+    public long getWarnings() {
+        return warnings;
+    }
+    
+    /**
+     * @return Whether the watchlist is enabled by a margin above zero
+     */
+    public boolean isEnabled() {
+        return plugin.getConfigHelper().getAtRiskMargin() > 0;
+    }
+    
+    /**
+     * When a player changes worlds, check them against the policy of their
+     * new world.
+     * 
+     * @param event
+     *            ChangedWorldEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChangedWorld(PlayerChangedWorldEvent event) {
+        update(event.getPlayer());
+    }
+    
+    /**
+     * When a player joins, check their power.
+     * 
+     * @param event
+     *            JoinEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onJoin(PlayerJoinEvent event) {
+        update(event.getPlayer());
+    }
+    
+    /**
+     * When an online player joins or leaves a faction, check them against the
+     * policy of their new faction.
+     * 
+     * @param event
+     *            MembershipChangeEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onMembershipChange(FactionsEventMembershipChange event) {
+        UPlayer uplayer = event.getUPlayer();
+        Player player = uplayer.getPlayer();
+        if (player != null) {
+            update(player, uplayer.getPower(), event.getNewFaction());
+        }
+    }
+    
+    /**
+     * When Factions changes an online player's power, such as on death or
+     * over time, check the new power.
+     * 
+     * @param event
+     *            PowerChangeEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPowerChange(FactionsEventPowerChange event) {
+        UPlayer uplayer = event.getUPlayer();
+        Player player = uplayer.getPlayer();
+        if (player != null) {
+            update(player, event.getNewPower(), uplayer.getFaction());
+        }
+    }
+    
+    /**
+     * When a player leaves, stop watching them.
+     * 
+     * @param event
+     *            QuitEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onQuit(PlayerQuitEvent event) {
+        watched.remove(event.getPlayer().getUniqueId());
+    }
+    
+    /**
+     * Check every online player again, such as after the margin or the
+     * policies were reloaded.
+     */
+    public void refresh() {
+        watched.clear();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            update(player);
+        }
+    }
+    
+    /**
+     * Check a player's current power, such as after FactionsDB changed it.
+     * 
+     * @param player
+     *            The player
+     */
+    public void update(Player player) {
+        if (isEnabled()) {
+            UPlayer uplayer = UPlayer.get(player);
+            update(player, uplayer.getPower(), uplayer.getFaction());
+        }
+    }
+    
+    /**
+     * Add a player to the watchlist if their power is within the margin of
+     * their threshold, warning them if they were not already watched, or
+     * remove them if it is not.
+     * 
+     * @param player
+     *            The player
+     * @param power
+     *            The player's power
+     * @param faction
+     *            The player's faction, or null if they have none
+     */
+    private void update(Player player, double power, Faction faction) {
+        double margin = plugin.getConfigHelper().getAtRiskMargin();
+        if (margin <= 0 || plugin.getExemptionCache().isExempt(player)) {
+            watched.remove(player.getUniqueId());
+            return;
+        }
+        double threshold = getThreshold(player, faction);
+        if (power > threshold + margin) {
+            watched.remove(player.getUniqueId());
+            return;
+        }
+        Watched previous = watched.put(player.getUniqueId(), new Watched(
+                player.getName(), power, threshold));
+        if (previous != null) {
+            return;
+        }
+        String message = plugin.getMessageCatalog().render(
+                MessageCatalog.AT_RISK,
+                new String[] { String.format("%.1f", power),
+                        String.format("%.1f", threshold) },
+                player.getUniqueId());
+        if (message.length() > 0) {
+            player.sendMessage(message);
+            warnings++;
+        }
+    }
+    
+}
@@ -0,0 +1,505 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import com.massivecraft.factions.entity.UPlayer;
+
+/**
+ * Task that runs every tick, preparing the returns of players whose bans have
+ * run out before they rejoin. A prepared return holds the rendered return
+ * message and the power boost, so that a returning player's join only has to
+ * remove the ban and send the message. Power boosts are queued and applied on
+ * the following ticks, a limited number per tick, so that a burst of returns
+ * does not update every player's power in the same tick.
+ * 
+ * Bans in the hot tier are prepared on the main thread. Bans in the cold tier
+ * are read and prepared on the I/O executor, so that running out does not page
+ * them back into memory.
+ */
+public class ReturnQueue extends BukkitRunnable implements DeathBanListener {
+    
+    /**
+     * The deadline of a ban, ordered by deadline in the queue of bans still
+     * to run out. A replaced or removed deadline is marked stale and left in
+     * the queue, to be skipped when it reaches the head, as removing it from
+     * the middle of the queue would scan the whole queue.
+     */
+    private static class Expiry {
+        
+        private final String key;
+        private final long deadline;
+        private boolean stale = false;
+        
+        private Expiry(String key, long deadline) {
+            this.key = key;
+            this.deadline = deadline;
+        }
+        
+    }
+    
+    /**
+     * A return prepared for a player whose ban has run out.
+     */
+    private static class Prepared {
+        
+        private final DeathBan ban;
+        private final double boost;
+        private final String locale;
+        private final String message;
+        
+        private Prepared(DeathBan ban, double boost, String locale,
+                String message) {
+            this.ban = ban;
+            this.boost = boost;
+            this.locale = locale;
+            this.message = message;
+        }
+        
+    }
+    
+    /**
+     * A power boost waiting to be applied to a returned player.
+     */
+    private static class Boost {
+        
+        private final Player player;
+        private double amount;
+        
+        private Boost(Player player, double amount) {
+            this.player = player;
+            this.amount = amount;
+        }
+        
+    }
+    
+    private static final Comparator<Expiry> DEADLINE_ORDER =
+            new Comparator<Expiry>() {
+                @Override
+                public int compare(Expiry a, Expiry b) {
+                    return a.deadline < b.deadline ? -1
+                            : (a.deadline == b.deadline ? 0 : 1);
+                }
+            };
+    
+    /* Most prepared returns kept; the oldest are prepared again on join */
+    private static final int MAX_PREPARED = 1024;
+    
+    /* Fewest stale deadlines worth rebuilding the queue to drop */
+    private static final int MIN_PURGE = 1024;
+    
+    private FactionsDB plugin = null;
+    private PriorityQueue<Expiry> expiries;
+    private final Map<String, Expiry> queued;
+    private int stale = 0;
+    private final Map<String, Prepared> prepared;
+    private long changes = 0;
+    private long resets = 0;
+    private final Map<UUID, Boost> boosts;
+    
+    /* Statistics */
+    private long returns = 0;
+    private long preparedReturns = 0;
+    private int peakBoosts = 0;
+    
+    /**
+     * Instantiate a reference to the plugin, queue the deadlines of every
+     * existing ban, and listen to the ban registry for new ones.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public ReturnQueue(FactionsDB plugin) {
+        this.plugin = plugin;
+        prepared = new LinkedHashMap<String, Prepared>(16, 0.75f, false) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(
+                    Entry<String, Prepared> eldest) {
+                return size() > MAX_PREPARED;
+            }
+        };
+        queued = new HashMap<String, Expiry>();
+        boosts = new LinkedHashMap<UUID, Boost>();
+        reset();
+        plugin.getBanRegistry().addListener(this);
+    }
+    
+    /**
+     * Add a boost to the current power of its player.
+     * 
+     * @param boost
+     *            The boost
+     */
+    private void apply(Boost boost) {
+        UPlayer uPlayer = UPlayer.get(boost.player);
+        uPlayer.setPower(uPlayer.getPower() + boost.amount);
+        if (boost.player.isOnline()) {
+            plugin.getPowerWatch().update(boost.player);
+        }
+    }
+    
+    /**
+     * Apply a player's queued power boost now, such as before their power is
+     * checked on respawn.
+     * 
+     * @param player
+     *            The player
+     */
+    public void applyBoost(Player player) {
+        Boost boost = boosts.remove(player.getUniqueId());
+        if (boost != null) {
+            apply(boost);
+        }
+    }
+    
+    /**
+     * Queue the deadline of a new ban, replacing that of any older ban under
+     * the same key, and forget any return prepared for the older ban.
+     * 
+     * @param ban
+     *            The new ban
+     */
+    @Override
+    public synchronized void banAdded(DeathBan ban) {
+        changes++;
+        String key = plugin.getKey(ban);
+        if (key != null) {
+            prepared.remove(key);
+            queue(key, ban.getDeadline());
+        }
+    }
+    
+    /**
+     * Forget the queued deadline of a removed ban, such as a pardoned one,
+     * and any return prepared for it.
+     * 
+     * @param ban
+     *            The removed ban
+     */
+    @Override
+    public synchronized void banRemoved(DeathBan ban) {
+        changes++;
+        String key = plugin.getKey(ban);
+        if (key != null) {
+            Expiry expiry = queued.get(key);
+            if (expiry != null && expiry.deadline == ban.getDeadline()) {
+                queued.remove(key);
+                discard(expiry);
+            }
+            Prepared current = prepared.get(key);
+            if (current != null
+                    && current.ban.getTimestamp() == ban.getTimestamp()) {
+                prepared.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * Stop listening to the ban registry, and apply every queued power boost
+     * immediately, such as when the plugin is being disabled.
+     */
+    public void close() {
+        plugin.getBanRegistry().removeListener(this);
+        for (Boost boost : boosts.values()) {
+            apply(boost);
+        }
+        boosts.clear();
+        synchronized (this) {
+            prepared.clear();
+            expiries.clear();
+            queued.clear();
+            stale = 0;
+        }
+    }
+    
+    /**
+     * Mark a queued deadline as stale, once it is no longer in the map of
+     * queued deadlines. When most of the queue is stale, the queue is rebuilt
+     * from the live deadlines. Must be called while synchronized on this
+     * queue.
+     * 
+     * @param expiry
+     *            The replaced or removed deadline
+     */
+    private void discard(Expiry expiry) {
+        expiry.stale = true;
+        stale++;
+        if (stale >= MIN_PURGE && stale * 2 > expiries.size()) {
+            expiries = new PriorityQueue<Expiry>(Math.max(16, queued.size()),
+                    DEADLINE_ORDER);
+            expiries.addAll(queued.values());
+            stale = 0;
+        }
+    }
+    
+    /**
+     * @return Number of power boosts waiting to be applied
+     */
+    public int getBoostCount() {
+        return boosts.size();
+    }
+    
+    /**
+     * @return Largest number of power boosts waiting at once
+     */
+    public int getPeakBoostCount() {
+        return peakBoosts;
+    }
+    
+    /**
+     * @return Number of returns prepared and waiting for their players
+     */
+    public synchronized int getPreparedCount() {
+        return prepared.size();
+    }
+    
+    /**
+     * @return Number of returns that had been prepared before the player
+     *         joined
+     */
+    public long getPreparedReturns() {
+        return preparedReturns;
+    }
+    
+    /**
+     * @return Total number of players returned from a ban
+     */
+    public long getReturns() {
+        return returns;
+    }
+    
+    /**
+     * Render the return message and look up the power boost for a ban.
+     * 
+     * @param ban
+     *            The ban that ran out
+     * @return The prepared return
+     */
+    private Prepared prepare(DeathBan ban) {
+        MessageCatalog catalog = plugin.getMessageCatalog();
+        String locale = catalog.getLocale(ban.getUniqueId());
+        return new Prepared(ban, plugin.getConfigHelper().getPolicy(ban)
+                .getBoost(), locale, catalog.render(MessageCatalog.RETURN,
+                ban, ban.getUniqueId()));
+    }
+    
+    /**
+     * Read and prepare a ban from the cold tier on the I/O executor. If the
+     * executor is full, or any ban is added or removed meanwhile, the return
+     * is left to be prepared when the player joins.
+     * 
+     * @param expiry
+     *            Deadline of the ban that ran out
+     */
+    private void prepareCold(final Expiry expiry) {
+        final BanRegistry registry = plugin.getBanRegistry();
+        final long started;
+        synchronized (this) {
+            started = changes;
+        }
+        plugin.getIoExecutor().trySubmit("prepare-return",
+                new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        DeathBan ban = registry.peek(expiry.key);
+                        if (ban == null
+                                || ban.getDeadline() != expiry.deadline) {
+                            return null;
+                        }
+                        Prepared ready = prepare(ban);
+                        synchronized (ReturnQueue.this) {
+                            if (changes == started) {
+                                prepared.put(expiry.key, ready);
+                            }
+                        }
+                        return null;
+                    }
+                });
+    }
+    
+    /**
+     * Queue the deadline of a ban, replacing any queued for the same key.
+     * Must be called while synchronized on this queue.
+     * 
+     * @param key
+     *            Key of the ban
+     * @param deadline
+     *            Time at which the ban runs out
+     */
+    private void queue(String key, long deadline) {
+        Expiry expiry = new Expiry(key, deadline);
+        Expiry previous = queued.put(key, expiry);
+        expiries.add(expiry);
+        if (previous != null) {
+            discard(previous);
+        }
+    }
+    
+    /**
+     * Queue the deadlines of frozen bans under keys with no deadline queued,
+     * stopping if the queue is reset again meanwhile. Cold bans are read
+     * outside the queue's lock.
+     * 
+     * @param bans
+     *            Frozen bans by key
+     * @param generation
+     *            Reset that the bans were frozen for
+     */
+    private void requeue(Map<String, DeathBan> bans, long generation) {
+        for (Entry<String, DeathBan> entry : bans.entrySet()) {
+            synchronized (this) {
+                if (resets != generation) {
+                    return;
+                }
+                if (!queued.containsKey(entry.getKey())) {
+                    queue(entry.getKey(), entry.getValue().getDeadline());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Forget all prepared returns and queue the deadlines of every ban again,
+     * such as after bans were moved to new keys or the messages and policies
+     * were reloaded. While any bans are cold, the deadlines are read from a
+     * frozen copy on the I/O executor; bans added meanwhile queue their own
+     * deadlines, and deadlines of bans removed meanwhile are skipped when they
+     * come due.
+     */
+    public synchronized void reset() {
+        changes++;
+        final long generation = ++resets;
+        prepared.clear();
+        queued.clear();
+        expiries = new PriorityQueue<Expiry>(16, DEADLINE_ORDER);
+        stale = 0;
+        BanRegistry registry = plugin.getBanRegistry();
+        final Map<String, DeathBan> bans = registry.freeze();
+        if (registry.getColdCount() > 0
+                && plugin.getIoExecutor().trySubmit("queue-returns",
+                        new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                requeue(bans, generation);
+                                return null;
+                            }
+                        }) != null) {
+            return;
+        }
+        requeue(bans, generation);
+    }
+    
+    /**
+     * Return a player whose ban has run out: remove the ban, send the return
+     * message, and queue the power boost. Uses the prepared return if there is
+     * one, and prepares it now otherwise.
+     * 
+     * @param player
+     *            The joining player
+     * @return Whether the player was returned from a ban
+     */
+    public boolean returnPlayer(Player player) {
+        String key = plugin.getKey(player);
+        Prepared ready;
+        synchronized (this) {
+            ready = prepared.remove(key);
+        }
+        if (ready != null) {
+            preparedReturns++;
+        } else {
+            DeathBan ban = plugin.getBanByKey(key);
+            if (ban == null || !ban.isExpired()) {
+                return false;
+            }
+            ready = prepare(ban);
+        }
+        plugin.removeBanByKey(key);
+        String message = ready.message;
+        String locale = plugin.getMessageCatalog().getLocale(
+                player.getUniqueId());
+        if (locale == null ? ready.locale != null : !locale
+                .equals(ready.locale)) {
+            message = plugin.getMessageCatalog().render(MessageCatalog.RETURN,
+                    ready.ban, player.getUniqueId());
+        }
+        player.sendMessage(message);
+        Boost boost = boosts.get(player.getUniqueId());
+        if (boost == null) {
+            boosts.put(player.getUniqueId(), new Boost(player, ready.boost));
+            peakBoosts = Math.max(peakBoosts, boosts.size());
+        } else {
+            boost.amount += ready.boost;
+        }
+        returns++;
+        return true;
+    }
+    
+    /**
+     * Apply up to the configured number of queued power boosts, then prepare
+     * up to the same number of returns for bans that have run out.
+     */
+    @Override
+    public void run() {
+        long start = plugin.getWatchdog().start();
+        int budget = plugin.getConfigHelper().getReturnsPerTick();
+        Iterator<Boost> waiting = boosts.values().iterator();
+        for (int i = 0; i < budget && waiting.hasNext(); i++) {
+            apply(waiting.next());
+            waiting.remove();
+        }
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < budget; i++) {
+            Expiry expiry;
+            synchronized (this) {
+                while (!expiries.isEmpty() && expiries.peek().stale) {
+                    expiries.poll();
+                    stale--;
+                }
+                if (expiries.isEmpty() || expiries.peek().deadline > now) {
+                    break;
+                }
+                expiry = expiries.poll();
+                queued.remove(expiry.key);
+            }
+            DeathBan ban = plugin.getBanRegistry().peekHot(expiry.key);
+            if (ban == null) {
+                if (plugin.getBanRegistry().getColdCount() > 0) {
+                    prepareCold(expiry);
+                }
+            } else if (ban.getDeadline() == expiry.deadline) {
+                Prepared ready = prepare(ban);
+                synchronized (this) {
+                    prepared.put(expiry.key, ready);
+                }
+            }
+        }
+        plugin.getWatchdog().stop(TickWatchdog.RETURNS, start);
+    }
+    
+}
@@ -0,0 +1,156 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.logging.Level;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.SpawnChangeEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+/**
+ * Cache of the configured spawn world and its spawn location, so that banned
+ * players can be sent to spawn without looking up the configuration or the
+ * world on every respawn. The cache is refreshed when the configuration is
+ * reloaded, when the world loads or unloads, and when its spawn is moved.
+ * 
+ * While the configured world is not loaded, such as during startup, players
+ * are sent to the spawn of their own world and a warning is logged once.
+ */
+public class SpawnCache implements Listener {
+    
+    private FactionsDB plugin = null;
+    private String worldName = null;
+    private World world = null;
+    private Location spawn = null;
+    private boolean warned = false;
+    
+    /**
+     * Instantiate by getting a reference to the plugin instance, resolving
+     * the configured world, and registering the world event handlers.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public SpawnCache(FactionsDB plugin) {
+        this.plugin = plugin;
+        refresh();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+    
+    /**
+     * Unregister the world event handlers and forget the cached world.
+     */
+    public void close() {
+        HandlerList.unregisterAll(this);
+        world = null;
+        spawn = null;
+    }
+    
+    /**
+     * Get the location a banned player should respawn at: the configured
+     * world's spawn if it is loaded, otherwise the spawn of the player's own
+     * world.
+     * 
+     * @param player
+     *            Player being respawned
+     * @return Respawn location, which the caller may modify
+     */
+    public Location getSpawnLocation(Player player) {
+        if (spawn != null) {
+            return spawn.clone();
+        }
+        if (worldName != null && !warned) {
+            plugin.fancyLog(Level.WARNING, "Spawn world '" + worldName
+                    + "' is not loaded, using players' own worlds instead");
+            warned = true;
+        }
+        return player.getWorld().getSpawnLocation();
+    }
+    
+    /**
+     * Check whether a world is the configured spawn world.
+     */
+    private boolean isSpawnWorld(World candidate) {
+        return worldName != null
+                && candidate.getName().equalsIgnoreCase(worldName);
+    }
+    
+    /**
+     * Pick up a newly set spawn location for the configured world.
+     * 
+     * @param event
+     *            SpawnChangeEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onSpawnChange(SpawnChangeEvent event) {
+        if (event.getWorld() == world) {
+            spawn = world.getSpawnLocation();
+        }
+    }
+    
+    /**
+     * Resolve the configured world once it loads.
+     * 
+     * @param event
+     *            WorldLoadEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        if (isSpawnWorld(event.getWorld())) {
+            world = event.getWorld();
+            spawn = world.getSpawnLocation();
+            warned = false;
+        }
+    }
+    
+    /**
+     * Forget the configured world when it unloads, falling back to players'
+     * own worlds.
+     * 
+     * @param event
+     *            WorldUnloadEvent
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        if (event.getWorld() == world) {
+            world = null;
+            spawn = null;
+        }
+    }
+    
+    /**
+     * Read the configured world name and resolve it, such as after the
+     * configuration has been reloaded.
+     */
+    public void refresh() {
+        worldName = plugin.getConfigHelper().getBanSpawnWorld();
+        if (worldName != null && worldName.trim().length() == 0) {
+            worldName = null;
+        }
+        world = worldName == null ? null : plugin.getServer().getWorld(
+                worldName);
+        spawn = world == null ? null : world.getSpawnLocation();
+        warned = false;
+    }
+    
+}
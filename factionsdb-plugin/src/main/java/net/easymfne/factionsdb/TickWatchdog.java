@@ -0,0 +1,221 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.util.Arrays;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Optional instrumentation of FactionsDB's main-thread entry points. Each
+ * entry point brackets its work with {@link #start()} and
+ * {@link #stop(int, long)}; the time is added to the current tick's total and
+ * to a per-section breakdown. Once per tick the total is checked against the
+ * configured budget, and a warning with the breakdown is logged if it was
+ * exceeded. Warnings are limited to one every few seconds, with a count of
+ * the ticks that went over budget in between.
+ * 
+ * When disabled, {@link #start()} returns without reading the clock and
+ * {@link #stop(int, long)} returns immediately. Must only be used from the
+ * main server thread.
+ */
+public class TickWatchdog extends BukkitRunnable {
+    
+    /* Measured sections */
+    public static final int RESPAWN = 0;
+    public static final int LOGIN = 1;
+    public static final int KICK = 2;
+    public static final int AUTOSAVE = 3;
+    public static final int COMMAND = 4;
+    public static final int RELOAD = 5;
+    public static final int RETURNS = 6;
+    
+    /* Section names, by section */
+    private static final String[] NAMES = { "onPlayerRespawn", "onLogin",
+            "DeathBanner.run", "Autosave", "FdbCommand.onCommand", "reload",
+            "ReturnQueue.run" };
+    
+    /* Number of ticks in the rolling window */
+    private static final int WINDOW = 20;
+    
+    /* Minimum ticks between warnings */
+    private static final int WARNING_INTERVAL = 100;
+    
+    private FactionsDB plugin = null;
+    private boolean enabled = false;
+    private int depth = 0;
+    
+    /* Time and calls in the current tick */
+    private final long[] sectionNanos;
+    private final int[] sectionCalls;
+    private long tickNanos = 0;
+    
+    /* Totals of recent ticks */
+    private final long[] window;
+    private int windowIndex = 0;
+    private long windowNanos = 0;
+    
+    /* Warning state */
+    private long tick = 0;
+    private long lastWarning = -WARNING_INTERVAL;
+    private int overBudget = 0;
+    private long overBudgetTotal = 0;
+    
+    /**
+     * Instantiate a reference to the plugin, which provides the configured
+     * budget and whether the watchdog is enabled.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public TickWatchdog(FactionsDB plugin) {
+        this.plugin = plugin;
+        sectionNanos = new long[NAMES.length];
+        sectionCalls = new int[NAMES.length];
+        window = new long[WINDOW];
+    }
+    
+    /**
+     * Build the warning for the current tick.
+     * 
+     * @param budget
+     *            Configured budget in nanoseconds
+     * @return Warning message
+     */
+    private String describeTick(long budget) {
+        StringBuilder message = new StringBuilder();
+        message.append("FactionsDB used ").append(formatNanos(tickNanos))
+                .append(" of its ").append(formatNanos(budget))
+                .append(" budget in one tick:");
+        for (int i = 0; i < NAMES.length; i++) {
+            if (sectionCalls[i] > 0) {
+                message.append(' ').append(NAMES[i]).append(' ')
+                        .append(formatNanos(sectionNanos[i])).append(" (")
+                        .append(sectionCalls[i])
+                        .append(sectionCalls[i] == 1 ? " call)" : " calls)");
+            }
+        }
+        if (overBudget > 0) {
+            message.append("; ").append(overBudget)
+                    .append(" earlier ticks also went over budget");
+        }
+        return message.toString();
+    }
+    
+    /**
+     * Format a duration in nanoseconds as milliseconds.
+     */
+    private String formatNanos(long nanos) {
+        return String.format("%.3fms", nanos / 1000000.0);
+    }
+    
+    /**
+     * @return Number of ticks that exceeded the budget since the watchdog
+     *         started
+     */
+    public long getOverBudgetTotal() {
+        return overBudgetTotal;
+    }
+    
+    /**
+     * @return Total time measured over the last second, in nanoseconds
+     */
+    public long getWindowNanos() {
+        return windowNanos;
+    }
+    
+    /**
+     * @return Whether time is being measured
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Close the current tick: roll its total into the window, warn if it went
+     * over budget, and reset the breakdown. Also picks up configuration
+     * changes.
+     */
+    @Override
+    public void run() {
+        tick++;
+        boolean wasEnabled = enabled;
+        enabled = plugin.getConfigHelper().isWatchdogEnabled();
+        if (!wasEnabled) {
+            /* Start from an empty window when enabled */
+            Arrays.fill(window, 0);
+            windowNanos = 0;
+            return;
+        }
+        windowNanos += tickNanos - window[windowIndex];
+        window[windowIndex] = tickNanos;
+        windowIndex = (windowIndex + 1) % WINDOW;
+        long budget = plugin.getConfigHelper().getWatchdogBudgetNanos();
+        if (tickNanos > budget) {
+            overBudgetTotal++;
+            if (tick - lastWarning >= WARNING_INTERVAL) {
+                plugin.getLogger().warning(describeTick(budget));
+                lastWarning = tick;
+                overBudget = 0;
+            } else {
+                overBudget++;
+            }
+        }
+        tickNanos = 0;
+        /* A section that threw never stopped; none can span ticks */
+        depth = 0;
+        for (int i = 0; i < NAMES.length; i++) {
+            sectionNanos[i] = 0;
+            sectionCalls[i] = 0;
+        }
+    }
+    
+    /**
+     * Mark the start of a measured section.
+     * 
+     * @return Start time to pass to {@link #stop(int, long)}, or 0 if the
+     *         watchdog is disabled
+     */
+    public long start() {
+        if (!enabled) {
+            return 0;
+        }
+        depth++;
+        return System.nanoTime();
+    }
+    
+    /**
+     * Mark the end of a measured section. Sections nested within another,
+     * such as a reload run by a command, are counted in the breakdown but
+     * not again in the tick's total.
+     * 
+     * @param section
+     *            The section, such as {@link #RESPAWN}
+     * @param start
+     *            Value returned by the matching {@link #start()}
+     */
+    public void stop(int section, long start) {
+        if (start == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        sectionNanos[section] += elapsed;
+        sectionCalls[section]++;
+        if (--depth == 0) {
+            tickNanos += elapsed;
+        }
+    }
+    
+}
@@ -0,0 +1,224 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Offline decoder for trace files written by {@link TraceRecorder}. Prints
+ * every record, or with "-s" a per-event summary of counts and handler
+ * durations. Uses no server classes, so it can be run from the plugin jar:
+ * 
+ * <pre>
+ * java -cp FactionsDB.jar net.easymfne.factionsdb.TraceDecoder \
+ *     [-s] trace-0.bin ...
+ * </pre>
+ */
+public class TraceDecoder {
+    
+    /* Event names, by type */
+    private static final String[] TYPES = { "UNKNOWN", "DEATH", "RESPAWN",
+            "BAN", "LOGIN_REJECTED", "LOGIN", "PARDON", "COMMAND" };
+    
+    /* Number of power-of-two duration buckets in the summary histogram */
+    private static final int BUCKETS = 32;
+    
+    /**
+     * Decode the files named on the command line.
+     * 
+     * @param args
+     *            Optional "-s" for a summary, then one or more trace files
+     */
+    public static void main(String[] args) {
+        boolean summarize = args.length > 0 && args[0].equals("-s");
+        int first = summarize ? 1 : 0;
+        if (args.length <= first) {
+            System.err.println("Usage: TraceDecoder [-s] <trace file>...");
+            System.exit(2);
+        }
+        TraceDecoder decoder = new TraceDecoder(summarize, System.out);
+        for (int i = first; i < args.length; i++) {
+            try {
+                decoder.decode(args[i]);
+            } catch (IOException e) {
+                System.err.println(args[i] + ": " + e.getMessage());
+                System.exit(1);
+            }
+        }
+        if (summarize) {
+            decoder.printSummary();
+        }
+    }
+    
+    private final boolean summarize;
+    private final PrintStream output;
+    private final SimpleDateFormat format;
+    
+    /* Summary, by type */
+    private final long[] counts;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+    private final long[][] histogram;
+    
+    /**
+     * Create a decoder.
+     * 
+     * @param summarize
+     *            Whether to print a summary instead of every record
+     * @param output
+     *            Stream to print to
+     */
+    public TraceDecoder(boolean summarize, PrintStream output) {
+        this.summarize = summarize;
+        this.output = output;
+        format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        counts = new long[TYPES.length];
+        totalNanos = new long[TYPES.length];
+        maxNanos = new long[TYPES.length];
+        histogram = new long[TYPES.length][BUCKETS];
+    }
+    
+    /**
+     * Decode a single trace file.
+     * 
+     * @param path
+     *            Path of the file
+     * @throws IOException
+     *             If the file cannot be read or is not a trace file
+     */
+    public void decode(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(path)));
+        try {
+            if (in.readInt() != TraceRecorder.MAGIC) {
+                throw new IOException("Not a FactionsDB trace file");
+            }
+            int version = in.readInt();
+            int recordSize = in.readInt();
+            if (version != TraceRecorder.VERSION
+                    || recordSize != TraceRecorder.RECORD_SIZE) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+            while (true) {
+                long time;
+                try {
+                    time = in.readLong();
+                } catch (EOFException e) {
+                    return;
+                }
+                long high = in.readLong();
+                long low = in.readLong();
+                int nanos = in.readInt();
+                int type = in.readByte();
+                int flags = in.readByte();
+                in.readShort();
+                if (type < 0 || type >= TYPES.length) {
+                    type = 0;
+                }
+                if (summarize) {
+                    tally(type, nanos);
+                } else {
+                    printRecord(time, high, low, nanos, type, flags);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Estimate a percentile of a type's durations from its histogram.
+     * 
+     * @return Upper bound of the bucket holding the percentile, in
+     *         nanoseconds
+     */
+    private long percentile(int type, double fraction) {
+        long target = (long) Math.ceil(counts[type] * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[type][bucket];
+            if (seen >= target) {
+                return 1L << bucket;
+            }
+        }
+        return maxNanos[type];
+    }
+    
+    /**
+     * Print a single record.
+     */
+    private void printRecord(long time, long high, long low, int nanos,
+            int type, int flags) {
+        StringBuilder line = new StringBuilder(96);
+        line.append(format.format(new Date(time))).append(' ')
+                .append(TYPES[type]);
+        if (high != 0 || low != 0) {
+            line.append(' ').append(new UUID(high, low));
+        }
+        if (nanos > 0) {
+            line.append(String.format(" %.3fms", nanos / 1000000.0));
+        }
+        if ((flags & TraceRecorder.FLAG_THROTTLED) != 0) {
+            line.append(" throttled");
+        }
+        if ((flags & TraceRecorder.FLAG_RETURNED) != 0) {
+            line.append(" returned");
+        }
+        output.println(line);
+    }
+    
+    /**
+     * Print the summary of every file decoded so far.
+     */
+    public void printSummary() {
+        output.println(String.format("%-15s %10s %10s %10s %10s %10s",
+                "event", "count", "mean ms", "p50 ms", "p99 ms", "max ms"));
+        for (int type = 0; type < TYPES.length; type++) {
+            if (counts[type] == 0) {
+                continue;
+            }
+            output.println(String.format(
+                    "%-15s %10d %10.3f %10.3f %10.3f %10.3f", TYPES[type],
+                    counts[type], totalNanos[type] / 1000000.0
+                            / counts[type],
+                    percentile(type, 0.5) / 1000000.0,
+                    percentile(type, 0.99) / 1000000.0,
+                    maxNanos[type] / 1000000.0));
+        }
+    }
+    
+    /**
+     * Add a record to the summary.
+     */
+    private void tally(int type, int nanos) {
+        counts[type]++;
+        totalNanos[type] += nanos;
+        maxNanos[type] = Math.max(maxNanos[type], nanos);
+        int bucket = nanos <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(nanos
+                - 1);
+        histogram[type][Math.min(bucket, BUCKETS - 1)]++;
+    }
+    
+}
@@ -0,0 +1,328 @@
+/*
+ * This file is part of the FactionsDB plugin by EasyMFnE.
+ * 
+ * FactionsDB is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or any later version.
+ * 
+ * FactionsDB is distributed in the hope that it will be useful, but without any
+ * warranty; without even the implied warranty of merchantability or fitness for
+ * a particular purpose. See the GNU General Public License for details.
+ * 
+ * You should have received a copy of the GNU General Public License v3 along
+ * with FactionsDB. If not, see <http://www.gnu.org/licenses/>.
+ */
+package net.easymfne.factionsdb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+
+import org.bukkit.scheduler.BukkitRunnable;
+
+/**
+ * Opt-in recorder of plugin events for offline performance analysis. Events
+ * are written as fixed-size records into an in-memory ring buffer without
+ * locking or allocating, and a background task periodically flushes them to
+ * rotating trace files, which can be read with {@link TraceDecoder}.
+ * 
+ * Each record is {@value #RECORD_SIZE} bytes: wall-clock time in milliseconds
+ * (8), player UUID (16, zero if unknown), handler duration in nanoseconds (4,
+ * capped), event type (1), flags (1), and two bytes of padding. Trace files
+ * start with a header of the magic number, the format version, and the
+ * record size.
+ * 
+ * Any thread may record. Producers claim a sequence number, fill the slot,
+ * then publish the sequence number for the slot. If producers get a whole
+ * buffer ahead of the flusher, the oldest records are overwritten and counted
+ * as dropped.
+ */
+public class TraceRecorder extends BukkitRunnable {
+    
+    /* Event types */
+    public static final byte DEATH = 1;
+    public static final byte RESPAWN = 2;
+    public static final byte BAN = 3;
+    public static final byte LOGIN_REJECTED = 4;
+    public static final byte LOGIN = 5;
+    public static final byte PARDON = 6;
+    public static final byte COMMAND = 7;
+    
+    /* Flags */
+    public static final byte FLAG_THROTTLED = 1;
+    public static final byte FLAG_RETURNED = 2;
+    
+    /* File format */
+    public static final int MAGIC = 0x46444254; /* "FDBT" */
+    public static final int VERSION = 1;
+    public static final int RECORD_SIZE = 32;
+    public static final int HEADER_SIZE = 12;
+    
+    /* Slot marker while a producer is writing */
+    private static final long WRITING = -1;
+    
+    private FactionsDB plugin = null;
+    private volatile boolean enabled = false;
+    private final AtomicLong claimed;
+    private final AtomicLong dropped;
+    
+    /* Ring buffer, allocated when first enabled */
+    private int mask;
+    private long[] times;
+    private long[] uuidHigh;
+    private long[] uuidLow;
+    private int[] durations;
+    private byte[] types;
+    private byte[] flags;
+    private AtomicLongArray published;
+    
+    /* Flusher state, only touched while holding the monitor */
+    private long flushed = 0;
+    private ByteBuffer buffer;
+    private FileChannel channel = null;
+    private FileOutputStream out = null;
+    private long written = 0;
+    private long recorded = 0;
+    
+    /**
+     * Instantiate a reference to the plugin, which provides the trace
+     * configuration. The recorder is disabled until {@link #configure()} is
+     * called with tracing enabled.
+     * 
+     * @param plugin
+     *            Reference to FactionsDB plugin instance
+     */
+    public TraceRecorder(FactionsDB plugin) {
+        this.plugin = plugin;
+        claimed = new AtomicLong();
+        dropped = new AtomicLong();
+    }
+    
+    /**
+     * Close the current trace file, if any.
+     */
+    private void closeFile() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING,
+                        "Failed to close trace file", e);
+            }
+            out = null;
+            channel = null;
+        }
+    }
+    
+    /**
+     * Stop recording and write out every published record, such as when the
+     * plugin is being disabled.
+     */
+    public synchronized void close() {
+        enabled = false;
+        flush();
+        closeFile();
+    }
+    
+    /**
+     * Apply the trace configuration, allocating the ring buffer the first
+     * time tracing is enabled. The buffer size cannot change once allocated.
+     */
+    public synchronized void configure() {
+        boolean enable = plugin.getConfigHelper().isTraceEnabled();
+        if (enable && times == null) {
+            int size = Integer.highestOneBit(Math.max(1024, plugin
+                    .getConfigHelper().getTraceBufferSize()));
+            mask = size - 1;
+            times = new long[size];
+            uuidHigh = new long[size];
+            uuidLow = new long[size];
+            durations = new int[size];
+            types = new byte[size];
+            flags = new byte[size];
+            published = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                published.set(i, WRITING);
+            }
+            buffer = ByteBuffer.allocateDirect(4096 * RECORD_SIZE);
+            flushed = claimed.get();
+        }
+        if (!enable && enabled) {
+            flush();
+            closeFile();
+        }
+        enabled = enable;
+    }
+    
+    /**
+     * Write every published record to the trace file. Stops at the first
+     * record that is still being written, which is picked up by the next
+     * flush.
+     */
+    public synchronized void flush() {
+        if (times == null) {
+            return;
+        }
+        long end = claimed.get();
+        int size = mask + 1;
+        try {
+            while (flushed < end) {
+                if (end - flushed > size) {
+                    /* Overwritten before it could be flushed */
+                    dropped.addAndGet(end - size - flushed);
+                    flushed = end - size;
+                }
+                int slot = (int) (flushed & mask);
+                long sequence = published.get(slot);
+                if (sequence == WRITING || sequence < flushed) {
+                    break;
+                }
+                if (sequence == flushed) {
+                    if (buffer.remaining() < RECORD_SIZE) {
+                        writeBuffer();
+                    }
+                    buffer.putLong(times[slot]);
+                    buffer.putLong(uuidHigh[slot]);
+                    buffer.putLong(uuidLow[slot]);
+                    buffer.putInt(durations[slot]);
+                    buffer.put(types[slot]);
+                    buffer.put(flags[slot]);
+                    buffer.putShort((short) 0);
+                    if (published.get(slot) != sequence) {
+                        /* Overwritten while being copied */
+                        buffer.position(buffer.position() - RECORD_SIZE);
+                        dropped.incrementAndGet();
+                    }
+                } else {
+                    dropped.incrementAndGet();
+                }
+                flushed++;
+            }
+            writeBuffer();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to write trace", e);
+            buffer.clear();
+            closeFile();
+        }
+    }
+    
+    /**
+     * @return Number of records lost because the buffer overflowed
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    /**
+     * @return Number of records written to trace files
+     */
+    public synchronized long getRecorded() {
+        return recorded;
+    }
+    
+    /**
+     * @return Whether events are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Open a new trace file, deleting the oldest if too many exist. Files are
+     * named trace-0.bin (newest) to trace-N.bin (oldest).
+     */
+    private void openFile() throws IOException {
+        File folder = new File(plugin.getDataFolder(), "traces");
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Could not create " + folder);
+        }
+        int files = plugin.getConfigHelper().getTraceFiles();
+        new File(folder, "trace-" + (files - 1) + ".bin").delete();
+        for (int i = files - 2; i >= 0; i--) {
+            new File(folder, "trace-" + i + ".bin").renameTo(new File(folder,
+                    "trace-" + (i + 1) + ".bin"));
+        }
+        out = new FileOutputStream(new File(folder, "trace-0.bin"));
+        channel = out.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        written = HEADER_SIZE;
+    }
+    
+    /**
+     * Record an event. Does nothing if tracing is disabled.
+     * 
+     * @param type
+     *            Event type, such as {@link #BAN}
+     * @param uuid
+     *            Player involved, or null
+     * @param nanos
+     *            Time spent handling the event, in nanoseconds, or 0
+     * @param flag
+     *            Flags, such as {@link #FLAG_THROTTLED}, or 0
+     */
+    public void record(byte type, UUID uuid, long nanos, byte flag) {
+        if (!enabled) {
+            return;
+        }
+        long sequence = claimed.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        published.set(slot, WRITING);
+        times[slot] = System.currentTimeMillis();
+        uuidHigh[slot] = uuid == null ? 0 : uuid.getMostSignificantBits();
+        uuidLow[slot] = uuid == null ? 0 : uuid.getLeastSignificantBits();
+        durations[slot] = (int) Math.min(nanos, Integer.MAX_VALUE);
+        types[slot] = type;
+        flags[slot] = flag;
+        published.lazySet(slot, sequence);
+    }
+    
+    /**
+     * Flush recorded events from the background task.
+     */
+    @Override
+    public void run() {
+        if (enabled) {
+            flush();
+        }
+    }
+    
+    /**
+     * @return Current time in nanoseconds for timing an event, or 0 if
+     *         tracing is disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+    
+    /**
+     * Write the staging buffer to the current trace file, rotating files when
+     * the configured size is reached.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        int records = buffer.remaining() / RECORD_SIZE;
+        if (records > 0) {
+            long limit = plugin.getConfigHelper().getTraceFileSize();
+            if (channel == null || written >= limit) {
+                closeFile();
+                openFile();
+            }
+            while (buffer.hasRemaining()) {
+                written += channel.write(buffer);
+            }
+            recorded += records;
+        }
+        buffer.clear();
+    }
+    
+}